@@ -36,6 +36,11 @@ import org.opensextant.giscore.utils.SimpleObjectOutputStream;
  * We've seen the start of a feature set. The start of the feature set has all
  * the available information about the feature. After the start of a feature,
  * there will be zero or more geometry objects seen.
+ * <p>
+ * A Feature is not thread-safe. In particular a geometry set with
+ * {@link #setGeometrySource(IGeometrySource)} is decoded by the first call
+ * to {@link #getGeometry()} without synchronization, so a Feature must not
+ * be shared between threads until its geometry has been decoded.
  * 
  * @author DRAND
  */
@@ -46,6 +51,12 @@ public class Feature extends Common {
 	private StyleSelector style;
     private Geometry geometry;
 
+	/**
+	 * Source of the geometry while it has not been decoded yet, see
+	 * {@link #setGeometrySource(IGeometrySource)}
+	 */
+	private IGeometrySource geometrySource;
+
 	/**
      * Constructs a basic Feature that may contain a geometry and a style.
      * In KML this represents a Placemark.
@@ -67,6 +78,7 @@ public class Feature extends Common {
 		super.readData(in);
 		style = (StyleSelector) in.readObject();
 		geometry = (Geometry) in.readObject();
+		geometrySource = null;
 	}
 
 	/*
@@ -79,14 +91,22 @@ public class Feature extends Common {
 	public void writeData(SimpleObjectOutputStream out) throws IOException {
 		super.writeData(out);
 		out.writeObject(style);
-		out.writeObject(geometry);
+		// a pending geometry is decoded, the source is never written
+		out.writeObject(getGeometry());
 	}
 
 	/**
-	 * @return the geometry
+	 * @return the geometry, decoded from the geometry source on first access
+	 * if one was set. Not synchronized, see the class description.
+	 * @throws IllegalStateException if the geometry source fails to decode
+	 * the geometry
 	 */
     @CheckForNull
 	public Geometry getGeometry() {
+		if (geometrySource != null) {
+			geometry = geometrySource.createGeometry();
+			geometrySource = null;
+		}
 		return geometry;
 	}
 
@@ -96,6 +116,28 @@ public class Feature extends Common {
 	 */
 	public void setGeometry(Geometry geometry) {
 		this.geometry = geometry;
+		geometrySource = null;
+	}
+
+	/**
+	 * Set a source that creates the geometry when {@link #getGeometry()} is
+	 * first called, replacing the current geometry. Lets readers skip decoding
+	 * geometry that is never used.
+	 *
+	 * @param source
+	 *            the geometry source, <code>null</code> for no geometry
+	 */
+	public void setGeometrySource(IGeometrySource source) {
+		geometry = null;
+		geometrySource = source;
+	}
+
+	/**
+	 * @return <code>true</code> if the geometry has not been decoded from its
+	 * geometry source yet
+	 */
+	public boolean hasPendingGeometry() {
+		return geometrySource != null;
 	}
 
 	/**
@@ -132,8 +174,9 @@ public class Feature extends Common {
 	public int hashCode() {
 		final int prime = 31;
 		int result = super.hashCode();
+		Geometry geom = getGeometry();
 		result = prime * result
-				+ ((geometry == null) ? 0 : geometry.hashCode());
+				+ ((geom == null) ? 0 : geom.hashCode());
 		result = prime * result + ((endTime == null) ? 0 : endTime.hashCode());
 		return result;
 	}
@@ -152,11 +195,13 @@ public class Feature extends Common {
 		if (getClass() != obj.getClass())
 			return false;
 		Feature other = (Feature) obj;
-		if (geometry == null) {
-			if (other.geometry != null)
+		Geometry geom = getGeometry();
+		Geometry otherGeometry = other.getGeometry();
+		if (geom == null) {
+			if (otherGeometry != null)
 				return false;
-		} else if (other.geometry == null ||
-				!geometry.equals(other.geometry))
+		} else if (otherGeometry == null ||
+				!geom.equals(otherGeometry))
 			return false;
 		return true;
 	}
@@ -205,17 +250,19 @@ public class Feature extends Common {
 		}
 
 		// Check geometry for equivalence
-		if (geometry == null && other.geometry == null) {
+		Geometry geom = getGeometry();
+		Geometry otherGeometry = other.getGeometry();
+		if (geom == null && otherGeometry == null) {
 			return true;
-		} else if (geometry != null && other.geometry != null) {
-			Geodetic2DBounds bb1 = geometry.getBoundingBox();
-			Geodetic2DBounds bb2 = other.geometry.getBoundingBox();
+		} else if (geom != null && otherGeometry != null) {
+			Geodetic2DBounds bb1 = geom.getBoundingBox();
+			Geodetic2DBounds bb2 = otherGeometry.getBoundingBox();
 			if (bb1 == null) {
 				if (bb2 != null)
 					return false;
 			} else if (!bb1.equals(bb2, 1e-5))
 				return false;
-			return geometry.getNumPoints() == other.geometry.getNumPoints();
+			return geom.getNumPoints() == otherGeometry.getNumPoints();
 		} else {
 			return false;
 		}
@@ -229,10 +276,11 @@ public class Feature extends Common {
 	@Override
 	public String toString() {
 		StringBuilder b = new StringBuilder(super.toString());
-        if (geometry != null) {
+		Geometry geom = getGeometry();
+        if (geom != null) {
 		    b.append(" geometry class=[");
-		    b.append(geometry.getClass().getName());
-            b.append("]\n\t  center=").append(geometry.getCenter());
+		    b.append(geom.getClass().getName());
+            b.append("]\n\t  center=").append(geom.getCenter());
             b.append('\n');
         }
 		if (style != null) {
@@ -0,0 +1,36 @@
+/****************************************************************************************
+ *  IGeometrySource.java
+ *
+ *  (C) Copyright MITRE Corporation 2013
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantability and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.events;
+
+import org.opensextant.giscore.geometry.Geometry;
+
+/**
+ * Source of a feature's geometry that is decoded on first access. Readers
+ * that can defer decoding, such as the shapefile reader, attach a source to
+ * the {@link Feature} instead of a geometry so that callers that never look
+ * at the geometry do not pay for creating it.
+ *
+ * @see Feature#setGeometrySource(IGeometrySource)
+ */
+public interface IGeometrySource {
+
+	/**
+	 * Create the geometry. Called at most once per feature.
+	 *
+	 * @return the geometry, may be <code>null</code>
+	 * @throws IllegalStateException if the geometry cannot be decoded
+	 */
+	Geometry createGeometry();
+}
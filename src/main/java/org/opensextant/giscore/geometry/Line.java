@@ -157,11 +157,14 @@ public class Line extends GeometryBase implements Iterable<Point> {
 	private void init(List<Point> pts) {
 		// Make sure all the points have the same number of dimensions (2D or 3D)
         is3D = pts.get(0).is3D();
-        for (Point p : pts) {
-            if (is3D != p.is3D()) {
-                log.info("Line points have mixed dimensionality: downgrading line to 2d");
-                is3D = false;
-                break;
+        // packed points all have the same number of dimensions
+        if (!(pts instanceof PackedPointList)) {
+            for (Point p : pts) {
+                if (is3D != p.is3D()) {
+                    log.info("Line points have mixed dimensionality: downgrading line to 2d");
+                    is3D = false;
+                    break;
+                }
             }
         }
         pointList = pts;
@@ -263,11 +263,14 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
         }
         // Make sure all the points have the same number of dimensions (2D or 3D)
         is3D = pts.get(0).is3D();
-        for (Point p : pts) {
-            if (is3D != p.is3D()) {
-                log.info("LinearRing points have mixed dimensionality: downgrading ring to 2d");
-                is3D = false;
-                break;
+        // packed points all have the same number of dimensions
+        if (!(pts instanceof PackedPointList)) {
+            for (Point p : pts) {
+                if (is3D != p.is3D()) {
+                    log.info("LinearRing points have mixed dimensionality: downgrading ring to 2d");
+                    is3D = false;
+                    break;
+                }
             }
         }
         pointList = pts;
@@ -334,13 +337,10 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
      * @return true if this Ring's points are in clockwise order, false otherwise
      */
     public boolean clockwise() {
-        Geodetic2DPoint gp1, gp2;
         double doubleArea = 0.0;
         for (int i = 0; i < pointList.size() - 1; i++) {
-            gp1 = pointList.get(i).asGeodetic2DPoint();
-            gp2 = pointList.get(i + 1).asGeodetic2DPoint();
-            doubleArea += gp1.getLongitude().inRadians() * gp2.getLatitude().inRadians();
-            doubleArea -= gp1.getLatitude().inRadians() * gp2.getLongitude().inRadians();
+            doubleArea += lonRadians(pointList, i) * latRadians(pointList, i + 1);
+            doubleArea -= latRadians(pointList, i) * lonRadians(pointList, i + 1);
         }
         return (doubleArea < 0);
     }
@@ -354,17 +354,17 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
      * @return true if the test point is inside of this ring of points
      */
     public boolean contains(Geodetic2DPoint p) {
+        return contains(p.getLongitude().inRadians(), p.getLatitude().inRadians());
+    }
+
+    // Point in ring test given the longitude (x) and latitude (y) in radians
+    private boolean contains(double x, double y) {
         boolean in = false;
-        double x = p.getLongitude().inRadians();
-        double y = p.getLatitude().inRadians();
-        Geodetic2DPoint gp1, gp2;
         for (int i = 0; i < pointList.size() - 1; i++) {
-            gp1 = pointList.get(i).asGeodetic2DPoint();
-            gp2 = pointList.get(i + 1).asGeodetic2DPoint();
-            double xi = gp1.getLongitude().inRadians();
-            double yi = gp1.getLatitude().inRadians();
-            double xj = gp2.getLongitude().inRadians();
-            double yj = gp2.getLatitude().inRadians();
+            double xi = lonRadians(pointList, i);
+            double yi = latRadians(pointList, i);
+            double xj = lonRadians(pointList, i + 1);
+            double yj = latRadians(pointList, i + 1);
             if ((((yi <= y) && (y < yj)) || ((yj <= y) && (y < yi))) &&
                     (x < (xj - xi) * (y - yi) / (yj - yi) + xi))
                 in = !in;
@@ -381,26 +381,40 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
     public boolean overlaps(LinearRing that) {
         // Compare each segment in this ring to every segment in that ring to see if they cross.
         // Short-circuit exit as soon as any pair of segments being compared cross.
-        Geodetic2DPoint gp1, gp2, gp3, gp4;
+        // Segments can only cross if their bounding rectangles intersect, so segments
+        // of this ring outside the extent of that ring are skipped without comparing.
         int n1 = this.pointList.size();
         int n2 = that.pointList.size();
+        double[] x = new double[n2];
+        double[] y = new double[n2];
+        double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE;
+        double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
+        for (int j = 0; j < n2; j++) {
+            x[j] = lonRadians(that.pointList, j);
+            y[j] = latRadians(that.pointList, j);
+            if (x[j] < xMin) xMin = x[j];
+            if (x[j] > xMax) xMax = x[j];
+            if (y[j] < yMin) yMin = y[j];
+            if (y[j] > yMax) yMax = y[j];
+        }
+        double x1 = lonRadians(this.pointList, 0);
+        double y1 = latRadians(this.pointList, 0);
         for (int i = 0; i < n1 - 1; i++) {
-            gp1 = this.pointList.get(i).asGeodetic2DPoint();
-            double x1 = gp1.getLongitude().inRadians();
-            double y1 = gp1.getLatitude().inRadians();
-            gp2 = this.pointList.get(i + 1).asGeodetic2DPoint();
-            double x2 = gp2.getLongitude().inRadians();
-            double y2 = gp2.getLatitude().inRadians();
-            for (int j = 0; j < n2 - 1; j++) {
-                gp3 = that.pointList.get(j).asGeodetic2DPoint();
-                double x3 = gp3.getLongitude().inRadians();
-                double y3 = gp3.getLatitude().inRadians();
-                gp4 = that.pointList.get(j + 1).asGeodetic2DPoint();
-                double x4 = gp4.getLongitude().inRadians();
-                double y4 = gp4.getLatitude().inRadians();
-                if (linesIntersect(x1, y1, x2, y2, x3, y3, x4, y4))
-                    return true;
+            double x2 = lonRadians(this.pointList, i + 1);
+            double y2 = latRadians(this.pointList, i + 1);
+            double sxMin = Math.min(x1, x2), sxMax = Math.max(x1, x2);
+            double syMin = Math.min(y1, y2), syMax = Math.max(y1, y2);
+            if (sxMin <= xMax && sxMax >= xMin && syMin <= yMax && syMax >= yMin) {
+                for (int j = 0; j < n2 - 1; j++) {
+                    if (Math.max(x[j], x[j + 1]) < sxMin || Math.min(x[j], x[j + 1]) > sxMax
+                            || Math.max(y[j], y[j + 1]) < syMin || Math.min(y[j], y[j + 1]) > syMax)
+                        continue;
+                    if (linesIntersect(x1, y1, x2, y2, x[j], y[j], x[j + 1], y[j + 1]))
+                        return true;
+                }
             }
+            x1 = x2;
+            y1 = y2;
         }
         return false;
     }
@@ -417,7 +431,7 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
     public boolean contains(LinearRing that) {
         // If not overlapping, then all points are either in or they're out, so only test one
         return (!this.overlaps(that) &&
-                this.contains(that.pointList.get(0).asGeodetic2DPoint()));
+                this.contains(lonRadians(that.pointList, 0), latRadians(that.pointList, 0)));
     }
 
     /**
@@ -473,6 +487,18 @@ public class LinearRing extends GeometryBase implements Iterable<Point> {
 		out.writeObjectCollection(pointList);
 	}
 	
+    // Longitude in radians of the i-th point, read from the packed coordinates if available
+    private static double lonRadians(List<Point> pts, int i) {
+        return pts instanceof PackedPointList ? ((PackedPointList) pts).getLongitudeRadians(i)
+                : pts.get(i).asGeodetic2DPoint().getLongitude().inRadians();
+    }
+
+    // Latitude in radians of the i-th point, read from the packed coordinates if available
+    private static double latRadians(List<Point> pts, int i) {
+        return pts instanceof PackedPointList ? ((PackedPointList) pts).getLatitudeRadians(i)
+                : pts.get(i).asGeodetic2DPoint().getLatitude().inRadians();
+    }
+
 	/**
 	 * Taken from Apache Harmony's implementation of Line2D.
 	 *
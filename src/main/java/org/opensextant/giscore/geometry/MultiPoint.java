@@ -104,11 +104,14 @@ public class MultiPoint extends Geometry implements Iterable<Point> {
 	private void init(List<Point> pts) {
 		// Make sure all the points have the same number of dimensions (2D or 3D)
         is3D = pts.get(0).is3D();
-        for (Point p : pts) {
-            if (is3D != p.is3D()) {
-                log.info("MultiPoint points have mixed dimensionality: downgrading to 2d");
-                is3D = false;
-                break;
+        // packed points all have the same number of dimensions
+        if (!(pts instanceof PackedPointList)) {
+            for (Point p : pts) {
+                if (is3D != p.is3D()) {
+                    log.info("MultiPoint points have mixed dimensionality: downgrading to 2d");
+                    is3D = false;
+                    break;
+                }
             }
         }
         pointList = pts;
@@ -0,0 +1,192 @@
+/***************************************************************************
+ * (C) Copyright MITRE Corporation 2013
+ *
+ * The program is provided "as is" without any warranty express or implied,
+ * including the warranty of non-infringement and the implied warranties of
+ * merchantability and fitness for a particular purpose.  The Copyright
+ * owner will not be liable for any damages suffered by you as a result of
+ * using the Program.  In no event will the Copyright owner be liable for
+ * any special, indirect or consequential damages or lost profits even if
+ * the Copyright owner has been advised of the possibility of their
+ * occurrence.
+ *
+ ***************************************************************************/
+package org.opensextant.giscore.geometry;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.geodesy.Geodetic3DPoint;
+import org.opensextant.geodesy.Latitude;
+import org.opensextant.geodesy.Longitude;
+
+/**
+ * An immutable list of points backed by packed coordinate arrays. Readers of
+ * vertex heavy formats such as ESRI Shapefiles use this list to build
+ * {@link Line} and {@link LinearRing} geometries without creating a
+ * {@link Point} (and its Geodetic point, Longitude and Latitude) for every
+ * vertex. Points are created on first access through {@link #get(int)} and
+ * then kept, while the geometry algorithms in this package read the
+ * coordinates directly.
+ * <p>
+ * Several lists may share the same coordinate arrays, e.g. one list per part
+ * of a multi-part shape. Coordinates are held as normalized radians, the same
+ * values that {@code Angle.inRadians()} returns for the points created from
+ * them, so computations on the packed values and on the points agree exactly.
+ */
+public final class PackedPointList extends AbstractList<Point> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final double TWO_PI = 2 * Math.PI;
+
+	private static final double HALF_PI = Math.PI / 2;
+
+	/**
+	 * Largest angle accepted by the geodesy Angle classes
+	 */
+	private static final double MAX_RADIANS = 4 * TWO_PI;
+
+	private final double[] lon;
+	private final double[] lat;
+	private final double[] elev;
+	private final int offset;
+	private final int size;
+
+	/**
+	 * Points created so far, allocated on first access. Creating the same
+	 * point twice from concurrent threads is harmless since the points are equal.
+	 */
+	private transient Point[] points;
+
+	/**
+	 * Create a list over part of the given coordinate arrays. The arrays are
+	 * used by reference and must not be modified afterwards.
+	 *
+	 * @param lon    longitudes in radians as returned by {@link #toLongitudeRadians(double)}
+	 * @param lat    latitudes in radians as returned by {@link #toLatitudeRadians(double)}
+	 * @param elev   elevations in meters, <code>null</code> for 2d points
+	 * @param offset index of the first point in the arrays
+	 * @param size   number of points
+	 * @throws IllegalArgumentException if the arrays are <code>null</code>
+	 *                                  or the range is outside of the arrays
+	 */
+	public PackedPointList(double[] lon, double[] lat, double[] elev, int offset, int size) {
+		if (lon == null || lat == null)
+			throw new IllegalArgumentException("coordinate arrays must be non-null");
+		if (offset < 0 || size < 0 || offset + size > lon.length || offset + size > lat.length
+				|| (elev != null && offset + size > elev.length))
+			throw new IllegalArgumentException("point range is outside of the coordinate arrays");
+		this.lon = lon;
+		this.lat = lat;
+		this.elev = elev;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	/**
+	 * Convert a longitude in degrees to the normalized radians held by
+	 * {@link Longitude}, i.e. in the range [-PI, PI).
+	 *
+	 * @param degrees longitude in degrees
+	 * @return normalized radians
+	 * @throws IllegalArgumentException if the angle is too big to be normalized
+	 */
+	public static double toLongitudeRadians(double degrees) {
+		double r = Math.toRadians(degrees);
+		if (Math.abs(r) > MAX_RADIANS)
+			throw new IllegalArgumentException("Angle " + r + " radians is too big");
+		while (r >= Math.PI) r -= TWO_PI;
+		while (r < -Math.PI) r += TWO_PI;
+		return r;
+	}
+
+	/**
+	 * Convert a latitude in degrees to radians as held by {@link Latitude}.
+	 *
+	 * @param degrees latitude in degrees
+	 * @return radians
+	 * @throws IllegalArgumentException if the latitude exceeds the poles
+	 */
+	public static double toLatitudeRadians(double degrees) {
+		double r = toLongitudeRadians(degrees);
+		if (r < -HALF_PI || HALF_PI < r)
+			throw new IllegalArgumentException("Latitude value exceeds pole value");
+		return r;
+	}
+
+	/**
+	 * @return <code>true</code> if the points have elevations
+	 */
+	public boolean is3D() {
+		return elev != null;
+	}
+
+	/**
+	 * @param index point index
+	 * @return longitude of the point in radians
+	 */
+	public double getLongitudeRadians(int index) {
+		return lon[offset + checkIndex(index)];
+	}
+
+	/**
+	 * @param index point index
+	 * @return latitude of the point in radians
+	 */
+	public double getLatitudeRadians(int index) {
+		return lat[offset + checkIndex(index)];
+	}
+
+	/**
+	 * @param index point index
+	 * @return elevation of the point in meters, 0 for 2d points
+	 */
+	public double getElevation(int index) {
+		checkIndex(index);
+		return elev == null ? 0.0 : elev[offset + index];
+	}
+
+	@Override
+	public Point get(int index) {
+		checkIndex(index);
+		Point[] pts = points;
+		if (pts == null) {
+			pts = new Point[size];
+			points = pts;
+		}
+		Point p = pts[index];
+		if (p == null) {
+			int i = offset + index;
+			Longitude x = new Longitude(lon[i]);
+			Latitude y = new Latitude(lat[i]);
+			p = new Point(elev == null ? new Geodetic2DPoint(x, y) : new Geodetic3DPoint(x, y, elev[i]));
+			pts[index] = p;
+		}
+		return p;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return a list over the given range of points, sharing the coordinate
+	 * arrays of this list
+	 */
+	@Override
+	public PackedPointList subList(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", Size: " + size);
+		return new PackedPointList(lon, lat, elev, offset + fromIndex, toIndex - fromIndex);
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		return index;
+	}
+}
@@ -0,0 +1,430 @@
+/****************************************************************************************
+ *  StreamEventReader.java
+ *
+ *  (C) Copyright MITRE Corporation 2013
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.EntityDeclaration;
+import javax.xml.stream.events.EntityReference;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Event reader on top of an {@link XMLStreamReader} cursor. Events are only
+ * created for the parts of a document that are read event by event, element
+ * text and skipped elements are read directly from the cursor without
+ * creating any event objects.
+ * <p>
+ * The cursor is positioned on the last event returned by this reader unless
+ * an event has been peeked, see {@link #getCursor()}.
+ */
+final class StreamEventReader implements XMLEventReader {
+
+	private static final XMLEventFactory ms_events = XMLEventFactory.newInstance();
+
+	private final XMLStreamReader reader;
+
+	/**
+	 * Event returned by {@link #peek()} but not yet by {@link #nextEvent()}.
+	 */
+	private XMLEvent peeked;
+
+	/**
+	 * True until the START_DOCUMENT the cursor is created on is returned.
+	 */
+	private boolean atStart = true;
+
+	/**
+	 * Namespaces in scope by element depth, the entry at index 0 is the
+	 * document scope.
+	 */
+	private Scope[] scopes = new Scope[16];
+
+	private int depth;
+
+	StreamEventReader(XMLStreamReader reader) {
+		this.reader = reader;
+		scopes[0] = new Scope(null, null, null);
+	}
+
+	/**
+	 * Get the cursor when it is positioned on the last event returned by
+	 * this reader, i.e. nothing is peeked. Reading from the cursor advances
+	 * this reader as well.
+	 *
+	 * @return the cursor, or <code>null</code> if an event is peeked
+	 */
+	XMLStreamReader getCursor() {
+		return peeked == null && !atStart ? reader : null;
+	}
+
+	/**
+	 * Move the cursor to the next event without creating an event object.
+	 * Must only be called while {@link #getCursor()} is non-null.
+	 *
+	 * @return the type of the event the cursor moved to
+	 * @throws XMLStreamException if there is an error with the underlying XML
+	 * @throws NoSuchElementException if the end of the document was reached
+	 */
+	int nextCursor() throws XMLStreamException {
+		if (!reader.hasNext())
+			throw new NoSuchElementException();
+		int type = reader.next();
+		if (type == XMLStreamConstants.START_ELEMENT) {
+			push();
+		} else if (type == XMLStreamConstants.END_ELEMENT) {
+			pop();
+		}
+		return type;
+	}
+
+	/**
+	 * Skip to the next end tag with the given name, consuming the end tag.
+	 *
+	 * @param name the qualified name of the end tag
+	 * @throws XMLStreamException if there is an error with the underlying XML
+	 */
+	void skipTo(QName name) throws XMLStreamException {
+		if (peeked != null) {
+			XMLEvent event = nextEvent();
+			if (event.isEndElement() && event.asEndElement().getName().equals(name))
+				return;
+		}
+		atStart = false;
+		String localPart = name.getLocalPart();
+		String namespaceURI = name.getNamespaceURI();
+		while (reader.hasNext()) {
+			if (nextCursor() == XMLStreamConstants.END_ELEMENT) {
+				if (localPart.equals(reader.getLocalName())
+						&& namespaceURI.equals(nullToEmpty(reader.getNamespaceURI())))
+					return;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of open elements, counting the element whose start
+	 * tag was peeked and not counting the element whose end tag was peeked
+	 */
+	int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Skip to the end of the element open at the given depth, consuming its
+	 * end tag and those of any nested elements.
+	 *
+	 * @param level the depth of the element, see {@link #getDepth()}
+	 * @throws XMLStreamException if there is an error with the underlying XML
+	 */
+	void skipToDepth(int level) throws XMLStreamException {
+		// the cursor is already past a peeked event
+		peeked = null;
+		atStart = false;
+		while (depth >= level && reader.hasNext()) {
+			nextCursor();
+		}
+	}
+
+	/**
+	 * Track the namespace scope of an element the cursor moved to.
+	 */
+	private void push() {
+		Scope scope = scopes[depth];
+		int count = reader.getNamespaceCount();
+		for (int i = 0; i < count; i++) {
+			scope = new Scope(nullToEmpty(reader.getNamespacePrefix(i)),
+					nullToEmpty(reader.getNamespaceURI(i)), scope);
+		}
+		if (++depth == scopes.length) {
+			Scope[] grown = new Scope[depth * 2];
+			System.arraycopy(scopes, 0, grown, 0, depth);
+			scopes = grown;
+		}
+		scopes[depth] = scope;
+	}
+
+	/**
+	 * Leave the namespace scope of the element the cursor ended.
+	 */
+	private void pop() {
+		if (depth > 0) scopes[depth--] = null;
+	}
+
+	public XMLEvent nextEvent() throws XMLStreamException {
+		if (peeked != null) {
+			XMLEvent event = peeked;
+			peeked = null;
+			return event;
+		}
+		return advance();
+	}
+
+	public boolean hasNext() {
+		try {
+			return peeked != null || atStart || reader.hasNext();
+		} catch (XMLStreamException e) {
+			return false;
+		}
+	}
+
+	public XMLEvent peek() throws XMLStreamException {
+		if (peeked == null && hasNext()) {
+			peeked = advance();
+		}
+		return peeked;
+	}
+
+	public String getElementText() throws XMLStreamException {
+		if (peeked == null && !atStart) {
+			if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+				throw new XMLStreamException("parser must be on START_ELEMENT to read next text",
+						reader.getLocation());
+			String text;
+			try {
+				text = reader.getElementText();
+			} catch (XMLStreamException e) {
+				if (reader.getEventType() == XMLStreamConstants.START_ELEMENT) {
+					// reader stopped on a child element
+					push();
+				}
+				throw e;
+			}
+			pop();
+			return text;
+		}
+		StringBuilder buf = new StringBuilder();
+		while (true) {
+			XMLEvent event = nextEvent();
+			if (event.isEndElement()) {
+				return buf.toString();
+			} else if (event.isCharacters()) {
+				buf.append(event.asCharacters().getData());
+			} else if (event.isStartElement()) {
+				throw new XMLStreamException("elementGetText() function expects text only element but START_ELEMENT was encountered.",
+						event.getLocation());
+			} else if (event.getEventType() == XMLStreamConstants.ENTITY_REFERENCE) {
+				// append the replacement text as XMLEventReader.getElementText() does,
+				// the cursor is still on the event just returned
+				EntityDeclaration declaration = ((EntityReference) event).getDeclaration();
+				String replacement = declaration != null ? declaration.getReplacementText() : reader.getText();
+				if (replacement != null) buf.append(replacement);
+			} else if (event.getEventType() == XMLStreamConstants.END_DOCUMENT) {
+				throw new XMLStreamException("unexpected end of document when reading element text content");
+			}
+		}
+	}
+
+	public XMLEvent nextTag() throws XMLStreamException {
+		while (true) {
+			XMLEvent event = nextEvent();
+			switch (event.getEventType()) {
+				case XMLStreamConstants.START_ELEMENT:
+				case XMLStreamConstants.END_ELEMENT:
+					return event;
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.COMMENT:
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+					if (!((Characters) event).isWhiteSpace())
+						throw new XMLStreamException("expected start or end tag", event.getLocation());
+					break;
+				default:
+					throw new XMLStreamException("expected start or end tag", event.getLocation());
+			}
+		}
+	}
+
+	public Object getProperty(String name) {
+		return reader.getProperty(name);
+	}
+
+	public void close() throws XMLStreamException {
+		reader.close();
+	}
+
+	public Object next() {
+		try {
+			return nextEvent();
+		} catch (XMLStreamException e) {
+			NoSuchElementException ex = new NoSuchElementException(e.getMessage());
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Move the cursor to the next event and create the event object for it.
+	 */
+	private XMLEvent advance() throws XMLStreamException {
+		if (atStart) {
+			atStart = false;
+		} else if (reader.hasNext()) {
+			reader.next();
+		} else {
+			throw new NoSuchElementException();
+		}
+		switch (reader.getEventType()) {
+			case XMLStreamConstants.START_ELEMENT:
+				push();
+				return createStartElement();
+			case XMLStreamConstants.END_ELEMENT:
+				pop();
+				return ms_events.createEndElement(nullToEmpty(reader.getPrefix()),
+						nullToEmpty(reader.getNamespaceURI()), reader.getLocalName(), getNamespaces());
+			case XMLStreamConstants.CHARACTERS:
+				return ms_events.createCharacters(reader.getText());
+			case XMLStreamConstants.SPACE:
+				return ms_events.createIgnorableSpace(reader.getText());
+			case XMLStreamConstants.CDATA:
+				return ms_events.createCData(reader.getText());
+			case XMLStreamConstants.COMMENT:
+				return ms_events.createComment(reader.getText());
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				return ms_events.createProcessingInstruction(reader.getPITarget(), reader.getPIData());
+			case XMLStreamConstants.ENTITY_REFERENCE:
+				return ms_events.createEntityReference(reader.getLocalName(), null);
+			case XMLStreamConstants.DTD:
+				return ms_events.createDTD(reader.getText());
+			case XMLStreamConstants.START_DOCUMENT:
+				return createStartDocument();
+			case XMLStreamConstants.END_DOCUMENT:
+				return ms_events.createEndDocument();
+			default:
+				throw new XMLStreamException("Unexpected event type " + reader.getEventType(),
+						reader.getLocation());
+		}
+	}
+
+	private XMLEvent createStartDocument() {
+		String encoding = reader.getCharacterEncodingScheme();
+		if (encoding == null) {
+			// no XML declaration or no encoding in it, defaults to UTF-8
+			return ms_events.createStartDocument();
+		}
+		String version = reader.getVersion();
+		return ms_events.createStartDocument(encoding, version == null ? "1.0" : version,
+				reader.isStandalone());
+	}
+
+	private XMLEvent createStartElement() {
+		int count = reader.getAttributeCount();
+		Iterator<Attribute> attributes;
+		if (count == 0) {
+			attributes = Collections.<Attribute>emptyList().iterator();
+		} else {
+			List<Attribute> list = new ArrayList<Attribute>(count);
+			for (int i = 0; i < count; i++) {
+				list.add(ms_events.createAttribute(nullToEmpty(reader.getAttributePrefix(i)),
+						nullToEmpty(reader.getAttributeNamespace(i)),
+						reader.getAttributeLocalName(i), reader.getAttributeValue(i)));
+			}
+			attributes = list.iterator();
+		}
+		return ms_events.createStartElement(nullToEmpty(reader.getPrefix()),
+				nullToEmpty(reader.getNamespaceURI()), reader.getLocalName(),
+				attributes, getNamespaces(), scopes[depth]);
+	}
+
+	private Iterator<javax.xml.stream.events.Namespace> getNamespaces() {
+		int count = reader.getNamespaceCount();
+		if (count == 0) {
+			return Collections.<javax.xml.stream.events.Namespace>emptyList().iterator();
+		}
+		List<javax.xml.stream.events.Namespace> list =
+				new ArrayList<javax.xml.stream.events.Namespace>(count);
+		for (int i = 0; i < count; i++) {
+			String prefix = reader.getNamespacePrefix(i);
+			String uri = nullToEmpty(reader.getNamespaceURI(i));
+			list.add(prefix == null || prefix.isEmpty() ? ms_events.createNamespace(uri)
+					: ms_events.createNamespace(prefix, uri));
+		}
+		return list.iterator();
+	}
+
+	private static String nullToEmpty(String s) {
+		return s == null ? "" : s;
+	}
+
+	/**
+	 * Immutable chain of namespace declarations, shared by all elements that
+	 * do not declare namespaces of their own.
+	 */
+	private static final class Scope implements NamespaceContext {
+		private final String prefix;
+		private final String uri;
+		private final Scope parent;
+
+		Scope(String prefix, String uri, Scope parent) {
+			this.prefix = prefix;
+			this.uri = uri;
+			this.parent = parent;
+		}
+
+		public String getNamespaceURI(String prefix) {
+			if (prefix == null)
+				throw new IllegalArgumentException("prefix should never be null");
+			if (XMLConstants.XML_NS_PREFIX.equals(prefix))
+				return XMLConstants.XML_NS_URI;
+			if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix))
+				return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+			for (Scope s = this; s.prefix != null; s = s.parent) {
+				if (s.prefix.equals(prefix)) return s.uri;
+			}
+			return XMLConstants.NULL_NS_URI;
+		}
+
+		public String getPrefix(String namespaceURI) {
+			Iterator<String> it = getPrefixes(namespaceURI);
+			return it.hasNext() ? it.next() : null;
+		}
+
+		public Iterator<String> getPrefixes(String namespaceURI) {
+			if (namespaceURI == null)
+				throw new IllegalArgumentException("namespaceURI should never be null");
+			if (XMLConstants.XML_NS_URI.equals(namespaceURI))
+				return Collections.singletonList(XMLConstants.XML_NS_PREFIX).iterator();
+			if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceURI))
+				return Collections.singletonList(XMLConstants.XMLNS_ATTRIBUTE).iterator();
+			List<String> prefixes = new ArrayList<String>(1);
+			for (Scope s = this; s.prefix != null; s = s.parent) {
+				// skip prefixes redeclared by an inner element
+				if (s.uri.equals(namespaceURI) && !prefixes.contains(s.prefix)
+						&& getNamespaceURI(s.prefix).equals(namespaceURI))
+					prefixes.add(s.prefix);
+			}
+			return prefixes.iterator();
+		}
+	}
+}
@@ -23,13 +23,16 @@ import edu.umd.cs.findbugs.annotations.Nullable;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.Attribute;
 import javax.xml.stream.events.Characters;
 import javax.xml.stream.events.StartElement;
@@ -46,7 +49,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Common superclass for Xml based input stream implementations
+ * Common superclass for Xml based input stream implementations.
+ * <p>
+ * The XML is parsed with an {@link XMLStreamReader} cursor. Subclasses read
+ * the document structure as events from {@link #stream}, while element text,
+ * foreign elements and skipped elements are read by the helper methods of
+ * this class directly from the cursor without creating event objects.
  * 
  * @author DRAND
  */
@@ -61,6 +69,16 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 	protected InputStream is;
 	protected XMLEventReader stream;
 
+	/**
+	 * Cursor based event reader, same as {@link #stream}
+	 */
+	private final StreamEventReader events;
+
+	/**
+	 * Text of the last element read by {@link #readElementChars()}
+	 */
+	private char[] elementChars = new char[256];
+
     @NonNull
 	private String encoding = "UTF-8";
 
@@ -77,10 +95,11 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 		}
 		is = inputStream;
 		try {
-			this.stream = ms_fact.createXMLEventReader(is);
+			events = new StreamEventReader(ms_fact.createXMLStreamReader(is));
 		} catch (XMLStreamException e) {
 			throw new IOException(e);
 		}
+		this.stream = events;
 	}
 
 	/**
@@ -205,17 +224,7 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 	@NonNull
 	protected IGISObject getForeignElement(StartElement se)
 			throws XMLStreamException {
-		Element el = new Element();
-        QName qName = se.getName();
-        el.setName(qName.getLocalPart());
-        String nsURI = qName.getNamespaceURI();
-        if (StringUtils.isNotBlank(nsURI)) {
-            try {
-                el.setNamespace(Namespace.getNamespace(qName.getPrefix(), nsURI));
-            } catch (IllegalArgumentException e) {
-                log.error("Failed to assign namespace " + qName);
-            }
-        }
+		Element el = createElement(se.getName());
 		@SuppressWarnings("unchecked")
 		Iterator<javax.xml.stream.events.Namespace> nsiter = se.getNamespaces();
 		while (nsiter.hasNext()) {
@@ -230,15 +239,12 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 		Iterator<Attribute> aiter = se.getAttributes();
 		while (aiter.hasNext()) {
 			Attribute attr = aiter.next();
-			String aname;
-			final String prefix = attr.getName().getPrefix();
-			if (StringUtils.isBlank(prefix)) {
-				aname = attr.getName().getLocalPart();
-			} else {
-				aname = prefix + ":"
-						+ attr.getName().getLocalPart();
-			}
-			el.getAttributes().put(aname, attr.getValue());
+			putAttribute(el, attr.getName().getPrefix(), attr.getName().getLocalPart(), attr.getValue());
+		}
+		XMLStreamReader cursor = events.getCursor();
+		if (cursor != null) {
+			readElementContent(el, cursor);
+			return el;
 		}
 		XMLEvent nextel = stream.nextEvent();
 		while (true) {
@@ -261,6 +267,69 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 		return el;
 	}
 
+	/**
+	 * Read the text and child elements of a foreign element from the cursor
+	 * up to and including its end tag.
+	 */
+	private void readElementContent(Element el, XMLStreamReader cursor)
+			throws XMLStreamException {
+		StringBuilder text = null;
+		while (true) {
+			int type = events.nextCursor();
+			if (type == XMLStreamConstants.CHARACTERS || type == XMLStreamConstants.CDATA
+					|| type == XMLStreamConstants.SPACE) {
+				if (text == null) text = new StringBuilder();
+				text.append(cursor.getTextCharacters(), cursor.getTextStart(), cursor.getTextLength());
+			} else if (type == XMLStreamConstants.ENTITY_REFERENCE) {
+				// replacement text of an entity that was not replaced, if known
+				String replacement = cursor.getText();
+				if (replacement != null) {
+					if (text == null) text = new StringBuilder();
+					text.append(replacement);
+				}
+			} else if (type == XMLStreamConstants.START_ELEMENT) {
+				Element child = createElement(cursor.getName());
+				int count = cursor.getNamespaceCount();
+				for (int i = 0; i < count; i++) {
+					final String prefix = cursor.getNamespacePrefix(i);
+					if (StringUtils.isNotBlank(prefix)) {
+						child.addNamespace(Namespace.getNamespace(prefix, cursor.getNamespaceURI(i)));
+					}
+				}
+				count = cursor.getAttributeCount();
+				for (int i = 0; i < count; i++) {
+					putAttribute(child, cursor.getAttributePrefix(i),
+							cursor.getAttributeLocalName(i), cursor.getAttributeValue(i));
+				}
+				readElementContent(child, cursor);
+				el.getChildren().add(child);
+			} else if (type == XMLStreamConstants.END_ELEMENT) {
+				break;
+			}
+		}
+		if (text != null) el.setText(text.toString());
+	}
+
+	@NonNull
+	private static Element createElement(QName qName) {
+		Element el = new Element();
+		el.setName(qName.getLocalPart());
+		String nsURI = qName.getNamespaceURI();
+		if (StringUtils.isNotBlank(nsURI)) {
+			try {
+				el.setNamespace(Namespace.getNamespace(qName.getPrefix(), nsURI));
+			} catch (IllegalArgumentException e) {
+				log.error("Failed to assign namespace " + qName);
+			}
+		}
+		return el;
+	}
+
+	private static void putAttribute(Element el, String prefix, String localPart, String value) {
+		String aname = StringUtils.isBlank(prefix) ? localPart : prefix + ":" + localPart;
+		el.getAttributes().put(aname, value);
+	}
+
 	/**
 	 * Read the element and then serialize the read element(s) into text
 	 * 
@@ -322,6 +391,74 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 		return elementText.isEmpty() ? null : elementText;
 	}
 
+	/**
+	 * Reads the text of a text-only element like {@link XMLEventReader#getElementText()}
+	 * into a character buffer that is reused for each element, so large text
+	 * such as coordinates can be parsed without creating a String.
+	 *
+	 * @return length of the text in {@link #getElementChars()}
+	 * @throws XMLStreamException
+	 *             if the current event is not a START_ELEMENT or if a non text
+	 *             element is encountered
+	 */
+	protected int readElementChars() throws XMLStreamException {
+		XMLStreamReader cursor = events.getCursor();
+		if (cursor == null || cursor.getEventType() != XMLStreamConstants.START_ELEMENT) {
+			String text = stream.getElementText();
+			int len = text.length();
+			ensureElementChars(len);
+			text.getChars(0, len, elementChars, 0);
+			return len;
+		}
+		int len = 0;
+		while (true) {
+			switch (events.nextCursor()) {
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					int count = cursor.getTextLength();
+					ensureElementChars(len + count);
+					System.arraycopy(cursor.getTextCharacters(), cursor.getTextStart(),
+							elementChars, len, count);
+					len += count;
+					break;
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					String text = cursor.getText();
+					ensureElementChars(len + text.length());
+					text.getChars(0, text.length(), elementChars, len);
+					len += text.length();
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				case XMLStreamConstants.COMMENT:
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					return len;
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new XMLStreamException("unexpected end of document when reading element text content");
+				case XMLStreamConstants.START_ELEMENT:
+					throw new XMLStreamException("elementGetText() function expects text only element but START_ELEMENT was encountered.",
+							cursor.getLocation());
+				default:
+					throw new XMLStreamException("Unexpected event type " + cursor.getEventType(),
+							cursor.getLocation());
+			}
+		}
+	}
+
+	/**
+	 * @return the buffer holding the text of the element last read by
+	 * {@link #readElementChars()}, valid until the next call
+	 */
+	@NonNull
+	protected char[] getElementChars() {
+		return elementChars;
+	}
+
+	private void ensureElementChars(int capacity) {
+		if (capacity > elementChars.length)
+			elementChars = Arrays.copyOf(elementChars, Math.max(capacity, 2 * elementChars.length));
+	}
+
 	/**
 	 * Returns Integer from stream if valid otherwise {@code null}
 	 *
@@ -382,6 +519,25 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 		}
 	}
 
+	/**
+	 * @return the number of elements open at the current position of the stream
+	 */
+	protected int getElementDepth() {
+		return events.getDepth();
+	}
+
+	/**
+	 * Skip the rest of an element, including any elements nested in it with
+	 * the same name, unlike {@link #skipNextElement(XMLEventReader, QName)}.
+	 *
+	 * @param depth the depth of the element when its start tag was read,
+	 *              see {@link #getElementDepth()}
+	 * @throws XMLStreamException if there is an error with the underlying XML
+	 */
+	protected void skipElement(int depth) throws XMLStreamException {
+		events.skipToDepth(depth);
+	}
+
 	/**
 	 * Skip to end of target element given its fully qualified
 	 * <code>QName</code>
@@ -394,6 +550,10 @@ public abstract class XmlInputStream extends GISInputStreamBase {
 	 */
 	protected void skipNextElement(XMLEventReader element, QName name)
 			throws XMLStreamException {
+		if (element == events) {
+			events.skipTo(name);
+			return;
+		}
 		while (true) {
 			XMLEvent next = element.nextEvent();
 			if (next == null || foundEndTag(next, name)) {
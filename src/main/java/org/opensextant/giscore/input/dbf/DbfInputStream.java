@@ -23,10 +23,23 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.Row;
@@ -51,6 +64,24 @@ public class DbfInputStream extends GISInputStreamBase implements
 
     private static final Logger logger = LoggerFactory.getLogger(DbfInputStream.class);
 
+    /**
+     * Smallest number of records decoded by one task of a parallel scan
+     */
+    private static final int MIN_SCAN_SLICE = 1024;
+
+    /**
+     * Largest mantissa that is exact in a double
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    /**
+     * Powers of ten that are exact in a double
+     */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
     /**
      * Class to instantiate when reading in rows
      */
@@ -61,6 +92,12 @@ public class DbfInputStream extends GISInputStreamBase implements
      */
     private BinaryInputStream stream;
 
+    /**
+     * Channel of the underlying file, only present if this stream was
+     * opened on a file. Used to position the stream for random access.
+     */
+    private FileChannel fileChannel;
+
     /**
      * The schema, derived from the dbf file
      */
@@ -76,6 +113,11 @@ public class DbfInputStream extends GISInputStreamBase implements
      */
     private int recordSize = 0;
 
+    /**
+     * The size of the header in bytes, which is the offset of the first record
+     */
+    private int headerSize = 0;
+
     /**
      * The current record pointer
      */
@@ -86,7 +128,64 @@ public class DbfInputStream extends GISInputStreamBase implements
      */
     private byte[] dataBuffer;
 
-    private transient SimpleDateFormat dateFormatter;
+    /**
+     * All fields of the dbf file in record order
+     */
+    private SimpleField[] fields;
+
+    /**
+     * Offset of each field within a record, following the delete flag
+     */
+    private int[] fieldOffsets;
+
+    /**
+     * Dictionaries of the character fields by field index, <code>null</code>
+     * if values are not shared
+     */
+    private volatile StringDictionary[] dictionaries;
+
+    /**
+     * Maximum number of values in each dictionary, 0 if values are not shared
+     */
+    private int dictionaryLimit;
+
+    /**
+     * Indices of the fields that are decoded, all fields unless a projection
+     * has been set
+     */
+    private int[] projection;
+
+    /**
+     * Set once a row has been read, the projection can't change after that
+     */
+    private boolean rowRead;
+
+    /**
+     * Decodes the records read sequentially from the stream
+     */
+    private RecordDecoder decoder;
+
+    /**
+     * Decodes the records read by record number
+     */
+    private RecordDecoder randomDecoder;
+
+    /**
+     * Read only mappings of the records of the file, each holding
+     * {@link #recordsPerSegment} records. Created on first random access.
+     */
+    private ByteBuffer[] segments;
+
+    /**
+     * Number of records in each mapped segment
+     */
+    private int recordsPerSegment;
+
+    /**
+     * Number of records that are present in the mapped file, which can be less
+     * than the count given in the header for a truncated file
+     */
+    private int mappedCount;
 
     /**
      * @param file
@@ -102,7 +201,8 @@ public class DbfInputStream extends GISInputStreamBase implements
         if (!file.exists()) {
             throw new IllegalArgumentException("file does not exist: " + file);
         }
-        InputStream is = new FileInputStream(file);
+        FileInputStream is = new FileInputStream(file);
+        fileChannel = is.getChannel();
         init(is, arguments);
     }
 
@@ -153,8 +253,11 @@ public class DbfInputStream extends GISInputStreamBase implements
         // Read record count, header length (used to compute the number of
         // fields), and record length
         count = stream.readInt(ByteOrder.LITTLE_ENDIAN);
-        int numFields = (stream.readShort(ByteOrder.LITTLE_ENDIAN) - 33) / 32;
+        headerSize = stream.readShort(ByteOrder.LITTLE_ENDIAN) & 0xffff;
+        int numFields = (headerSize - 33) / 32;
         recordSize = stream.readShort(ByteOrder.LITTLE_ENDIAN);
+        if (recordSize < 1)
+            throw new IOException("Invalid dbf record size (" + recordSize + ")");
 
         // Skip over bytes we don't care about
         if (stream.read(headBuffer, 0, 20) != 20)
@@ -162,6 +265,9 @@ public class DbfInputStream extends GISInputStreamBase implements
 
         schema = new Schema();
         addFirst(schema);
+        fields = new SimpleField[numFields];
+        fieldOffsets = new int[numFields];
+        int offset = 1; // skip over record delete flag
 
         for (int i = 0; i < numFields; i++) {
             // Read the field name, padded with null bytes
@@ -220,7 +326,12 @@ public class DbfInputStream extends GISInputStreamBase implements
             if (stream.read(headBuffer, 0, 14) != 14)
                 throw new EOFException();
             schema.put(field);
+            fields[i] = field;
+            fieldOffsets[i] = offset;
+            offset += len;
         }
+        projection = new int[numFields];
+        for (int i = 0; i < numFields; i++) projection[i] = i;
         // Validate end-of-header (EOH) carriage-return character (hex 0x0d)
         byte term = stream.readByte();
         if (term != EOH)
@@ -228,6 +339,7 @@ public class DbfInputStream extends GISInputStreamBase implements
                     "Expecting dbf end-of-header flag (hex '0d'),"
                             + " found hex '" + byteToHex(term) + "'");
         dataBuffer = new byte[recordSize];
+        decoder = new RecordDecoder(dataBuffer);
     }
 
     /**
@@ -248,7 +360,137 @@ public class DbfInputStream extends GISInputStreamBase implements
                 logger.error("Problem closing stream", e);
             }
             stream = null;
+            fileChannel = null;
+            segments = null;
+        }
+    }
+
+    /**
+     * @return the number of records in the dbf file as given by the header
+     */
+    public int getRecordCount() {
+        return count;
+    }
+
+    /**
+     * Restrict the fields that are read to the given names. The fields not
+     * named are skipped without being decoded and are removed from the schema
+     * returned by this stream, which keeps the field order of the dbf file.
+     * Must be called before the first row is read.
+     *
+     * @param fieldNames names of the fields to read, <code>null</code> to read
+     *                   all fields
+     * @throws IllegalArgumentException if a name is not a field of the dbf file
+     * @throws IllegalStateException if a row has already been read
+     */
+    public void setProjection(Collection<String> fieldNames) {
+        if (rowRead) {
+            throw new IllegalStateException(
+                    "Projection must be set before reading rows");
+        }
+        if (fieldNames != null) {
+            for (String name : fieldNames) {
+                if (indexOf(name) < 0)
+                    throw new IllegalArgumentException("Unknown field " + name);
+            }
+        }
+        for (SimpleField field : fields) {
+            schema.remove(field.getName());
+        }
+        int n = 0;
+        int[] indices = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            if (fieldNames == null || fieldNames.contains(fields[i].getName())) {
+                schema.put(fields[i]);
+                indices[n++] = i;
+            }
+        }
+        projection = Arrays.copyOf(indices, n);
+    }
+
+    /**
+     * @return the names of the fields that are read in dbf file order
+     */
+    public List<String> getProjection() {
+        List<String> names = new ArrayList<String>(projection.length);
+        for (int i : projection) {
+            names.add(fields[i].getName());
+        }
+        return names;
+    }
+
+    /**
+     * Share the String instances of repeated values of character fields, such
+     * as state codes or feature classes. Each character field keeps a
+     * dictionary of up to <code>maxEntries</code> distinct values, equal
+     * values read from the field are then the same String instance. This
+     * saves memory when many rows are held and makes comparing values
+     * cheap. A field with more distinct values stops sharing them and
+     * drops its dictionary.
+     * <p>
+     * Affects the rows read after this is called.
+     *
+     * @param maxEntries maximum number of distinct values per field, 0 (the
+     *                   default) to create a new String for every value
+     * @throws IllegalArgumentException if maxEntries is negative
+     */
+    public void setDictionaryLimit(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        dictionaryLimit = maxEntries;
+        if (maxEntries == 0) {
+            dictionaries = null;
+            return;
+        }
+        StringDictionary[] dicts = new StringDictionary[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getType() == Type.STRING)
+                dicts[i] = new StringDictionary(maxEntries);
+        }
+        dictionaries = dicts;
+    }
+
+    /**
+     * @return the maximum number of distinct values shared per character
+     *         field, 0 if values are not shared
+     */
+    public int getDictionaryLimit() {
+        return dictionaryLimit;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i].getName().equals(name)) return i;
         }
+        return -1;
+    }
+
+    /**
+     * Position this stream so that the next row read is the record with the
+     * given zero-based record number. Only supported for streams opened on a
+     * file. Note that the schema is still returned first if it has not
+     * been read yet.
+     *
+     * @param recordNumber zero-based record number, a value equal to the
+     *                     record count positions the stream at the end
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if recordNumber is out of range
+     * @throws UnsupportedOperationException if this stream was not opened on a file
+     */
+    public void seek(int recordNumber) throws IOException {
+        if (fileChannel == null) {
+            throw new UnsupportedOperationException(
+                    "Random access is only supported for file based dbf streams");
+        }
+        if (recordNumber < 0 || recordNumber > count) {
+            throw new IllegalArgumentException("Record number out of range: "
+                    + recordNumber);
+        }
+        // stream reads straight from the file so positioning the channel
+        // positions the stream as well
+        fileChannel.position(headerSize + (long) recordNumber * recordSize);
+        current = recordNumber;
     }
 
   /**
@@ -265,14 +507,7 @@ public class DbfInputStream extends GISInputStreamBase implements
         if (hasSaved())
             return readSaved();
         else {
-            Row rval;
-            try {
-                rval = rowClass.newInstance();
-            } catch (Exception e) {
-                throw new IllegalArgumentException(
-                        "Cannot instantiate given row class "
-                                + rowClass.getCanonicalName(), e);
-            }
+            Row rval = createRow();
             if (readRecord(rval))
                 return rval;
             else
@@ -293,6 +528,35 @@ public class DbfInputStream extends GISInputStreamBase implements
         if (row == null) {
             throw new IllegalArgumentException("row should never be null");
         }
+        if (!readRecordBytes())
+            return false; // EOF
+        rowRead = true;
+        decoder.decode(row, current);
+        current++; // Point to next
+        return true;
+    }
+
+    /**
+     * Skip over the next record without decoding any of its fields.
+     *
+     * @return <code>true</code> if a record was skipped, <code>false</code>
+     *         at the end of the file
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean skipRecord() throws IOException {
+        if (!readRecordBytes())
+            return false; // EOF
+        current++;
+        return true;
+    }
+
+    /**
+     * Read the bytes of the current record into the data buffer.
+     *
+     * @return <code>false</code> if there are no more records
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean readRecordBytes() throws IOException {
         if (current >= count)
             return false; // EOF
         int numRead = stream.read(dataBuffer, 0, recordSize);
@@ -303,128 +567,622 @@ public class DbfInputStream extends GISInputStreamBase implements
                 throw new EOFException();
             nBytes += numRead;
         }
-        // Verify Record is OK (not marked for deletion: ' ' == OK, '*' ==
-        // deleted)
-        if (dataBuffer[0] != ROK)
-            throw new IOException("Record " + current
-                    + " has deletion flag of hex " + byteToHex(dataBuffer[0]));
-        int start = 1; // skip over record delete flag
-        for (String fieldname : schema.getKeys()) {
-            SimpleField field = schema.get(fieldname);
-            // Create the appropriate type of Object for this data field and add
-            // it to list
-            String valStr = new String(dataBuffer, start, field.getLength(),
-                    "US-ASCII").trim();
-            try {
-                row.putData(field, parseValStr(field.getType(), valStr));
-            } catch (ParseException e) {
-                final IOException e2 = new IOException();
-                e2.initCause(e);
-                throw e2;
-            }
-            start += field.getLength();
-        }
-        current++; // Point to next
         return true;
     }
 
     /**
-     * This method is used to convert a String attribute value into a Java
-     * Object of the appropriate class, based on the DBase data type.
+     * Read the record with the given zero-based record number into a new row.
+     * The file is memory mapped on first use and the record is decoded from
+     * the mapping, so the position of the sequential {@link #read()} is not
+     * affected. Like the other read methods this is not thread safe, use
+     * {@link #iterator(int, int)} or {@link #scan(int, int, int, RecordHandler)}
+     * to read from several threads.
      *
-     * @param type   the type that the value must be converted to
-     * @param valStr String value to be converted to Object
-     * @return Object value result of parsing valStr
-     * @throws ParseException error if value can not be parsed or type is unrecognized
+     * @param recordNumber zero-based record number
+     * @return the row holding the projected fields of the record
+     * @throws IOException if an I/O error occurs or the record is deleted
+     * @throws IllegalArgumentException if recordNumber is out of range
+     * @throws UnsupportedOperationException if this stream was not opened on a file
      */
-    @SuppressWarnings("fallthrough")
-    private Object parseValStr(Type type, String valStr) throws ParseException {
-        valStr = valStr.trim();
-        if (valStr.isEmpty()) {
-            // null values represented as all spaces
-            return null;
-        }
-        // allow SHORT/INT/LONG pre-check for DOUBLE
-        boolean typeCheck = true;
-        switch (type) {
-            case STRING:
-                return valStr;
-
-            case SHORT:
+    public Row readRecord(int recordNumber) throws IOException {
+        checkRange(recordNumber, recordNumber + 1);
+        if (randomDecoder == null) {
+            randomDecoder = new RecordDecoder(new byte[recordSize]);
+        }
+        Row row = createRow();
+        readMappedRecord(recordNumber, randomDecoder, row);
+        return row;
+    }
+
+    /**
+     * Iterate over the rows of a range of records. Each iterator decodes from
+     * the memory mapped file with its own buffers, so several iterators over
+     * different ranges may be used concurrently from different threads. An
+     * error reading a record is thrown from {@link Iterator#next()} as an
+     * {@link IllegalStateException} wrapping the underlying IOException.
+     *
+     * @param fromRecord zero-based number of the first record, inclusive
+     * @param toRecord   zero-based number of the last record, exclusive
+     * @return iterator over new rows for the records in the range
+     * @throws IOException if the file cannot be mapped
+     * @throws IllegalArgumentException if the range is out of bounds
+     * @throws UnsupportedOperationException if this stream was not opened on a file
+     */
+    public Iterator<Row> iterator(final int fromRecord, final int toRecord) throws IOException {
+        checkRange(fromRecord, toRecord);
+        final RecordDecoder rangeDecoder = new RecordDecoder(new byte[recordSize]);
+        return new Iterator<Row>() {
+            private int next = fromRecord;
+
+            public boolean hasNext() {
+                return next < toRecord;
+            }
+
+            public Row next() {
+                if (next >= toRecord) {
+                    throw new NoSuchElementException();
+                }
+                Row row = createRow();
                 try {
-                    return Short.valueOf(valStr);
-                } catch (NumberFormatException e) {
-                    // fall through and try as INT
+                    readMappedRecord(next, rangeDecoder, row);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to read dbf record " + next, e);
                 }
+                next++;
+                return row;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Decode a range of records on several threads and pass each row to the
+     * handler. The range is split into contiguous slices that are decoded
+     * from the memory mapped file, each thread handing its rows to the
+     * handler in record order. The handler is called concurrently and must be
+     * thread safe. The scan stops at the first error, which is thrown as is
+     * once all threads are done.
+     *
+     * @param fromRecord  zero-based number of the first record, inclusive
+     * @param toRecord    zero-based number of the last record, exclusive
+     * @param parallelism number of decoding threads
+     * @param handler     receives the rows, never <code>null</code>
+     * @throws IOException if an I/O error occurs, a record is deleted, or the
+     *                     handler throws an IOException
+     * @throws IllegalArgumentException if the range is out of bounds,
+     *                     parallelism is less than 1 or handler is null
+     * @throws UnsupportedOperationException if this stream was not opened on a file
+     */
+    public void scan(int fromRecord, int toRecord, int parallelism,
+                     RecordHandler handler) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        if (handler == null) {
+            throw new IllegalArgumentException("handler should never be null");
+        }
+        checkRange(fromRecord, toRecord);
+        // a few slices per thread to even out the work
+        int sliceSize = Math.max(MIN_SCAN_SLICE,
+                (toRecord - fromRecord) / (parallelism * 4));
+        RangeScan scan = new RangeScan(fromRecord, toRecord, sliceSize, handler,
+                new AtomicReference<Exception>());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(scan);
+        } finally {
+            pool.shutdown();
+        }
+        Exception error = scan.error.get();
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw (RuntimeException) error;
+        }
+    }
 
-            case INT:
+    /**
+     * Check a record range and map the file if needed. Called on the caller's
+     * thread before any record is read, so this is where the rows count as
+     * read for {@link #setProjection(Collection)}.
+     *
+     * @throws IOException if the file cannot be mapped
+     * @throws IllegalArgumentException if the range is out of bounds
+     * @throws UnsupportedOperationException if this stream was not opened on a file
+     */
+    private void checkRange(int fromRecord, int toRecord) throws IOException {
+        if (fileChannel == null) {
+            throw new UnsupportedOperationException(
+                    "Random access is only supported for file based dbf streams");
+        }
+        if (fromRecord < 0 || toRecord > count || fromRecord > toRecord) {
+            throw new IllegalArgumentException("Record range out of bounds: "
+                    + fromRecord + " to " + toRecord + ", record count " + count);
+        }
+        if (segments == null) {
+            mapRecords();
+        }
+        rowRead = true;
+    }
+
+    /**
+     * Map the records of the file. Mappings are limited to 2GB so large files
+     * are mapped as several segments, each holding a whole number of records.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    private void mapRecords() throws IOException {
+        long available = Math.max(0, fileChannel.size() - headerSize) / recordSize;
+        mappedCount = (int) Math.min(count, available);
+        recordsPerSegment = Integer.MAX_VALUE / recordSize;
+        int numSegments = (mappedCount + recordsPerSegment - 1) / recordsPerSegment;
+        ByteBuffer[] mapped = new ByteBuffer[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            int first = i * recordsPerSegment;
+            int records = Math.min(recordsPerSegment, mappedCount - first);
+            mapped[i] = fileChannel.map(MapMode.READ_ONLY,
+                    headerSize + (long) first * recordSize, (long) records * recordSize);
+        }
+        segments = mapped;
+    }
+
+    /**
+     * Copy a record from the mapped file and decode it. Safe to call from
+     * several threads with different decoders.
+     *
+     * @throws IOException if the record is missing from the file, is deleted
+     *                     or a value can't be parsed
+     */
+    private void readMappedRecord(int recordNumber, RecordDecoder recordDecoder,
+                                  Row row) throws IOException {
+        if (recordNumber >= mappedCount) {
+            throw new EOFException("Record " + recordNumber
+                    + " is past the end of the dbf file");
+        }
+        ByteBuffer segment = segments[recordNumber / recordsPerSegment].duplicate();
+        segment.position((recordNumber % recordsPerSegment) * recordSize);
+        segment.get(recordDecoder.data);
+        recordDecoder.decode(row, recordNumber);
+    }
+
+    private Row createRow() {
+        try {
+            return rowClass.newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException(
+                    "Cannot instantiate given row class "
+                            + rowClass.getCanonicalName(), e);
+        }
+    }
+
+    public Class<? extends Row> getRowClass() {
+        return rowClass;
+    }
+
+    public void setRowClass(Class<? extends Row> rowClass) {
+        this.rowClass = rowClass;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+                return leap ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Decodes the fields of a record held in a byte array. Each thread reading
+     * records needs its own decoder since the decoder keeps parse state.
+     */
+    private final class RecordDecoder {
+        private final byte[] data;
+
+        private SimpleDateFormat dateFormatter;
+
+        /**
+         * Result of the last successful {@link #parseLong(int, int)}
+         */
+        private long parsedLong;
+
+        /**
+         * Result of the last successful {@link #parseDouble(int, int)}
+         */
+        private double parsedDouble;
+
+        RecordDecoder(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * Decode the projected fields of the record held in the data array
+         * into the given row.
+         *
+         * @param row          row to be populated
+         * @param recordNumber zero-based number of the record, used in errors
+         * @throws IOException if the record is deleted or a value can't be parsed
+         */
+        void decode(Row row, int recordNumber) throws IOException {
+            // Verify Record is OK (not marked for deletion: ' ' == OK, '*' ==
+            // deleted)
+            if (data[0] != ROK)
+                throw new IOException("Record " + recordNumber
+                        + " has deletion flag of hex " + byteToHex(data[0]));
+            for (int i : projection) {
+                SimpleField field = fields[i];
+                // Create the appropriate type of Object for this data field and add
+                // it to list
+                int start = fieldOffsets[i];
                 try {
-                    return Integer.valueOf(valStr);
-                } catch (NumberFormatException e) {
-                    // fall through and try as LONG
+                    row.putData(field, decodeField(field.getType(), start,
+                            start + field.getLength(),
+                            dictionaries != null ? dictionaries[i] : null));
+                } catch (ParseException e) {
+                    final IOException e2 = new IOException();
+                    e2.initCause(e);
+                    throw e2;
                 }
+            }
+        }
 
-            case LONG:
-                try {
-                    return Long.valueOf(valStr);
-                } catch (NumberFormatException e) {
+        /**
+         * Decode a field value directly from the bytes of the data buffer. Numbers,
+         * dates and logical values are parsed from the bytes, a String is only
+         * created for character fields and for the rare values that the byte level
+         * parsers leave to {@link #parseValStr(Type, String)}, which defines the
+         * semantics that the faster paths follow.
+         *
+         * @param type  the type that the value must be converted to
+         * @param start offset of the field in the data buffer
+         * @param end   offset following the field in the data buffer
+         * @param dictionary dictionary sharing the values of a character field,
+         *                   may be <code>null</code>
+         * @return Object value of the field, <code>null</code> for blank values
+         * @throws IOException if the character encoding is not supported
+         * @throws ParseException error if value can not be parsed or type is unrecognized
+         */
+        @SuppressWarnings("fallthrough")
+        private Object decodeField(Type type, int start, int end,
+                                   StringDictionary dictionary)
+                throws IOException, ParseException {
+            // trim the same characters as String.trim()
+            while (start < end && (data[start] & 0xff) <= ' ')
+                start++;
+            while (end > start && (data[end - 1] & 0xff) <= ' ')
+                end--;
+            if (start == end) {
+                // null values represented as all spaces
+                return null;
+            }
+            // allow SHORT/INT/LONG pre-check for DOUBLE
+            boolean typeCheck = true;
+            switch (type) {
+                case STRING:
+                    if (dictionary != null)
+                        return dictionary.get(data, start, end);
+                    return new String(data, start, end - start, "US-ASCII");
+
+                case SHORT:
+                case INT:
+                case LONG:
+                    if (parseLong(start, end)) {
+                        long value = parsedLong;
+                        if (type == Type.SHORT && value >= Short.MIN_VALUE
+                                && value <= Short.MAX_VALUE)
+                            return (short) value;
+                        if (type != Type.LONG && value >= Integer.MIN_VALUE
+                                && value <= Integer.MAX_VALUE)
+                            return (int) value;
+                        return value;
+                    }
                     typeCheck = false; // skip SHORT/INT/LONG pre-check
                     // fall through and try as DOUBLE
+
+                case DOUBLE:
+                    if (typeCheck && indexOf('.', start, end) == -1
+                            && indexOf('+', start, end) == -1
+                            && parseLong(start, end)) {
+                        int len = end - start;
+                        if (len < 5) return (short) parsedLong;
+                        if (len < 10) return (int) parsedLong;
+                        return parsedLong;
+                    }
+                    // numeric fields starting with '*'  are considered null
+                    if (data[start] == '*') return null;
+                    if (parseDouble(start, end)) return parsedDouble;
+                    break;
+
+                case DATE:
+                    Date date = parseDate(start, end);
+                    if (date != null) return date;
+                    break;
+
+                case BOOL:
+                    final char c = (char) data[start];
+                    // null value for boolean represented as '?'
+                    return (c == '?') ? null : (c == 'Y') || (c == 'y') || (c == 'T')
+                            || (c == 't');
+
+                default:
+                    // let parseValStr report the unsupported type
+            }
+            return parseValStr(type, new String(data, start, end - start,
+                    "US-ASCII"));
+        }
+
+        private int indexOf(char c, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (data[i] == c) return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Parse a decimal integer with an optional sign as {@link Long#parseLong(String)}
+         * does. The value is left in {@link #parsedLong}.
+         *
+         * @return <code>false</code> if the bytes are not an integer that fits in a long
+         */
+        private boolean parseLong(int start, int end) {
+            boolean negative = false;
+            int i = start;
+            byte b = data[i];
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                if (++i == end) return false;
+            }
+            // accumulate negatively to handle Long.MIN_VALUE
+            long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            long multmin = limit / 10;
+            long result = 0;
+            for (; i < end; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9 || result < multmin)
+                    return false;
+                result *= 10;
+                if (result < limit + digit)
+                    return false;
+                result -= digit;
+            }
+            parsedLong = negative ? result : -result;
+            return true;
+        }
+
+        /**
+         * Parse a plain decimal number such as <code>-123.4567</code>. Only values
+         * whose digits and scale are exact in a double are handled so the result
+         * is the correctly rounded value that {@link Double#parseDouble(String)}
+         * returns. The value is left in {@link #parsedDouble}.
+         *
+         * @return <code>false</code> if the value must be parsed by {@link Double#parseDouble(String)}
+         */
+        private boolean parseDouble(int start, int end) {
+            boolean negative = false;
+            int i = start;
+            byte b = data[i];
+            if (b == '-' || b == '+') {
+                negative = b == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int scale = 0;
+            boolean point = false;
+            boolean seenDigit = false;
+            for (; i < end; i++) {
+                b = data[i];
+                if (b >= '0' && b <= '9') {
+                    seenDigit = true;
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0 && ++digits > 18) return false;
+                    if (point) scale++;
+                } else if (b == '.' && !point) {
+                    point = true;
+                } else {
+                    return false;
                 }
+            }
+            if (!seenDigit || mantissa > MAX_EXACT_MANTISSA || scale >= POWERS_OF_TEN.length)
+                return false;
+            double value = scale == 0 ? mantissa : mantissa / POWERS_OF_TEN[scale];
+            parsedDouble = negative ? -value : value;
+            return true;
+        }
+
+        /**
+         * Parse a date in the dbf format <code>yyyyMMdd</code> as UTC midnight.
+         * Only valid dates in the Gregorian calendar are handled, other values
+         * are left to the lenient date formatter.
+         *
+         * @return the date or <code>null</code> if the value must be parsed by
+         *         the date formatter
+         */
+        private Date parseDate(int start, int end) {
+            if (end - start != 8) return null;
+            int value = 0;
+            for (int i = start; i < end; i++) {
+                int digit = data[i] - '0';
+                if (digit < 0 || digit > 9) return null;
+                value = value * 10 + digit;
+            }
+            int year = value / 10000;
+            int month = value / 100 % 100;
+            int day = value % 100;
+            // before the Gregorian cutover the date formatter uses the Julian calendar
+            if (year <= 1582 || month < 1 || month > 12 || day < 1
+                    || day > daysInMonth(year, month))
+                return null;
+            // days since 1970-01-01 of the proleptic Gregorian calendar
+            int y = month <= 2 ? year - 1 : year;
+            int era = y / 400;
+            int yoe = y - era * 400;
+            int doy = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+            long days = era * 146097L + doe - 719468;
+            return new Date(days * 86400000L);
+        }
+
+
+        /**
+         * This method is used to convert a String attribute value into a Java
+         * Object of the appropriate class, based on the DBase data type.
+         *
+         * @param type   the type that the value must be converted to
+         * @param valStr String value to be converted to Object
+         * @return Object value result of parsing valStr
+         * @throws ParseException error if value can not be parsed or type is unrecognized
+         */
+        @SuppressWarnings("fallthrough")
+        private Object parseValStr(Type type, String valStr) throws ParseException {
+            valStr = valStr.trim();
+            if (valStr.isEmpty()) {
+                // null values represented as all spaces
+                return null;
+            }
+            // allow SHORT/INT/LONG pre-check for DOUBLE
+            boolean typeCheck = true;
+            switch (type) {
+                case STRING:
+                    return valStr;
+
+                case SHORT:
+                    try {
+                        return Short.valueOf(valStr);
+                    } catch (NumberFormatException e) {
+                        // fall through and try as INT
+                    }
+
+                case INT:
+                    try {
+                        return Integer.valueOf(valStr);
+                    } catch (NumberFormatException e) {
+                        // fall through and try as LONG
+                    }
 
-            case DOUBLE:
-                if (typeCheck &&
-                        valStr.indexOf('.') == -1 && valStr.indexOf('+') == -1) {
+                case LONG:
                     try {
-                        int len = valStr.length();
-                        if (len < 5) return Short.valueOf(valStr);
-                        if (len < 10) return Integer.valueOf(valStr);
                         return Long.valueOf(valStr);
                     } catch (NumberFormatException e) {
-                        // try as Double
+                        typeCheck = false; // skip SHORT/INT/LONG pre-check
+                        // fall through and try as DOUBLE
                     }
-                }
 
-                // numeric fields starting with '*'  are considered null
-                if (valStr.startsWith("*")) return null;
+                case DOUBLE:
+                    if (typeCheck &&
+                            valStr.indexOf('.') == -1 && valStr.indexOf('+') == -1) {
+                        try {
+                            int len = valStr.length();
+                            if (len < 5) return Short.valueOf(valStr);
+                            if (len < 10) return Integer.valueOf(valStr);
+                            return Long.valueOf(valStr);
+                        } catch (NumberFormatException e) {
+                            // try as Double
+                        }
+                    }
 
-                try {
-                    return new Double(valStr);
-                } catch (NumberFormatException e) {
-                    final ParseException e2 = new ParseException(
-                            "Could not parse numeric value " + valStr, 0);
-                    e2.initCause(e);
-                    throw e2;
-                }
+                    // numeric fields starting with '*'  are considered null
+                    if (valStr.startsWith("*")) return null;
+
+                    try {
+                        return new Double(valStr);
+                    } catch (NumberFormatException e) {
+                        final ParseException e2 = new ParseException(
+                                "Could not parse numeric value " + valStr, 0);
+                        e2.initCause(e);
+                        throw e2;
+                    }
 
-            case DATE:
-                return getDateFormatter().parse(valStr);
+                case DATE:
+                    return getDateFormatter().parse(valStr);
 
-            case BOOL:
-                final char c = valStr.charAt(0);
-                // null value for boolean represented as '?'
-                return (c == '?') ? null : (c == 'Y') || (c == 'y') || (c == 'T')
-                        || (c == 't');
+                case BOOL:
+                    final char c = valStr.charAt(0);
+                    // null value for boolean represented as '?'
+                    return (c == '?') ? null : (c == 'Y') || (c == 'y') || (c == 'T')
+                            || (c == 't');
 
-            default:
-                throw new ParseException("type '" + type
-                        + "' not supported or recognized.", 0);
+                default:
+                    throw new ParseException("type '" + type
+                            + "' not supported or recognized.", 0);
+            }
         }
-    }
 
-    public Class<? extends Row> getRowClass() {
-        return rowClass;
+        private SimpleDateFormat getDateFormatter() {
+            if (dateFormatter == null) {
+                dateFormatter = new SimpleDateFormat(DATEFMT);
+                dateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+            }
+            return dateFormatter;
+        }
     }
 
-    public void setRowClass(Class<? extends Row> rowClass) {
-        this.rowClass = rowClass;
+    /**
+     * Receives the rows decoded by {@link DbfInputStream#scan(int, int, int, RecordHandler)}.
+     */
+    public interface RecordHandler {
+        /**
+         * Handle a row, called concurrently from the scanning threads.
+         *
+         * @param recordNumber zero-based record number of the row
+         * @param row          the decoded row
+         * @throws IOException to stop the scan with an error
+         */
+        void handleRecord(int recordNumber, Row row) throws IOException;
     }
 
-    private SimpleDateFormat getDateFormatter() {
-        if (dateFormatter == null) {
-            dateFormatter = new SimpleDateFormat(DATEFMT);
-            dateFormatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+    /**
+     * Scans a range of records, splitting it in halves until the slices are
+     * small enough to decode on one thread.
+     */
+    private final class RangeScan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int fromRecord;
+        private final int toRecord;
+        private final int sliceSize;
+        private final RecordHandler handler;
+        /**
+         * First IOException or RuntimeException of any slice
+         */
+        private final AtomicReference<Exception> error;
+
+        RangeScan(int fromRecord, int toRecord, int sliceSize,
+                  RecordHandler handler, AtomicReference<Exception> error) {
+            this.fromRecord = fromRecord;
+            this.toRecord = toRecord;
+            this.sliceSize = sliceSize;
+            this.handler = handler;
+            this.error = error;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRecord - fromRecord > sliceSize) {
+                int mid = (fromRecord + toRecord) >>> 1;
+                invokeAll(new RangeScan(fromRecord, mid, sliceSize, handler, error),
+                        new RangeScan(mid, toRecord, sliceSize, handler, error));
+                return;
+            }
+            RecordDecoder sliceDecoder = new RecordDecoder(new byte[recordSize]);
+            try {
+                for (int n = fromRecord; n < toRecord && error.get() == null; n++) {
+                    Row row = createRow();
+                    readMappedRecord(n, sliceDecoder, row);
+                    handler.handleRecord(n, row);
+                }
+            } catch (IOException | RuntimeException e) {
+                error.compareAndSet(null, e);
+            }
         }
-        return dateFormatter;
     }
 }
@@ -0,0 +1,126 @@
+/****************************************************************************************
+ *  StringDictionary.java
+ *
+ *  (C) Copyright MITRE Corporation 2013
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.dbf;
+
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Dictionary of the values of a character field. Values are looked up by
+ * their US-ASCII bytes so a repeated value is returned as the same String
+ * instance without decoding it again. The number of distinct values is
+ * bounded, once a field has more values the dictionary is dropped and every
+ * value is decoded to a new String as if there were no dictionary.
+ * <p>
+ * Lookups are synchronized so one dictionary may be shared by the threads
+ * of a parallel scan.
+ */
+final class StringDictionary {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maxEntries;
+
+    /**
+     * Open addressing hash table of the values, <code>null</code> once the
+     * number of values exceeded maxEntries
+     */
+    private String[] table = new String[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * @param maxEntries the maximum number of distinct values to keep, must
+     *                   be positive
+     */
+    StringDictionary(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Get the String for the given US-ASCII bytes.
+     *
+     * @param data  bytes holding the value
+     * @param start offset of the value
+     * @param end   offset following the value
+     * @return the shared String, or a new one if the dictionary is full
+     * @throws UnsupportedEncodingException if US-ASCII is not supported
+     */
+    synchronized String get(byte[] data, int start, int end)
+            throws UnsupportedEncodingException {
+        if (table == null) {
+            return new String(data, start, end - start, "US-ASCII");
+        }
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + toChar(data[i]);
+        }
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        String value;
+        while ((value = table[slot]) != null) {
+            // String caches its hash so this is cheap for values already seen
+            if (value.hashCode() == hash && matches(value, data, start, end)) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        value = new String(data, start, end - start, "US-ASCII");
+        if (size == maxEntries) {
+            // too many distinct values to be worth sharing
+            table = null;
+            return value;
+        }
+        table[slot] = value;
+        if (++size * 2 > table.length) {
+            resize();
+        }
+        return value;
+    }
+
+    /**
+     * @return the char that a byte decodes to with the US-ASCII charset
+     */
+    private static char toChar(byte b) {
+        return b >= 0 ? (char) b : '\uFFFD';
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String value, byte[] data, int start, int end) {
+        if (value.length() != end - start) return false;
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i - start) != toChar(data[i])) return false;
+        }
+        return true;
+    }
+
+    private void resize() {
+        String[] old = table;
+        String[] resized = new String[old.length * 2];
+        int mask = resized.length - 1;
+        for (String value : old) {
+            if (value != null) {
+                int slot = spread(value.hashCode()) & mask;
+                while (resized[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                resized[slot] = value;
+            }
+        }
+        table = resized;
+    }
+}
@@ -0,0 +1,445 @@
+/****************************************************************************************
+ *  CoordinateParser.java
+ *
+ *  (C) Copyright MITRE Corporation 2013
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.kml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.geodesy.Geodetic3DPoint;
+import org.opensextant.geodesy.Latitude;
+import org.opensextant.geodesy.Longitude;
+import org.opensextant.giscore.geometry.PackedPointList;
+import org.opensextant.giscore.geometry.Point;
+import org.slf4j.Logger;
+
+/**
+ * Scanner for the text of a KML coordinates element. The characters are
+ * parsed directly into coordinate arrays that are reused from one call to
+ * the next, and the points are returned as a {@link PackedPointList} so no
+ * Point is created unless it is asked for.
+ * <p>
+ * Tokens are split exactly as the <code>NumberStreamTokenizer</code>
+ * formerly used by {@link KmlInputStream#parseCoord(String)} split them,
+ * so malformed coordinates are interpreted the same way as before: words,
+ * quoted strings and text after a '/' are ignored, commas separate the values
+ * of a tuple and whitespace separates tuples. Instances are not thread-safe.
+ */
+final class CoordinateParser {
+
+	// messages are logged as part of KmlInputStream
+	private static final Logger log = KmlInputStream.log;
+
+	private static final int TT_EOF = -1;
+	private static final int TT_NUMBER = -2;
+	private static final int TT_WORD = -3;
+
+	/**
+	 * Powers of ten that are exactly representable as doubles
+	 */
+	private static final double[] POW10 = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private double[] lon = new double[64];
+	private double[] lat = new double[64];
+	/**
+	 * Elevations, NaN for 2d tuples
+	 */
+	private double[] elev = new double[64];
+	private int size;
+	private boolean has2D, has3D;
+
+	// scanner state
+	private char[] text;
+	private int pos, end;
+	private int tokenStart;
+	private double nval;
+	private int commaEnd = -1;
+	private boolean spaceInTuple;
+	private boolean blank;
+
+	/**
+	 * Parse coordinates with the same rules as {@link KmlInputStream#parseCoord(String)}.
+	 *
+	 * @param chars  characters of the coordinates element
+	 * @param start  offset of the first character
+	 * @param length number of characters
+	 * @return unmodifiable list of coordinates, empty if no coordinates are
+	 *         valid, never null
+	 */
+	List<Point> parse(char[] chars, int start, int length) {
+		text = chars;
+		pos = start;
+		end = start + length;
+		size = 0;
+		has2D = has3D = false;
+		commaEnd = -1;
+		spaceInTuple = false;
+		blank = true;
+		try {
+			scan();
+		} finally {
+			text = null;
+		}
+		if (spaceInTuple) {
+			// ATC 3: Geometry coordinates
+			// http://service.kmlvalidator.com/ets/ogc-kml/2.2/#Geometry-Coordinates
+			log.warn("Whitespace found within coordinate tuple [ATC 3]");
+			// NOTE: log level checked at debug level but logged at warn level to be picked up with KmlMetaDataDump
+		}
+		return getPoints();
+	}
+
+	/**
+	 * @return <code>true</code> if the text last parsed was only whitespace
+	 */
+	boolean isBlank() {
+		return blank;
+	}
+
+	/**
+	 * Simple state machine keeping track of what part of the coordinate
+	 * has been found so far.
+	 */
+	private void scan() {
+		boolean seenComma = false;
+		int numparts = 0;
+		double elevation = 0;
+		double x = 0, y = 0; // longitude and latitude in radians
+		boolean xError = false; // longitude is invalid, tuple is dropped
+		int ttype;
+		while ((ttype = nextToken()) != TT_EOF) {
+			switch (ttype) {
+				case TT_WORD:
+					if (log.isWarnEnabled())
+						log.warn("ignore invalid string in coordinate: \""
+								+ new String(text, tokenStart, pos - tokenStart) + "\"");
+					break;
+
+				case TT_NUMBER:
+					try {
+						if (numparts == 3) {
+							if (seenComma) {
+								log.warn("comma found instead of whitespace between tuples before " + nval);
+								// handle commas appearing between tuples
+								// Google Earth interprets input with: "1,2,3,4,5,6" as two tuples: {1,2,3}  {4,5,6}.
+								seenComma = false;
+							}
+							// add last coord to list and reset counter
+							if (!xError) add(x, y, elevation);
+							numparts = 0; // reset state for start of new tuple
+						}
+
+						switch (++numparts) {
+							case 1:
+								if (seenComma) {
+									y = PackedPointList.toLatitudeRadians(nval);
+									x = 0; // skipped longitude (use 0 degrees)
+									xError = false;
+									numparts = 2;
+								} else {
+									// starting new coordinate (numparts => 1)
+									x = toLongitude(nval);
+									xError = false;
+								}
+								break;
+
+							case 2:
+								if (seenComma) {
+									y = PackedPointList.toLatitudeRadians(nval);
+								} else {
+									if (!xError) add(x, 0, Double.NaN);
+									// start new tuple
+									x = toLongitude(nval);
+									xError = false;
+									numparts = 1;
+								}
+								break;
+
+							case 3:
+								if (seenComma) {
+									elevation = nval;
+								} else {
+									if (!xError) add(x, y, Double.NaN);
+									// start new tuple
+									x = toLongitude(nval);
+									xError = false;
+									numparts = 1;
+								}
+								break;
+						}
+					} catch (IllegalArgumentException e) {
+						// bad lat/longitude; e.g. out of valid range
+						log.error("Invalid coordinate: " + nval, e);
+						if (numparts != 0) xError = true;
+					}
+					seenComma = false; // reset flag
+					break;
+
+				default: // single character in ttype
+					if (ttype == ',') {
+						if (!seenComma) {
+							// start of next coordinate component
+							seenComma = true;
+							if (numparts == 0) {
+								x = 0; // skipped longitude (use 0 degrees)
+								xError = false;
+								numparts = 1;
+							}
+						} else if (numparts == 1) {
+							y = 0; // skipped latitude (use 0 degrees)
+							numparts = 2;
+						} else if (numparts == 0) {
+							x = 0; // skipped longitude (use 0 degrees)
+							xError = false;
+							numparts = 1;
+						}
+					} else
+						log.warn("ignore invalid character in coordinate string: (" + (char) ttype + ")");
+			}
+		}
+
+		// add last coord if valid
+		if (numparts != 0 && !xError)
+			switch (numparts) {
+				case 1:
+					add(x, 0, Double.NaN);
+					break;
+				case 2:
+					add(x, y, Double.NaN);
+					break;
+				case 3:
+					add(x, y, elevation);
+			}
+	}
+
+	private static double toLongitude(double degrees) {
+		double x = PackedPointList.toLongitudeRadians(degrees);
+		if (log.isDebugEnabled() && Math.abs(degrees) > 180)
+			log.debug("longitude out of range: " + degrees);
+		return x;
+	}
+
+	private void add(double x, double y, double z) {
+		if (size == lon.length) {
+			int capacity = size * 2;
+			lon = Arrays.copyOf(lon, capacity);
+			lat = Arrays.copyOf(lat, capacity);
+			elev = Arrays.copyOf(elev, capacity);
+		}
+		lon[size] = x;
+		lat[size] = y;
+		elev[size] = z;
+		size++;
+		if (Double.isNaN(z)) has2D = true;
+		else has3D = true;
+	}
+
+	private List<Point> getPoints() {
+		if (size == 0) return Collections.emptyList();
+		if (!has2D || !has3D) {
+			return new PackedPointList(Arrays.copyOf(lon, size), Arrays.copyOf(lat, size),
+					has3D ? Arrays.copyOf(elev, size) : null, 0, size);
+		}
+		// tuples with and without altitude, keep the dimension of each point
+		List<Point> list = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			Longitude x = new Longitude(lon[i]);
+			Latitude y = new Latitude(lat[i]);
+			list.add(new Point(Double.isNaN(elev[i]) ? new Geodetic2DPoint(x, y)
+					: new Geodetic3DPoint(x, y, elev[i])));
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	// ------------------------------------------------------------------
+	// tokenizer
+
+	private static boolean isWhitespace(char c) {
+		return c <= ' ';
+	}
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isNumberStart(char c) {
+		return isDigit(c) || c == '.' || c == '-';
+	}
+
+	private static boolean isWordStart(char c) {
+		return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c >= 160;
+	}
+
+	private int peek() {
+		return pos < end ? text[pos] : -1;
+	}
+
+	/**
+	 * @return the type of the next token: {@link #TT_NUMBER} with its value
+	 * in nval, {@link #TT_WORD}, {@link #TT_EOF}, or an ordinary character
+	 */
+	private int nextToken() {
+		while (true) {
+			while (pos < end && isWhitespace(text[pos])) pos++;
+			if (pos == end) return TT_EOF;
+			blank = false;
+			char c = text[pos];
+			tokenStart = pos;
+			if (isNumberStart(c)) {
+				if (commaEnd >= 0 && pos > commaEnd && (isDigit(c)
+						|| c == '.' && pos + 1 < end && isDigit(text[pos + 1]))) {
+					// whitespace between comma and number
+					spaceInTuple = true;
+				}
+				commaEnd = -1;
+				return scanNumber();
+			}
+			if (isWordStart(c)) {
+				commaEnd = -1;
+				pos++;
+				while (pos < end && (text[pos] >= 256 || isWordStart(text[pos]) || isNumberStart(text[pos])))
+					pos++;
+				return TT_WORD;
+			}
+			if (c == '"' || c == '\'') {
+				commaEnd = -1;
+				skipQuoted(c);
+				return c;
+			}
+			if (c == '/') {
+				// comment to end of line
+				while (pos < end && text[pos] != '\r' && text[pos] != '\n') pos++;
+				commaEnd = -1;
+				continue;
+			}
+			pos++;
+			commaEnd = c == ',' && log.isDebugEnabled() ? pos : -1;
+			return c;
+		}
+	}
+
+	/**
+	 * Scan a decimal number with an optional exponent. The value of a number
+	 * without any digits (e.g. ".") is 0.
+	 */
+	private int scanNumber() {
+		int start = pos;
+		boolean haveDecimal = false;
+		while (true) {
+			if (text[pos] == '.') haveDecimal = true;
+			pos++;
+			int c = peek();
+			if (!isDigit(c) && (haveDecimal || c != '.')) break;
+		}
+		if (text[start] == '-' && pos - start == 1) {
+			// Didn't get any other digits other than '-'
+			return '-';
+		}
+		nval = parseDecimal(start, pos);
+
+		int c = peek();
+		if (c == 'e' || c == 'E') {
+			pos++;
+			c = peek();
+			int sign = 0;
+			// exponent pattern: /decimalNumber([eE][+-]?[0-9]*)?/
+			if (c == '+' || c == '-') {
+				sign = c == '-' ? -1 : 1;
+				pos++;
+				c = peek();
+			}
+			if (isDigit(c)) {
+				double exp = 0; // 1e2 -> 100
+				do {
+					exp = exp * 10 + (c - '0');
+					pos++;
+					c = peek();
+				} while (isDigit(c));
+				if (exp != 0 && nval != 0) {
+					if (sign == -1) exp = -exp;
+					// 10e0 is 1 so keep same number
+					nval = nval * Math.pow(10, exp);
+				}
+			}
+		}
+		return TT_NUMBER;
+	}
+
+	/**
+	 * Parse [-]digits[.digits] giving the same value as
+	 * {@link Double#parseDouble(String)}. Numbers with at most 15 significant
+	 * digits are converted exactly without creating a String.
+	 */
+	private double parseDecimal(int start, int stop) {
+		boolean negative = text[start] == '-';
+		int i = negative ? start + 1 : start;
+		long mantissa = 0;
+		int digits = 0, significant = 0, scale = 0;
+		boolean fraction = false;
+		for (; i < stop; i++) {
+			char c = text[i];
+			if (c == '.') {
+				fraction = true;
+				continue;
+			}
+			mantissa = mantissa * 10 + (c - '0');
+			digits++;
+			if (mantissa != 0) significant++;
+			if (fraction) scale++;
+		}
+		if (digits == 0) {
+			// e.g. "." or "-." is not a valid number
+			return 0;
+		}
+		if (significant <= 15 && scale < POW10.length) {
+			// both values exact so the division is correctly rounded
+			double value = scale == 0 ? mantissa : mantissa / POW10[scale];
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(new String(text, start, stop - start));
+	}
+
+	/**
+	 * Skip a quoted string the way a StreamTokenizer reads one, ending at the
+	 * matching quote, the end of the line or the end of the text. Escaped
+	 * characters, including octal escapes, do not end the string.
+	 */
+	private void skipQuoted(char quote) {
+		pos++;
+		while (pos < end) {
+			char c = text[pos];
+			if (c == quote || c == '\r' || c == '\n') break;
+			pos++;
+			if (c == '\\') {
+				if (pos < end && text[pos] >= '0' && text[pos] <= '7') {
+					int value = text[pos++] - '0';
+					if (pos < end && text[pos] >= '0' && text[pos] <= '7') {
+						value = value * 8 + (text[pos++] - '0');
+						if (value <= 037 && pos < end && text[pos] >= '0' && text[pos] <= '7')
+							pos++;
+					}
+				} else if (pos < end) {
+					pos++; // escaped character
+				}
+			}
+		}
+		if (pos < end && text[pos] == quote) pos++;
+	}
+}
@@ -135,21 +135,8 @@ public abstract class KmlBaseReader implements IKml {
 		 <altitudeMode>clampToGround</altitudeMode>
 		</LatLonAltBox>
 		*/
-		if (region == null || region.isEmpty())
-			return false;
-		Double north = region.getDoubleValue(NORTH);
-		if (north == null) return false;
-		Double south = region.getDoubleValue(SOUTH);
-		if (south == null) return false;
-		Double east = region.getDoubleValue(EAST);
-		if (east == null) return false;
-		Double west = region.getDoubleValue(WEST);
-		if (west == null) return false;
-		// invalidate bogus regions
-		// valid constraints:
-		// 1. kml:north > kml:south; lat range: +/- 90
-		// 2. kml:east > kml:west;   lon range: +/- 180
-		if (north <= south || east <= west) return false;
+		Geodetic2DBounds bbox = getRegionBounds(region);
+		if (bbox == null) return false;
 		try {
 		if (viewBounds == null) {
 			double viewNorth = getViewFormatValue(IKml.BBOX_NORTH, 90);
@@ -162,16 +149,45 @@ public abstract class KmlBaseReader implements IKml {
 				new Geodetic2DPoint(new Longitude(viewWest, Angle.DEGREES),
 						new Latitude(viewSouth, Angle.DEGREES)));	// south-west
 		}
-		Geodetic2DBounds bbox = new Geodetic2DBounds(
+
+		return !viewBounds.intersects(bbox);
+		} catch (IllegalArgumentException e ) {
+			log.debug("", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Get the bounds of the LatLonAltBox of a Region.
+	 * @param region the Region, may be null
+	 * @return the bounds, or <code>null</code> if the Region has no valid LatLonAltBox
+	 */
+	@Nullable
+	static Geodetic2DBounds getRegionBounds(TaggedMap region) {
+		if (region == null || region.isEmpty())
+			return null;
+		Double north = region.getDoubleValue(NORTH);
+		if (north == null) return null;
+		Double south = region.getDoubleValue(SOUTH);
+		if (south == null) return null;
+		Double east = region.getDoubleValue(EAST);
+		if (east == null) return null;
+		Double west = region.getDoubleValue(WEST);
+		if (west == null) return null;
+		// invalidate bogus regions
+		// valid constraints:
+		// 1. kml:north > kml:south; lat range: +/- 90
+		// 2. kml:east > kml:west;   lon range: +/- 180
+		if (north <= south || east <= west) return null;
+		try {
+			return new Geodetic2DBounds(
 				new Geodetic2DPoint(new Longitude(east, Angle.DEGREES),
 						new Latitude(north, Angle.DEGREES)),	// north-east
 				new Geodetic2DPoint(new Longitude(west, Angle.DEGREES),
 						new Latitude(south, Angle.DEGREES)));	// south-west
-
-		return !viewBounds.intersects(bbox);
 		} catch (IllegalArgumentException e ) {
 			log.debug("", e);
-			return false;
+			return null;
 		}
 	}
 
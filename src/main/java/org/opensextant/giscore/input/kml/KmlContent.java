@@ -0,0 +1,63 @@
+/****************************************************************************************
+ *  KmlContent.java
+ *
+ *  (C) Copyright MITRE Corporation 2013
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantability and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.kml;
+
+/**
+ * The optional kinds of KML content that {@link KmlInputStream} can skip over
+ * without creating any objects for them. The ids, names, visibility, styleUrls
+ * and geometries of features and containers are always parsed, as are Schemas.
+ * <p>
+ * For example, to only read the geometry and names of features:
+ * <pre>
+ * kis.setSkippedContent(EnumSet.allOf(KmlContent.class));
+ * </pre>
+ *
+ * @see KmlInputStream#setSkippedContent(java.util.Set)
+ */
+public enum KmlContent {
+	/**
+	 * Style and StyleMap elements, including the BalloonStyle text, whether
+	 * inline in features, shared in containers or out of order at the top level.
+	 */
+	STYLES,
+	/**
+	 * The description, Snippet, address and phoneNumber elements of features
+	 * and containers.
+	 */
+	DESCRIPTIONS,
+	/**
+	 * The TimeStamp and TimeSpan elements.
+	 */
+	TIME,
+	/**
+	 * The Region elements. Note {@link KmlReader} needs Regions to ignore
+	 * inactive NetworkLinks.
+	 */
+	REGIONS,
+	/**
+	 * The LookAt and Camera elements.
+	 */
+	VIEWS,
+	/**
+	 * The ExtendedData elements with their Data, SchemaData and opaque data.
+	 */
+	EXTENDED_DATA,
+	/**
+	 * Elements in namespaces other than KML, such as atom:link, xal:AddressDetails
+	 * and the gx extensions (including gx:Track), which are otherwise returned as
+	 * {@link org.opensextant.giscore.events.Element}s.
+	 */
+	FOREIGN_ELEMENTS
+}
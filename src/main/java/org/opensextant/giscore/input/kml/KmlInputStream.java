@@ -28,6 +28,7 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -35,7 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
@@ -50,6 +51,7 @@ import javax.xml.stream.events.XMLEvent;
 
 import org.apache.commons.lang.StringUtils;
 import org.opensextant.geodesy.Angle;
+import org.opensextant.geodesy.Geodetic2DBounds;
 import org.opensextant.geodesy.Geodetic2DPoint;
 import org.opensextant.geodesy.Geodetic3DPoint;
 import org.opensextant.geodesy.Latitude;
@@ -88,7 +90,6 @@ import org.opensextant.giscore.geometry.Polygon;
 import org.opensextant.giscore.input.XmlInputStream;
 import org.opensextant.giscore.utils.Color;
 import org.opensextant.giscore.utils.DateTime;
-import org.opensextant.giscore.utils.NumberStreamTokenizer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -219,9 +220,8 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 
 	public static final Logger log = LoggerFactory.getLogger(KmlInputStream.class);
 
-	private static final Pattern WHITESPACE_PAT = Pattern.compile(",\\s+\\.?\\d");
-
-	private static final Set<String> ms_kml_ns = new HashSet<>(8);
+	// registered by concurrent streams, see ParallelKmlInputStream
+	private static final Set<String> ms_kml_ns = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
 	static {
 		ms_kml_ns.add("http://earth.google.com/kml/2.0");
@@ -240,12 +240,14 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	private static final Set<String> ms_attributes = new HashSet<>(2); // open, metadata
 	private static final Set<String> ms_geometries = new HashSet<>(6); // Point, LineString, etc.
 
-	private static final Longitude COORD_ERROR = new Longitude();
 	private static final QName ID_ATTR = new QName(ID);
 
 	private Map<String, String> schemaAliases;
 	private final Map<String, Schema> schemata = new HashMap<>();
 	private boolean dupAltitudeModeWarn;
+	private final CoordinateParser coordParser = new CoordinateParser();
+	private final Set<KmlContent> skipped = EnumSet.noneOf(KmlContent.class);
+	private Geodetic2DBounds spatialFilter;
 
 	static {
 		// all non-container elements that extend kml:AbstractFeatureType base type in KML Schema
@@ -349,6 +351,76 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		}
 	}
 
+	/**
+	 * @return the kinds of content skipped by this stream, never null
+	 */
+	@NonNull
+	public Set<KmlContent> getSkippedContent() {
+		return EnumSet.copyOf(skipped);
+	}
+
+	/**
+	 * Set the kinds of content to skip over at the XML level without creating
+	 * any objects, which makes reading faster when the content isn't needed.
+	 * Applies to the elements read after this call. By default nothing is skipped.
+	 *
+	 * @param content the kinds of content to skip, empty or <code>null</code>
+	 *                to parse everything
+	 */
+	public void setSkippedContent(Set<KmlContent> content) {
+		skipped.clear();
+		if (content != null) skipped.addAll(content);
+	}
+
+	/**
+	 * @return a copy of the bounds features are filtered by, or <code>null</code> if not filtered
+	 */
+	@Nullable
+	public Geodetic2DBounds getSpatialFilter() {
+		return spatialFilter == null ? null : new Geodetic2DBounds(spatialFilter);
+	}
+
+	/**
+	 * Set the bounds to filter features by while parsing. Features whose
+	 * geometry has a bounding box that does not intersect the bounds are
+	 * dropped, as soon as the geometry has been parsed, and the rest of their
+	 * elements are skipped. Polygons are dropped by their outer boundary
+	 * without parsing their inner boundaries. Documents and Folders whose
+	 * Region has a LatLonAltBox that does not intersect the bounds are skipped
+	 * entirely, along with everything in them. Features without a geometry
+	 * are never dropped.
+	 *
+	 * @param bounds the bounds, or <code>null</code> to read all features
+	 */
+	public void setSpatialFilter(Geodetic2DBounds bounds) {
+		spatialFilter = bounds == null ? null : new Geodetic2DBounds(bounds);
+	}
+
+	/**
+	 * @param geom a geometry, never null
+	 * @return <code>true</code> if the geometry is outside the spatial filter
+	 */
+	private boolean isFilteredOut(Geometry geom) {
+		if (spatialFilter == null) return false;
+		Geodetic2DBounds bbox = geom.getBoundingBox();
+		return bbox != null && !spatialFilter.intersects(bbox);
+	}
+
+	/**
+	 * Skip the element whose start tag was just read if its kind of content
+	 * is skipped.
+	 *
+	 * @param content the kind of content of the element
+	 * @param name    the qualified name of the element
+	 * @return <code>true</code> if the element has been skipped
+	 * @throws XMLStreamException if there is an error with the underlying XML.
+	 */
+	private boolean skip(KmlContent content, QName name) throws XMLStreamException {
+		if (!skipped.contains(content)) return false;
+		skipNextElement(stream, name);
+		return true;
+	}
+
 	/**
 	 * Reads the next <code>IGISObject</code> from the InputStream.
 	 *
@@ -421,6 +493,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 		final StartElement se = e.asStartElement();
 		final QName name = se.getName();
 		String containerTag = name.getLocalPart();
+		final int depth = getElementDepth();
 		ContainerStart cs = new ContainerStart(containerTag); // Folder or Document
 		addLast(cs);
 		Attribute id = se.getAttributeByName(ID_ATTR);
@@ -468,6 +541,17 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 			}
 		}
 
+		if (spatialFilter != null) {
+			Geodetic2DBounds bbox = KmlBaseReader.getRegionBounds(cs.getRegion());
+			if (bbox != null && !spatialFilter.intersects(bbox)) {
+				log.debug("Skip container outside spatial filter: {}", name);
+				skipElement(depth);
+				readSaved(); // discard container
+				return NullObject.getInstance();
+			}
+			if (skipped.contains(KmlContent.REGIONS)) cs.setRegion((TaggedMap) null);
+		}
+
 		return readSaved();
 	}
 
@@ -490,7 +574,8 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				return true;
 			} else if (localname.equals(DESCRIPTION)) {
 				// description content with markup not enclosed in CDATA is invalid and cannot be parsed
-				feature.setDescription(getElementText(name));
+				if (!skip(KmlContent.DESCRIPTIONS, name))
+					feature.setDescription(getElementText(name));
 				return true;
 			} else if (localname.equals(VISIBILITY)) {
 				String val = stream.getElementText();
@@ -503,7 +588,8 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				}
 				return true;
 			} else if (localname.equals(STYLE)) {
-				handleStyle(feature, ee, name);
+				if (!skip(KmlContent.STYLES, name))
+					handleStyle(feature, ee, name);
 				return true;
 			} else if (ms_attributes.contains(localname)) {
 				// basic tags in Feature that are skipped but consumed
@@ -515,30 +601,40 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				feature.setStyleUrl(stream.getElementText()); // value trimmed to null
 				return true;
 			} else if (localname.equals(TIME_SPAN) || localname.equals(TIME_STAMP)) {
-				handleTimePrimitive(feature, ee);
+				if (!skip(KmlContent.TIME, name))
+					handleTimePrimitive(feature, ee);
 				return true;
 			} else if (localname.equals(REGION)) {
-				handleRegion(feature, name);
+				// Regions of containers are needed by the spatial filter
+				if (spatialFilter != null && feature instanceof ContainerStart
+						|| !skip(KmlContent.REGIONS, name))
+					handleRegion(feature, name);
 				return true;
 			} else if (localname.equals(STYLE_MAP)) {
-				handleStyleMap(feature, ee, name);
+				if (!skip(KmlContent.STYLES, name))
+					handleStyleMap(feature, ee, name);
 				return true;
 			} else if (localname.equals(LOOK_AT) || localname.equals(CAMERA)) {
-				handleAbstractView(feature, name);
+				if (!skip(KmlContent.VIEWS, name))
+					handleAbstractView(feature, name);
 				return true;
 			} else if (localname.equals(EXTENDED_DATA)) {
-				handleExtendedData(feature, name);
+				if (!skip(KmlContent.EXTENDED_DATA, name))
+					handleExtendedData(feature, name);
 				return true;
 			} else if (localname.equals("Snippet")) { // kml:Snippet (deprecated)
 				// http://service.kmlvalidator.com/ets/ogc-kml/2.2/#Snippet
-				feature.setSnippet(getElementEmptyText(name)); // allow empty string to be preserved
+				if (!skip(KmlContent.DESCRIPTIONS, name))
+					feature.setSnippet(getElementEmptyText(name)); // allow empty string to be preserved
 				return true;
 			} else if (localname.equals("snippet")) { // kml:snippet
 				// http://code.google.com/apis/kml/documentation/kmlreference.html#snippet
-				feature.setSnippet(getElementEmptyText(name)); // allow empty string to be preserved
+				if (!skip(KmlContent.DESCRIPTIONS, name))
+					feature.setSnippet(getElementEmptyText(name)); // allow empty string to be preserved
 				return true;
 			} else if (localname.equals(ADDRESS) || localname.equals(PHONE_NUMBER)) { // kml:address | kml:phoneNumber
-				String value = getElementText(name); // non-empty or null value
+				String value = skip(KmlContent.DESCRIPTIONS, name) ? null
+						: getElementText(name); // non-empty or null value
 				if (value != null) {
 					// add value as KML element to be handled later
 					Element e = new Element(org.opensextant.giscore.Namespace.getNamespace(KML_NS), localname);
@@ -553,7 +649,9 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				// skip other non-KML namespace elements.
 				String ns = name.getNamespaceURI();
 				if (StringUtils.isNotEmpty(ns) && !ms_kml_ns.contains(ns)) {
-					if (localname.equals(ADDRESS_DETAILS) || ns.startsWith("http://www.w3.org/")
+					if (skip(KmlContent.FOREIGN_ELEMENTS, name)) {
+						log.debug("Skip foreign element {}", name);
+					} else if (localname.equals(ADDRESS_DETAILS) || ns.startsWith("http://www.w3.org/")
 							|| ns.startsWith(NS_GOOGLE_KML_EXT_PREFIX)) {
 						try {
 							Element el = (Element) getForeignElement(ee.asStartElement());
@@ -639,7 +737,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 					handleAsForeignElement = true;
 				}
 
-				if (handleAsForeignElement) {
+				if (handleAsForeignElement && !skip(KmlContent.FOREIGN_ELEMENTS, qname)) {
 					// handle extended data elements (i.e., arbitrary XML data) with
 					// namespace other than the root (KML) namespace.
 					// http://code.google.com/apis/kml/documentation/extendeddata.html#opaquedata
@@ -1319,6 +1417,9 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 			// handle extension namespace
 			// http://code.google.com/apis/kml/documentation/kmlreference.html#kmlextensions
 			log.debug("XXX: handle as foreign element: {}", name);
+			// placeholders of ParallelKmlInputStream are never skipped
+			if (!KmlSplitter.CHUNK_NS.equals(ns) && skip(KmlContent.FOREIGN_ELEMENTS, name))
+				return NullObject.getInstance();
 			return getForeignElement(se);
 		}
 
@@ -1352,10 +1453,14 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				return handleNetworkLinkControl(stream, name);
 			} else if (STYLE.equals(localname)) {
 				log.debug("Out of order element: {}", localname);
+				if (skip(KmlContent.STYLES, name))
+					return NullObject.getInstance();
 				// note this breaks the strict ordering required by KML 2.2
 				return handleStyle(null, se, name);
 			} else if (STYLE_MAP.equals(localname)) {
 				log.debug("Out of order element: {}", localname);
+				if (skip(KmlContent.STYLES, name))
+					return NullObject.getInstance();
 				// note this breaks the strict ordering required by KML 2.2
 				return handleStyleMap(null, se, name);
 			} else {
@@ -1715,8 +1820,14 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 						// geometry: Point, LineString, LinearRing, Polygon, MultiGeometry, Model
 						// does not include gx:Track or gx:MultiTrack
 						try {
-							Geometry geo = handleGeometry(sl);
+							Geometry geo = handleGeometry(sl, true);
 							if (geo != null) {
+								if (isFilteredOut(geo)) {
+									log.debug("Skip feature outside spatial filter: {}", fs.getId());
+									skipNextElement(stream, name);
+									readSaved(); // discard feature
+									return NullObject.getInstance();
+								}
 								fs.setGeometry(geo);
 							}
 						} catch (XMLStreamException xe) {
@@ -2041,7 +2152,9 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	/**
 	 * Parse and process the geometry for the feature and store in the feature
 	 *
-	 * @param sl StartElement
+	 * @param sl       StartElement
+	 * @param filtered <code>true</code> if the geometry is the geometry of a feature
+	 *                 that is dropped if outside the spatial filter
 	 * @return Geometry associated with this element
 	 *         otherwise null if no valid Geometry can be constructed
 	 * @throws XMLStreamException       if there is an error with the underlying XML
@@ -2050,7 +2163,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	 */
 	@SuppressWarnings("unchecked")
 	@Nullable
-	private Geometry handleGeometry(StartElement sl) throws XMLStreamException {
+	private Geometry handleGeometry(StartElement sl, boolean filtered) throws XMLStreamException {
 		QName name = sl.getName();
 		String localname = name.getLocalPart();
 		// localname must match: { Point, MultiGeometry, Model }, or { LineString, LinearRing, Polygon }
@@ -2071,7 +2184,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 					// does not include gx:Track or gx:MultiTrack
 					if (ms_geometries.contains(tag)) {
 						try {
-							Geometry geom = handleGeometry(el);
+							Geometry geom = handleGeometry(el, false);
 							if (geom != null) geometries.add(geom);
 						} catch (RuntimeException rte) {
 							// IllegalStateException or IllegalArgumentException
@@ -2132,7 +2245,7 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 			return model;
 		} else {
 			// otherwise try LineString, LinearRing, Polygon
-			return getGeometryBase(name, localname);
+			return getGeometryBase(name, localname, filtered);
 		}
 	}
 
@@ -2141,13 +2254,15 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	 *
 	 * @param name      the qualified name of this event
 	 * @param localname local part of this <code>QName</code>
+	 * @param filtered  <code>true</code> if the geometry is the geometry of a feature
+	 *                  that is dropped if outside the spatial filter
 	 * @return geometry
 	 * @throws XMLStreamException       if there is an error with the underlying XML.
 	 * @throws IllegalArgumentException if geometry is invalid (e.g. no valid coordinates)
 	 * @throws IllegalStateException    if Bad poly found (e.g. no outer ring)
 	 */
 	@Nullable
-	private GeometryBase getGeometryBase(QName name, String localname) throws XMLStreamException {
+	private GeometryBase getGeometryBase(QName name, String localname, boolean filtered) throws XMLStreamException {
 		if (localname.equals(LINE_STRING)) {
 			GeometryGroup geom = parseCoordinates(name);
 			if (log.isDebugEnabled() && geom.size() < 2) {
@@ -2221,6 +2336,11 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 						}
 						// if geom.size() == 0 throws IllegalArgumentException
 						outer = new LinearRing(geom.points);
+						if (filtered && isFilteredOut(outer)) {
+							// inner rings are inside the outer ring so the polygon is dropped
+							skipNextElement(stream, name);
+							break;
+						}
 					} else if (INNER_BOUNDARY_IS.equals(localPart)) {
 						GeometryGroup innerRing = parseCoordinates(qname);
 						if (innerRing.size() != 0)
@@ -2332,9 +2452,9 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				final QName name = event.asStartElement().getName();
 				final String localPart = name.getLocalPart();
 				if (COORDINATES.equals(localPart)) {
-					String text = getNonEmptyElementText();
-					if (text != null) {
-						geom.points = parseCoord(text);
+					int len = readElementChars();
+					if (len != 0) {
+						geom.points = coordParser.parse(getElementChars(), 0, len);
 					}
 				} else {
 					parseGeomAttr(geom, name, localPart);
@@ -2429,11 +2549,11 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 				final QName qName = event.asStartElement().getName();
 				String localPart = qName.getLocalPart();
 				if (COORDINATES.equals(localPart)) {
-					String text = getNonEmptyElementText();
+					int len = readElementChars();
 					// allow sloppy KML with whitespace appearing before/after
 					// lat and lon values; e.g. <coordinates>-121.9921875, 37.265625</coordinates>
 					// http://kml-samples.googlecode.com/svn/trunk/kml/ListStyle/radio-folder-vis.kml
-					if (text != null) rval = parsePointCoord(text);
+					if (len != 0) rval = parsePointCoord(coordParser.parse(getElementChars(), 0, len));
 				} else if (ALTITUDE_MODE.equals(localPart)) {
 					// Note: handle kml:altitudeMode and gx:altitudeMode
 					// if have both forms then use one from KML namespace as done in handleElementExtension()
@@ -2461,9 +2581,8 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	 * @throws IllegalArgumentException error if coordinates values are out of range
 	 */
 	@Nullable
-	private static Point parsePointCoord(String coord) {
-		List<Point> list = parseCoord(coord);
-		if (log.isDebugEnabled() && list.size() != 1) {
+	private Point parsePointCoord(List<Point> list) {
+		if (log.isDebugEnabled() && list.size() != 1 && !coordParser.isBlank()) {
 			// ATC 14: Point [OGC-07-147r2: cl. 10.3.2]
 			// Check that the kml:coordinates element in a kml:Point geometry contains exactly one coordinate tuple
 			// http://service.kmlvalidator.com/ets/ogc-kml/2.2/#Point
@@ -2492,162 +2611,9 @@ public class KmlInputStream extends XmlInputStream implements IKml {
 	 */
 	@NonNull
 	public static List<Point> parseCoord(String coord) {
-		List<Point> list = new ArrayList<>();
-		NumberStreamTokenizer st = new NumberStreamTokenizer(coord);
-		st.ordinaryChar(',');
-		boolean seenComma = false;
-		int numparts = 0;
-		double elev = 0;
-		Longitude lon = null;
-		Latitude lat = null;
-
-		if (log.isDebugEnabled() && WHITESPACE_PAT.matcher(coord).find()) {
-			// ATC 3: Geometry coordinates
-			// http://service.kmlvalidator.com/ets/ogc-kml/2.2/#Geometry-Coordinates
-			log.warn("Whitespace found within coordinate tuple [ATC 3]");
-			// NOTE: log level checked at debug level but logged at warn level to be picked up with KmlMetaDataDump
-		}
-		// note the NumberStreamTokenizer may introduce some floating-error (e.g., 5.5 -> 5.499999999999999)
-		try {
-			while (st.nextToken() != NumberStreamTokenizer.TT_EOF) {
-				switch (st.ttype) {
-					case NumberStreamTokenizer.TT_WORD:
-						//s = "STRING:" + st.sval; // Already a String
-						log.warn("ignore invalid string in coordinate: \"" + st.sval + "\"");
-						//if (seenComma) System.out.println("\tXXX: WORD: seenComma");
-						//if (numparts != 0) System.out.println("\tXXX: WORD: numparts=" + numparts);
-						break;
-
-					case NumberStreamTokenizer.TT_NUMBER:
-						try {
-							if (numparts == 3) {
-								if (seenComma) {
-									log.warn("comma found instead of whitespace between tuples before " + st.nval);
-									// handle commas appearing between tuples
-									// Google Earth interprets input with: "1,2,3,4,5,6" as two tuples: {1,2,3}  {4,5,6}.
-									seenComma = false;
-								}
-								// add last coord to list and reset counter
-								if (lon != COORD_ERROR)
-									list.add(new Point(new Geodetic3DPoint(lon, lat, elev)));
-								numparts = 0; // reset state for start of new tuple
-							}
-
-							switch (++numparts) {
-								case 1:
-									if (seenComma) {
-										// note: this branch might not be possible: if numparts==0 then seenComma should be false
-										lat = new Latitude(st.nval, Angle.DEGREES);
-										lon = new Longitude(); // skipped longitude (use 0 degrees)
-										numparts = 2;
-									} else {
-										// starting new coordinate (numparts => 1)
-										lon = new Longitude(st.nval, Angle.DEGREES);
-										if (log.isDebugEnabled() && Math.abs(st.nval) > 180)
-											log.debug("longitude out of range: " + st.nval);
-									}
-									break;
-
-								case 2:
-									if (seenComma) {
-										//System.out.println("lat=" + st.nval);
-										lat = new Latitude(st.nval, Angle.DEGREES);
-									} else {
-										if (lon != COORD_ERROR)
-											list.add(new Point(new Geodetic2DPoint(
-													lon, new Latitude())));
-										//else System.out.println("\tERROR: drop bad coord");
-										// start new tuple
-										lon = new Longitude(st.nval, Angle.DEGREES);
-										if (log.isDebugEnabled() && Math.abs(st.nval) > 180)
-											log.debug("longitude out of range: " + st.nval);
-										numparts = 1;
-									}
-									break;
-
-								case 3:
-									if (seenComma) {
-										elev = st.nval;
-									} else {
-										if (lon != COORD_ERROR)
-											list.add(new Point(new Geodetic2DPoint(lon, lat)));
-										//else System.out.println("\tERROR: drop bad coord");
-										// start new tuple
-										lon = new Longitude(st.nval, Angle.DEGREES);
-										if (log.isDebugEnabled() && Math.abs(st.nval) > 180)
-											log.debug("longitude out of range: " + st.nval);
-										numparts = 1;
-									}
-									break;
-							}
-
-							//s = "NUM:" + Double.toString(st.nval);
-                            /*
-                                    double nval = st.nval;
-                                    if (st.nextToken() == StreamTokenizer.TT_WORD && expPattern.matcher(st.sval).matches()) {
-                                        s = "ENUM:" + Double.valueOf(Double.toString(nval) + st.sval).toString();
-                                    } else {
-                                        s = "NUM:" + Double.toString(nval);
-                                        st.pushBack();
-                                    }
-                                    */
-						} catch (IllegalArgumentException e) {
-							// bad lat/longitude; e.g. out of valid range
-							log.error("Invalid coordinate: " + st.nval, e);
-							if (numparts != 0) lon = COORD_ERROR;
-						}
-						seenComma = false; // reset flag
-						break;
-
-					default: // single character in ttype
-						if (st.ttype == ',') {
-							if (!seenComma) {
-								// start of next coordinate component
-								seenComma = true;
-								if (numparts == 0) {
-									//System.out.println("\tXXX: WARN: COMMA0: seenComma w/numparts=" + numparts);
-									lon = new Longitude(); // skipped longitude (use 0 degrees)
-									numparts = 1;
-								}
-							} else
-								// seenComma -> true
-								if (numparts == 1) {
-									//System.out.println("\tXXX: WARN: COMMA2: seenComma w/numparts=" + numparts);
-									lat = new Latitude();  // skipped Latitude (use 0 degrees)
-									numparts = 2;
-								} else if (numparts == 0) {
-									// note this branch may never occur since seenComa=true implies numparts > 0
-									//System.out.println("\tXXX: WARN: COMMA1: seenComma w/numparts=" + numparts);
-									lon = new Longitude(); // skipped longitude (use 0 degrees)
-									numparts = 1;
-								}
-							//else System.out.println("\tXXX: ** ERROR: COMMA3: seenComma w/numparts=" + numparts);
-						} else
-							log.warn("ignore invalid character in coordinate string: (" + (char) st.ttype + ")");
-						//s = "CHAR:" + String.valueOf((char) st.ttype);
-				}
-				//System.out.println("\t" + s);
-			} // while
-		} catch (IOException e) {
-			// we're using StringReader. this should never happen
-			log.error("Failed to parse coord string: " + coord == null || coord.length() <= 20
-					? coord : coord.substring(0, 20) + "...", e);
-		}
-
-		// add last coord if valid
-		if (numparts != 0 && lon != COORD_ERROR)
-			switch (numparts) {
-				case 1:
-					list.add(new Point(new Geodetic2DPoint(lon, new Latitude())));
-					break;
-				case 2:
-					list.add(new Point(new Geodetic2DPoint(lon, lat)));
-					break;
-				case 3:
-					list.add(new Point(new Geodetic3DPoint(lon, lat, elev)));
-			}
-
-		return list;
+		if (coord == null) return new ArrayList<>();
+		// callers may modify the list, the parser returns a packed read-only one
+		return new ArrayList<>(new CoordinateParser().parse(coord.toCharArray(), 0, coord.length()));
 	}
 
 	/**
@@ -18,6 +18,7 @@ package org.opensextant.giscore.input.kml;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import edu.umd.cs.findbugs.annotations.Nullable;
 
 import java.io.BufferedInputStream;
 import java.io.EOFException;
@@ -42,6 +43,7 @@ import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.opensextant.geodesy.Geodetic2DBounds;
 import org.opensextant.giscore.events.Common;
 import org.opensextant.giscore.events.ContainerStart;
 import org.opensextant.giscore.events.Feature;
@@ -574,6 +576,8 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
                     int oldSize = networkLinks.size();
                     int oldFeatSize = linkedFeatures.size();
                     KmlInputStream kis = new KmlInputStream(is);
+                    kis.setSkippedContent(this.kis.getSkippedContent());
+                    kis.setSpatialFilter(this.kis.getSpatialFilter());
                     log.debug("Parse networkLink: {}", ref);
                     try {
                         IGISObject gisObj;
@@ -668,6 +672,44 @@ public class KmlReader extends KmlBaseReader implements IGISInputStream {
         return proxy;
     }
 
+	/**
+	 * @return the kinds of content skipped when parsing, never null
+	 * @see KmlInputStream#getSkippedContent()
+	 */
+	public Set<KmlContent> getSkippedContent() {
+		return kis.getSkippedContent();
+	}
+
+	/**
+	 * Set the kinds of content to skip when parsing the KML and the
+	 * documents of its NetworkLinks.
+	 * @param content the kinds of content to skip, empty or <code>null</code>
+	 *                to parse everything
+	 * @see KmlInputStream#setSkippedContent(Set)
+	 */
+	public void setSkippedContent(Set<KmlContent> content) {
+		kis.setSkippedContent(content);
+	}
+
+	/**
+	 * @return the bounds features are filtered by, or <code>null</code> if not filtered
+	 * @see KmlInputStream#getSpatialFilter()
+	 */
+	@Nullable
+	public Geodetic2DBounds getSpatialFilter() {
+		return kis.getSpatialFilter();
+	}
+
+	/**
+	 * Set the bounds to filter the features of the KML and the documents
+	 * of its NetworkLinks by while parsing.
+	 * @param bounds the bounds, or <code>null</code> to read all features
+	 * @see KmlInputStream#setSpatialFilter(Geodetic2DBounds)
+	 */
+	public void setSpatialFilter(Geodetic2DBounds bounds) {
+		kis.setSpatialFilter(bounds);
+	}
+
     public boolean isRewriteStyleUrls() {
         return rewriteStyleUrls;
     }
@@ -0,0 +1,769 @@
+/****************************************************************************************
+ *  KmlSplitter.java
+ *
+ *  (C) Copyright MITRE Corporation 2013
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantability and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.kml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.giscore.events.ContainerEnd;
+import org.opensextant.giscore.events.Element;
+import org.opensextant.giscore.events.IGISObject;
+
+/**
+ * Splits the bytes of a KML document into the document skeleton, which is
+ * parsed by the calling thread, and chunks of sibling features, which are
+ * parsed by a pool of worker threads.
+ * <p>
+ * The splitter is the input stream of the skeleton. A run of Placemark,
+ * NetworkLink or Overlay elements whose ancestors are all Document or Folder
+ * containers is replaced in the skeleton by a placeholder element, see
+ * {@link #isPlaceholder(Element)}, and parsed on its own as a small KML
+ * document with the namespaces in scope and the Schemas its SchemaData
+ * elements refer to. The skeleton is produced only as fast as it is read, and
+ * reading stops early once enough chunks are waiting to be taken, so memory
+ * use is bounded no matter how big the document is.
+ * <p>
+ * Splitting is done on the raw bytes so it requires an ASCII compatible
+ * encoding. Documents in other encodings, with a DOCTYPE, or without a
+ * <code>kml</code> root element are passed through unchanged and parsed
+ * entirely by the calling thread.
+ */
+final class KmlSplitter extends InputStream {
+
+	static final String CHUNK_NS = "urn:opensextant:giscore:kml-chunk";
+
+	private static final String PLACEHOLDER_NAME = "Placemark";
+	private static final String CHUNK_ATTR = "n";
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+	private static final Set<String> FEATURES = new HashSet<String>(Arrays.asList(
+			IKml.PLACEMARK, IKml.NETWORK_LINK, IKml.GROUND_OVERLAY, IKml.PHOTO_OVERLAY, IKml.SCREEN_OVERLAY));
+	private static final Set<String> CONTAINERS = new HashSet<String>(Arrays.asList(
+			IKml.DOCUMENT, IKml.FOLDER));
+
+	/**
+	 * An open element of the skeleton
+	 */
+	private static final class Node {
+		final boolean containerPath;
+		/**
+		 * prefix and namespace pairs declared on the element, may be null
+		 */
+		final String[] decls;
+
+		Node(boolean containerPath, String[] decls) {
+			this.containerPath = containerPath;
+			this.decls = decls;
+		}
+	}
+
+	/**
+	 * A run of features and the document they are parsed in
+	 */
+	private static final class Chunk {
+		final Bytes head;
+		final Bytes body;
+
+		Chunk(Bytes head, Bytes body) {
+			this.head = head;
+			this.body = body;
+		}
+	}
+
+	/**
+	 * Growable byte array
+	 */
+	private static final class Bytes {
+		byte[] data;
+		int length;
+
+		Bytes(int capacity) {
+			data = new byte[capacity];
+		}
+
+		void append(int b) {
+			ensure(length + 1);
+			data[length++] = (byte) b;
+		}
+
+		void append(byte[] b, int off, int len) {
+			ensure(length + len);
+			System.arraycopy(b, off, data, length, len);
+			length += len;
+		}
+
+		void append(String s) {
+			append(s.getBytes(LATIN1), 0, s.length());
+		}
+
+		private void ensure(int capacity) {
+			if (capacity > data.length)
+				data = Arrays.copyOf(data, Math.max(capacity, 2 * data.length));
+		}
+	}
+
+	private final InputStream source;
+	private final ExecutorService pool;
+	private final int chunkSize;
+	private final int maxPending;
+
+	// input buffer
+	private final byte[] buf = new byte[65536];
+	private int bpos, blen;
+	private boolean eof;
+	private boolean finished;
+
+	// skeleton waiting to be read
+	private final Bytes out = new Bytes(8192);
+	private int outPos;
+
+	/**
+	 * false if the document cannot be split
+	 */
+	private boolean splitting = true;
+	private boolean started;
+	private boolean rootSeen;
+	private String encoding;
+	private String rootName, rootPrefix, rootNs;
+
+	private final List<Node> stack = new ArrayList<Node>();
+	private final Bytes tag = new Bytes(256);
+
+	// chunk being collected, null if none
+	private Bytes chunk;
+	private int featureDepth;
+	// ids of the Schemas referenced by the chunk
+	private final Set<String> schemaRefs = new LinkedHashSet<String>();
+
+	// last Schema seen with each id, included with the chunks referring to it
+	private final Map<String, byte[]> schemas = new HashMap<String, byte[]>();
+	private Bytes schema;
+	private String schemaId;
+	private int schemaDepth = -1;
+
+	private final Queue<Future<List<IGISObject>>> pending = new ArrayDeque<Future<List<IGISObject>>>();
+	private int submitted, taken;
+
+	// stream whose settings apply to the chunks, null until started
+	private KmlInputStream settings;
+	private final List<Chunk> unstarted = new ArrayList<Chunk>();
+
+	/**
+	 * @param source      the KML document
+	 * @param parallelism number of worker threads, at least 1
+	 * @param chunkSize   number of bytes of features to collect into a chunk
+	 */
+	KmlSplitter(InputStream source, int parallelism, int chunkSize) {
+		this.source = source;
+		this.chunkSize = chunkSize;
+		maxPending = 4 * parallelism;
+		pool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			private final ThreadFactory factory = Executors.defaultThreadFactory();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = factory.newThread(r);
+				// a stream that is never closed must not keep the JVM alive
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Start parsing chunks, including those split before this call.
+	 *
+	 * @param settings the stream whose settings, such as the skipped content,
+	 *                 apply to the chunks split from now on
+	 */
+	void start(KmlInputStream settings) {
+		this.settings = settings;
+		for (Chunk doc : unstarted) {
+			submit(doc);
+		}
+		unstarted.clear();
+		if (finished) pool.shutdown();
+	}
+
+	/**
+	 * @param el an element read from the skeleton
+	 * @return <code>true</code> if the element stands for a chunk of features
+	 */
+	static boolean isPlaceholder(Element el) {
+		return CHUNK_NS.equals(el.getNamespaceURI()) && PLACEHOLDER_NAME.equals(el.getName());
+	}
+
+	/**
+	 * Get the features of the chunk with the given placeholder, waiting for
+	 * them to be parsed. The chunks before it whose placeholders were not read,
+	 * because they were skipped along with their container, are discarded.
+	 *
+	 * @param placeholder placeholder read from the skeleton
+	 * @return the objects parsed from the chunk in document order
+	 * @throws IOException if the chunk failed to parse or the thread is interrupted
+	 */
+	List<IGISObject> take(Element placeholder) throws IOException {
+		int n = Integer.parseInt(placeholder.getAttributes().get(CHUNK_ATTR));
+		if (taken > n) return Collections.emptyList();
+		try {
+			for (; taken < n; taken++) {
+				pending.remove().cancel(true);
+			}
+			Future<List<IGISObject>> result = pending.remove();
+			taken++;
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted parsing KML");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException) cause;
+			throw new IOException(cause);
+		}
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) return 0;
+		while (out.length == outPos) {
+			outPos = out.length = 0;
+			if (!step()) return -1;
+		}
+		// read ahead to hand chunks to the workers early, but not too far
+		while (out.length - outPos < len && submitted - taken < maxPending && step()) {
+			// nothing
+		}
+		int n = Math.min(len, out.length - outPos);
+		System.arraycopy(out.data, outPos, b, off, n);
+		outPos += n;
+		return n;
+	}
+
+	@Override
+	public void close() throws IOException {
+		pool.shutdownNow();
+		IOUtils.closeQuietly(source);
+	}
+
+	// ------------------------------------------------------------------
+	// input
+
+	private boolean fill() throws IOException {
+		if (bpos < blen) return true;
+		if (eof) return false;
+		int n = source.read(buf, 0, buf.length);
+		if (n <= 0) {
+			eof = true;
+			return false;
+		}
+		bpos = 0;
+		blen = n;
+		return true;
+	}
+
+	private int next() throws IOException {
+		return fill() ? buf[bpos++] & 0xff : -1;
+	}
+
+	/**
+	 * Append bytes to the tag up to and including the terminator
+	 */
+	private void readUntil(String terminator) throws IOException {
+		int n = terminator.length();
+		byte last = (byte) terminator.charAt(n - 1);
+		while (fill()) {
+			int start = bpos;
+			while (bpos < blen) {
+				if (buf[bpos++] == last) {
+					tag.append(buf, start, bpos - start);
+					if (tag.length >= n && endsWith(terminator)) return;
+					start = bpos;
+				}
+			}
+			tag.append(buf, start, bpos - start);
+		}
+	}
+
+	private boolean endsWith(String s) {
+		int n = s.length();
+		for (int i = 0; i < n; i++) {
+			if (tag.data[tag.length - n + i] != s.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Append the rest of a tag to the tag bytes, allowing for '>' in quoted
+	 * attribute values.
+	 */
+	private void readTag() throws IOException {
+		int quote = 0;
+		while (fill()) {
+			int start = bpos;
+			while (bpos < blen) {
+				int c = buf[bpos++];
+				if (quote != 0) {
+					if (c == quote) quote = 0;
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '>') {
+					tag.append(buf, start, bpos - start);
+					return;
+				}
+			}
+			tag.append(buf, start, bpos - start);
+		}
+	}
+
+	// ------------------------------------------------------------------
+	// splitting
+
+	/**
+	 * Process the next piece of the document.
+	 *
+	 * @return <code>false</code> at the end of the document
+	 */
+	private boolean step() throws IOException {
+		if (!started) {
+			started = true;
+			if (fill()) {
+				int c = buf[bpos] & 0xff;
+				// UTF-8 byte order mark, whitespace or markup
+				if (c != 0xEF && c != '<' && c != ' ' && c != '\t' && c != '\r' && c != '\n')
+					splitting = false;
+			}
+		}
+		if (!fill()) {
+			if (chunk != null) {
+				endChunk();
+				return true;
+			}
+			// let the workers finish the submitted chunks then exit
+			finished = true;
+			if (settings != null) pool.shutdown();
+			return false;
+		}
+		if (!splitting) {
+			// pass through
+			out.append(buf, bpos, blen - bpos);
+			bpos = blen;
+			return true;
+		}
+		if (buf[bpos] != '<') {
+			// character data up to the next markup
+			int start = bpos;
+			while (bpos < blen && buf[bpos] != '<') bpos++;
+			emit(buf, start, bpos - start);
+			return true;
+		}
+		bpos++;
+		tag.length = 0;
+		tag.append('<');
+		int c = next();
+		if (c == -1) {
+			emit(tag.data, 0, tag.length);
+			return true;
+		}
+		tag.append(c);
+		if (c == '!') {
+			readMarkupDeclaration();
+		} else if (c == '?') {
+			readUntil("?>");
+			if (!rootSeen) readEncoding();
+			emit(tag.data, 0, tag.length);
+		} else if (c == '/') {
+			readTag();
+			endTag();
+		} else {
+			readTag();
+			startTag();
+		}
+		return true;
+	}
+
+	/**
+	 * Comment, CDATA section or DOCTYPE
+	 */
+	private void readMarkupDeclaration() throws IOException {
+		int c = next();
+		if (c != -1) tag.append(c);
+		if (c == '-') {
+			readUntil("-->");
+		} else if (c == '[') {
+			readUntil("]]>");
+		} else {
+			// DOCTYPE may declare entities, don't split
+			int depth = 0;
+			while (c != -1 && (c != '>' || depth > 0)) {
+				if (c == '[') depth++;
+				else if (c == ']') depth--;
+				c = next();
+				if (c != -1) tag.append(c);
+			}
+			if (!rootSeen) splitting = false;
+		}
+		emit(tag.data, 0, tag.length);
+	}
+
+	private void readEncoding() {
+		String pi = new String(tag.data, 0, tag.length, LATIN1);
+		if (!pi.startsWith("<?xml")) return;
+		int i = pi.indexOf("encoding");
+		if (i == -1) return;
+		i = pi.indexOf('=', i);
+		if (i == -1) return;
+		i++;
+		while (i < pi.length() && pi.charAt(i) <= ' ') i++;
+		if (i >= pi.length()) return;
+		char quote = pi.charAt(i);
+		int end = pi.indexOf(quote, i + 1);
+		if (end == -1) return;
+		encoding = pi.substring(i + 1, end).trim();
+		String enc = encoding.toUpperCase();
+		if (!(enc.equals("UTF-8") || enc.equals("UTF8") || enc.equals("US-ASCII") || enc.equals("ASCII")
+				|| enc.startsWith("ISO-8859-") || enc.startsWith("WINDOWS-125"))) {
+			// not ASCII compatible, or not known to be
+			splitting = false;
+		}
+	}
+
+	private void startTag() throws IOException {
+		boolean empty = tag.length >= 2 && tag.data[tag.length - 2] == '/';
+		if (featureDepth > 0) {
+			chunk.append(tag.data, 0, tag.length);
+			if (!empty) featureDepth++;
+			if (hasLocalName(IKml.SCHEMA_DATA)) {
+				String url = lookup(IKml.SCHEMA_URL, getAttributes());
+				if (url != null) {
+					// same as the SchemaData reference in KmlInputStream
+					String uri = UrlRef.escapeUri(url);
+					schemaRefs.add(uri.startsWith("#") ? uri.substring(1) : uri);
+				}
+			}
+			return;
+		}
+		String name = getTagName(1);
+		String[] attrs = getAttributes();
+		String[] decls = getNamespaceDeclarations(attrs);
+		int colon = name.indexOf(':');
+		String prefix = colon == -1 ? "" : name.substring(0, colon);
+		String local = name.substring(colon + 1);
+		String ns = resolve(prefix, decls);
+		if (!rootSeen) {
+			rootSeen = true;
+			if (splitting && IKml.KML.equals(local) && ns != null) {
+				rootName = name;
+				rootPrefix = prefix;
+				rootNs = ns;
+			} else {
+				splitting = false;
+			}
+			emit(tag.data, 0, tag.length);
+			if (!empty) stack.add(new Node(true, decls));
+			return;
+		}
+		Node parent = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+		boolean containerPath = parent != null && parent.containerPath && rootNs.equals(ns);
+		if (containerPath && FEATURES.contains(local) && rootNs.equals(resolve(rootPrefix, null))) {
+			if (chunk == null) startChunk();
+			chunk.append(tag.data, 0, tag.length);
+			if (!empty) featureDepth = 1;
+			return;
+		}
+		if (chunk != null) endChunk();
+		if (schemaDepth == -1 && containerPath && IKml.SCHEMA.equals(local)) {
+			// keep Schemas to resolve SchemaData in chunks
+			schemaDepth = empty ? stack.size() + 1 : stack.size();
+			schema = new Bytes(256);
+			schemaId = lookup(IKml.ID, attrs);
+		}
+		emit(tag.data, 0, tag.length);
+		if (!empty) stack.add(new Node(containerPath && CONTAINERS.contains(local), decls));
+		else if (schemaDepth > stack.size()) endSchema();
+	}
+
+	private void endTag() throws IOException {
+		if (featureDepth > 0) {
+			chunk.append(tag.data, 0, tag.length);
+			if (--featureDepth == 0 && chunk.length >= chunkSize) endChunk();
+			return;
+		}
+		if (chunk != null) endChunk();
+		emit(tag.data, 0, tag.length);
+		if (!stack.isEmpty()) stack.remove(stack.size() - 1);
+		if (schemaDepth == stack.size()) endSchema();
+	}
+
+	private void endSchema() {
+		if (schemaId != null) {
+			// same as the Schema id in KmlInputStream
+			schemas.put(UrlRef.escapeUri(schemaId), Arrays.copyOf(schema.data, schema.length));
+		}
+		schema = null;
+		schemaId = null;
+		schemaDepth = -1;
+	}
+
+	/**
+	 * Write bytes to the chunk being collected, or else to the skeleton
+	 */
+	private void emit(byte[] b, int off, int len) {
+		if (chunk != null) {
+			chunk.append(b, off, len);
+		} else {
+			out.append(b, off, len);
+			if (schema != null) schema.append(b, off, len);
+		}
+	}
+
+	private String getTagName(int start) {
+		int i = start;
+		while (i < tag.length) {
+			int c = tag.data[i];
+			if (c <= ' ' || c == '/' || c == '>') break;
+			i++;
+		}
+		return new String(tag.data, start, i - start, LATIN1);
+	}
+
+	/**
+	 * @return <code>true</code> if the local name of the start tag is the given name
+	 */
+	private boolean hasLocalName(String local) {
+		int end = 1;
+		while (end < tag.length) {
+			int c = tag.data[end];
+			if (c <= ' ' || c == '/' || c == '>') break;
+			end++;
+		}
+		int start = end - local.length();
+		if (start < 1 || start > 1 && tag.data[start - 1] != ':') return false;
+		for (int i = 0; i < local.length(); i++) {
+			if (tag.data[start + i] != local.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the name and value pairs of the attributes of the start tag, null
+	 * if none or if the tag is malformed
+	 */
+	private String[] getAttributes() {
+		List<String> attrs = null;
+		int i = 1;
+		// skip the element name
+		while (i < tag.length && tag.data[i] > ' ' && tag.data[i] != '/' && tag.data[i] != '>') i++;
+		while (true) {
+			while (i < tag.length && tag.data[i] <= ' ') i++;
+			if (i >= tag.length || tag.data[i] == '/' || tag.data[i] == '>') break;
+			int start = i;
+			while (i < tag.length && tag.data[i] > ' ' && tag.data[i] != '=') i++;
+			String name = new String(tag.data, start, i - start, LATIN1);
+			while (i < tag.length && tag.data[i] <= ' ') i++;
+			if (i >= tag.length || tag.data[i] != '=') return null;
+			i++;
+			while (i < tag.length && tag.data[i] <= ' ') i++;
+			if (i >= tag.length) return null;
+			byte quote = tag.data[i];
+			if (quote != '"' && quote != '\'') return null;
+			start = ++i;
+			while (i < tag.length && tag.data[i] != quote) i++;
+			if (i >= tag.length) return null;
+			String value = new String(tag.data, start, i - start, LATIN1);
+			i++;
+			if (value.indexOf('&') != -1) value = StringEscapeUtils.unescapeXml(value);
+			if (attrs == null) attrs = new ArrayList<String>(8);
+			attrs.add(name);
+			attrs.add(value);
+		}
+		return attrs == null ? null : attrs.toArray(new String[attrs.size()]);
+	}
+
+	/**
+	 * @param attrs attribute name and value pairs of the start tag, may be null
+	 * @return the prefix and namespace pairs declared in the start tag, null if none
+	 */
+	private static String[] getNamespaceDeclarations(String[] attrs) {
+		if (attrs == null) return null;
+		List<String> decls = null;
+		for (int i = 0; i < attrs.length; i += 2) {
+			String prefix;
+			if (attrs[i].equals("xmlns")) prefix = "";
+			else if (attrs[i].startsWith("xmlns:")) prefix = attrs[i].substring(6);
+			else continue;
+			if (decls == null) decls = new ArrayList<String>(4);
+			decls.add(prefix);
+			decls.add(attrs[i + 1]);
+		}
+		return decls == null ? null : decls.toArray(new String[decls.size()]);
+	}
+
+	/**
+	 * @return the namespace bound to a prefix in the current scope, the empty
+	 * string if none for the default namespace, otherwise null
+	 */
+	private String resolve(String prefix, String[] decls) {
+		String ns = lookup(prefix, decls);
+		for (int i = stack.size() - 1; ns == null && i >= 0; i--) {
+			ns = lookup(prefix, stack.get(i).decls);
+		}
+		return ns == null && prefix.isEmpty() ? "" : ns;
+	}
+
+	private static String lookup(String prefix, String[] decls) {
+		if (decls != null) {
+			for (int i = 0; i < decls.length; i += 2) {
+				if (decls[i].equals(prefix)) return decls[i + 1];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Start collecting a chunk of features
+	 */
+	private void startChunk() {
+		chunk = new Bytes(Math.max(chunkSize + chunkSize / 4, 1024));
+		schemaRefs.clear();
+	}
+
+	/**
+	 * Start the chunk document with the namespaces in scope and the Schemas the
+	 * features refer to
+	 */
+	private Bytes getChunkHead() {
+		Bytes head = new Bytes(1024);
+		head.append("<?xml version=\"1.0\" encoding=\"" + (encoding == null ? "UTF-8" : encoding) + "\"?>\n<");
+		head.append(rootName);
+		Set<String> declared = new HashSet<String>();
+		for (int i = stack.size() - 1; i >= 0; i--) {
+			String[] decls = stack.get(i).decls;
+			if (decls == null) continue;
+			for (int j = 0; j < decls.length; j += 2) {
+				if (declared.add(decls[j])) {
+					head.append(decls[j].isEmpty() ? " xmlns=\"" : " xmlns:" + decls[j] + "=\"");
+					head.append(escapeAttribute(decls[j + 1]));
+					head.append("\"");
+				}
+			}
+		}
+		String document = rootPrefix.isEmpty() ? IKml.DOCUMENT : rootPrefix + ":" + IKml.DOCUMENT;
+		head.append("><" + document + ">");
+		for (String id : schemaRefs) {
+			byte[] schema = schemas.get(id);
+			if (schema != null) head.append(schema, 0, schema.length);
+		}
+		head.append("</" + document + ">\n");
+		return head;
+	}
+
+	/**
+	 * Escape an attribute value read by {@link #getAttributes()}. Characters
+	 * beyond ISO-8859-1 only come from character references.
+	 */
+	private static String escapeAttribute(String value) {
+		StringBuilder sb = null;
+		for (int i = 0; i < value.length(); ) {
+			int c = value.codePointAt(i);
+			if (c == '&' || c == '<' || c == '"' || c > 0xff) {
+				if (sb == null) sb = new StringBuilder(value.substring(0, i));
+				sb.append("&#").append(c).append(';');
+			} else if (sb != null) {
+				sb.append((char) c);
+			}
+			i += Character.charCount(c);
+		}
+		return sb == null ? value : sb.toString();
+	}
+
+	/**
+	 * Hand the chunk to a worker and put its placeholder into the skeleton
+	 */
+	private void endChunk() {
+		Bytes body = chunk;
+		chunk = null;
+		body.append("\n</" + rootName + ">");
+		Chunk doc = new Chunk(getChunkHead(), body);
+		if (settings == null) unstarted.add(doc);
+		else submit(doc);
+		out.append("<gxc:" + PLACEHOLDER_NAME + " xmlns:gxc=\"" + CHUNK_NS + "\" "
+				+ CHUNK_ATTR + "=\"" + submitted++ + "\"/>");
+	}
+
+	private void submit(final Chunk doc) {
+		final Set<KmlContent> skipped = settings.getSkippedContent();
+		final Geodetic2DBounds filter = settings.getSpatialFilter();
+		pending.add(pool.submit(new Callable<List<IGISObject>>() {
+			public List<IGISObject> call() throws IOException {
+				InputStream is = new SequenceInputStream(
+						new ByteArrayInputStream(doc.head.data, 0, doc.head.length),
+						new ByteArrayInputStream(doc.body.data, 0, doc.body.length));
+				return parseChunk(is, skipped, filter);
+			}
+		}));
+	}
+
+	/**
+	 * Parse a chunk document, dropping the objects for the document and its
+	 * Schemas that precede the features.
+	 */
+	private static List<IGISObject> parseChunk(InputStream is, Set<KmlContent> skipped,
+			Geodetic2DBounds filter) throws IOException {
+		KmlInputStream kis = new KmlInputStream(is);
+		try {
+			kis.setSkippedContent(skipped);
+			kis.setSpatialFilter(filter);
+			List<IGISObject> objects = new ArrayList<IGISObject>();
+			boolean features = false;
+			IGISObject obj;
+			while ((obj = kis.read()) != null) {
+				if (features) objects.add(obj);
+				else if (obj instanceof ContainerEnd) features = true;
+			}
+			return objects;
+		} finally {
+			kis.close();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/****************************************************************************************
+ *  ParallelKmlInputStream.java
+ *
+ *  (C) Copyright MITRE Corporation 2013
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantability and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.kml;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.opensextant.giscore.events.Element;
+import org.opensextant.giscore.events.IGISObject;
+
+/**
+ * A <code>KmlInputStream</code> that parses the features of large documents on
+ * a pool of threads.
+ * <p>
+ * Runs of sibling Placemarks, NetworkLinks and Overlays inside the Document and
+ * Folder containers are split from the byte stream into chunks of about
+ * {@link #DEFAULT_CHUNK_SIZE} bytes, and each chunk is parsed by a worker with
+ * the namespaces in scope and the Schemas its features refer to. Everything
+ * else is parsed by the calling thread. {@link #read()} returns the same
+ * objects in the same document order as {@link KmlInputStream} does, except
+ * that a Schema without an id or name may be given a different generated one,
+ * as the workers parse their own copies of the referenced Schemas.
+ * <p>
+ * Only documents in an ASCII compatible encoding (e.g. UTF-8 or ISO-8859-1)
+ * with a <code>kml</code> root element are split, others are parsed entirely
+ * by the calling thread. The stream should be closed to release the threads
+ * if it is not read to the end, though they do not keep the JVM from exiting.
+ * <p>
+ * Settings such as {@link #setSkippedContent(java.util.Set)} and
+ * {@link #setSpatialFilter(org.opensextant.geodesy.Geodetic2DBounds)} must be
+ * made before the first call to <code>read()</code> to apply to all features.
+ */
+public class ParallelKmlInputStream extends KmlInputStream {
+
+	/**
+	 * Default number of bytes of features parsed by a worker at a time
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+
+	private final KmlSplitter splitter;
+	private final Deque<IGISObject> chunkObjects = new ArrayDeque<>();
+	private boolean started;
+
+	/**
+	 * Creates a <code>ParallelKmlInputStream</code> that parses on one thread
+	 * per available processor.
+	 *
+	 * @param input input stream for the kml file, never <code>null</code>
+	 * @throws IOException              if an I/O or parsing error occurs
+	 * @throws IllegalArgumentException if input is null
+	 */
+	public ParallelKmlInputStream(InputStream input) throws IOException {
+		this(input, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a <code>ParallelKmlInputStream</code>.
+	 *
+	 * @param input       input stream for the kml file, never <code>null</code>
+	 * @param parallelism number of threads parsing features
+	 * @throws IOException              if an I/O or parsing error occurs
+	 * @throws IllegalArgumentException if input is null or parallelism is less than 1
+	 */
+	public ParallelKmlInputStream(InputStream input, int parallelism) throws IOException {
+		this(input, parallelism, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a <code>ParallelKmlInputStream</code>.
+	 *
+	 * @param input       input stream for the kml file, never <code>null</code>
+	 * @param parallelism number of threads parsing features
+	 * @param chunkSize   number of bytes of features handed to a thread at a time
+	 * @throws IOException              if an I/O or parsing error occurs
+	 * @throws IllegalArgumentException if input is null or parallelism or
+	 *                                  chunkSize is less than 1
+	 */
+	public ParallelKmlInputStream(InputStream input, int parallelism, int chunkSize) throws IOException {
+		this(split(input, parallelism, chunkSize));
+	}
+
+	private ParallelKmlInputStream(KmlSplitter splitter) throws IOException {
+		super(splitter);
+		this.splitter = splitter;
+	}
+
+	private static KmlSplitter split(InputStream input, int parallelism, int chunkSize) {
+		if (input == null) {
+			throw new IllegalArgumentException("input should never be null");
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be at least 1");
+		}
+		return new KmlSplitter(input, parallelism, chunkSize);
+	}
+
+	/**
+	 * Reads the next <code>IGISObject</code> from the InputStream, waiting for
+	 * the worker parsing it if it is part of a chunk.
+	 *
+	 * @return next <code>IGISObject</code>,
+	 *         or <code>null</code> if the end of the stream is reached.
+	 * @throws IOException if an I/O error occurs, if there is a fatal error
+	 *                     with the underlying XML, or if interrupted while
+	 *                     waiting for a worker
+	 */
+	@Override
+	@CheckForNull
+	public IGISObject read() throws IOException {
+		if (!started) {
+			started = true;
+			splitter.start(this);
+		}
+		while (chunkObjects.isEmpty()) {
+			IGISObject obj = super.read();
+			if (obj instanceof Element && KmlSplitter.isPlaceholder((Element) obj)) {
+				chunkObjects.addAll(splitter.take((Element) obj));
+			} else {
+				return obj;
+			}
+		}
+		return chunkObjects.removeFirst();
+	}
+}
@@ -0,0 +1,380 @@
+/****************************************************************************************
+ *  QuadTreeIndex.java
+ *
+ *  (C) Copyright MITRE Corporation 2013
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.input.shapefile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Quadtree spatial index over the records of a shapefile, stored in the
+ * .qix sidecar layout used by shapelib and MapServer. The file starts with an
+ * eight byte header ("SQT", byte order, version 1, three reserved bytes)
+ * followed by the shape count and tree depth. Nodes follow depth first, each
+ * holding the byte length of its subtree, its bounds, the zero-based ids of
+ * the shapes stored at the node and its count of child nodes.
+ * <p>
+ * The index is kept in its serialized form both when read from a file and
+ * when created from record bounds, queries walk the serialized nodes and
+ * skip subtrees that do not intersect the query.
+ */
+public class QuadTreeIndex {
+
+    private static final byte LSB_ORDER = 1;
+    private static final byte MSB_ORDER = 2;
+    private static final byte VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * Deepest tree created, limits the size of the tree for huge shapefiles
+     */
+    private static final int MAX_DEPTH = 12;
+
+    /**
+     * The serialized index, including the header
+     */
+    private final ByteBuffer buffer;
+
+    private final int shapeCount;
+
+    private final int depth;
+
+    /**
+     * Ctor
+     *
+     * @param buffer the serialized index
+     * @throws IOException if the header is not a valid qix header
+     */
+    private QuadTreeIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.get(0) != 'S'
+                || buffer.get(1) != 'Q' || buffer.get(2) != 'T') {
+            throw new IOException("Invalid quadtree index signature");
+        }
+        byte order = buffer.get(3);
+        if (order == LSB_ORDER) {
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (order == MSB_ORDER) {
+            buffer.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            throw new IOException("Unsupported quadtree index byte order " + order);
+        }
+        if (buffer.get(4) != VERSION) {
+            throw new IOException("Unsupported quadtree index version " + buffer.get(4));
+        }
+        this.buffer = buffer;
+        shapeCount = buffer.getInt(8);
+        depth = buffer.getInt(12);
+    }
+
+    /**
+     * Read an index from a .qix file. The file is memory mapped and the
+     * mapping stays valid after the file is closed.
+     *
+     * @param file the index file, never <code>null</code>
+     * @return the index
+     * @throws IOException if the file is not a valid index or an I/O error occurs
+     */
+    public static QuadTreeIndex read(File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file should never be null");
+        }
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            return new QuadTreeIndex(channel.map(MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            IOUtils.closeQuietly(fis);
+        }
+    }
+
+    /**
+     * Create an index from the bounding boxes of the shapefile records.
+     *
+     * If no record has geometry, the index is a single empty root node with
+     * an all-zero extent, so every query finds nothing. An index of at most
+     * four records, such as one for a single record, only has the root node.
+     *
+     * @param bounds     four values per record in the order xmin, ymin, xmax,
+     *                   ymax in degrees. Records without geometry are marked by
+     *                   <code>NaN</code> values and are left out of the index.
+     * @param shapeCount the number of records
+     * @return the index
+     * @throws IllegalArgumentException if there are fewer bounds than records
+     */
+    public static QuadTreeIndex create(double[] bounds, int shapeCount) {
+        if (bounds == null || bounds.length < shapeCount * 4) {
+            throw new IllegalArgumentException("bounds must hold four values per shape");
+        }
+        double[] extent = {Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+        for (int i = 0; i < shapeCount; i++) {
+            int j = i * 4;
+            if (Double.isNaN(bounds[j])) continue;
+            extent[0] = Math.min(extent[0], bounds[j]);
+            extent[1] = Math.min(extent[1], bounds[j + 1]);
+            extent[2] = Math.max(extent[2], bounds[j + 2]);
+            extent[3] = Math.max(extent[3], bounds[j + 3]);
+        }
+        if (extent[0] > extent[2]) {
+            // nothing to index
+            extent = new double[4];
+        }
+        int depth = 0;
+        int maxNodeCount = 1;
+        while (maxNodeCount * 4 < shapeCount && depth < MAX_DEPTH) {
+            depth++;
+            maxNodeCount *= 2;
+        }
+        Node root = new Node(extent);
+        for (int i = 0; i < shapeCount; i++) {
+            int j = i * 4;
+            if (Double.isNaN(bounds[j])) continue;
+            root.insert(i, bounds[j], bounds[j + 1], bounds[j + 2], bounds[j + 3], depth);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + root.getSize());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put((byte) 'S').put((byte) 'Q').put((byte) 'T');
+        buffer.put(LSB_ORDER).put(VERSION).put((byte) 0).put((byte) 0).put((byte) 0);
+        buffer.putInt(shapeCount);
+        buffer.putInt(root.getLevels());
+        root.write(buffer);
+        buffer.flip();
+        try {
+            return new QuadTreeIndex(buffer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // we just wrote a valid header
+        }
+    }
+
+    /**
+     * Write the index to a .qix file
+     *
+     * @param file the file to write, never <code>null</code>
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file should never be null");
+        }
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            ByteBuffer out = buffer.duplicate();
+            out.clear();
+            FileChannel channel = fos.getChannel();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Write the index to a stream, e.g. a zip entry
+     *
+     * @param out the stream to write to, never <code>null</code>. Left open.
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(OutputStream out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("out should never be null");
+        }
+        ByteBuffer data = buffer.duplicate();
+        data.clear();
+        WritableByteChannel channel = Channels.newChannel(out);
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    /**
+     * @return the number of records in the indexed shapefile
+     */
+    public int getShapeCount() {
+        return shapeCount;
+    }
+
+    /**
+     * @return the number of levels in the tree, 1 if there is only the root node
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Find the records whose bounds may intersect the query bounds. The
+     * result is a superset of the matching records, the caller still needs
+     * to check each record's own bounding box.
+     *
+     * @param xMin western edge of the query in degrees
+     * @param yMin southern edge of the query in degrees
+     * @param xMax eastern edge of the query in degrees
+     * @param yMax northern edge of the query in degrees
+     * @return zero-based record ids in ascending order
+     */
+    public int[] query(double xMin, double yMin, double xMax, double yMax) {
+        IdList ids = new IdList();
+        if (buffer.limit() > HEADER_SIZE) {
+            queryNode(HEADER_SIZE, xMin, yMin, xMax, yMax, ids);
+        }
+        int[] result = Arrays.copyOf(ids.ids, ids.count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Collect the ids of the node at the given position and its intersecting
+     * descendants.
+     *
+     * @return the position following the node and all of its descendants
+     */
+    private int queryNode(int pos, double xMin, double yMin, double xMax, double yMax,
+            IdList ids) {
+        int subtreeSize = buffer.getInt(pos);
+        int count = buffer.getInt(pos + 36);
+        int idStart = pos + 40;
+        int childStart = idStart + 4 * count + 4;
+        if (buffer.getDouble(pos + 4) > xMax || buffer.getDouble(pos + 20) < xMin
+                || buffer.getDouble(pos + 12) > yMax || buffer.getDouble(pos + 28) < yMin) {
+            return childStart + subtreeSize;
+        }
+        for (int i = 0; i < count; i++) {
+            ids.add(buffer.getInt(idStart + 4 * i));
+        }
+        int children = buffer.getInt(childStart - 4);
+        int next = childStart;
+        for (int i = 0; i < children; i++) {
+            next = queryNode(next, xMin, yMin, xMax, yMax, ids);
+        }
+        return next;
+    }
+
+    /**
+     * Growable list of record ids
+     */
+    private static final class IdList {
+        int[] ids = new int[16];
+        int count;
+
+        void add(int id) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = id;
+        }
+    }
+
+    /**
+     * A node of the tree while it is being built. Each shape is stored in the
+     * deepest node whose bounds contain the shape's bounds, child nodes are
+     * only created when a shape is stored in them.
+     */
+    private static final class Node {
+        private final double[] bounds;
+        private final IdList ids = new IdList();
+        private Node[] children;
+
+        Node(double[] bounds) {
+            this.bounds = bounds;
+        }
+
+        void insert(int id, double xMin, double yMin, double xMax, double yMax, int depth) {
+            if (depth > 0) {
+                double xMid = (bounds[0] + bounds[2]) / 2;
+                double yMid = (bounds[1] + bounds[3]) / 2;
+                for (int quadrant = 0; quadrant < 4; quadrant++) {
+                    double[] qb = {
+                            (quadrant & 1) == 0 ? bounds[0] : xMid,
+                            (quadrant & 2) == 0 ? bounds[1] : yMid,
+                            (quadrant & 1) == 0 ? xMid : bounds[2],
+                            (quadrant & 2) == 0 ? yMid : bounds[3]};
+                    if (xMin >= qb[0] && xMax <= qb[2] && yMin >= qb[1] && yMax <= qb[3]) {
+                        if (children == null) {
+                            children = new Node[4];
+                        }
+                        if (children[quadrant] == null) {
+                            children[quadrant] = new Node(qb);
+                        }
+                        children[quadrant].insert(id, xMin, yMin, xMax, yMax, depth - 1);
+                        return;
+                    }
+                }
+            }
+            ids.add(id);
+        }
+
+        /**
+         * @return the number of levels in the subtree of this node
+         */
+        int getLevels() {
+            int levels = 0;
+            if (children != null) {
+                for (Node child : children) {
+                    if (child != null) levels = Math.max(levels, child.getLevels());
+                }
+            }
+            return levels + 1;
+        }
+
+        /**
+         * @return the serialized size in bytes of this node and its descendants
+         */
+        int getSize() {
+            return 44 + 4 * ids.count + getSubtreeSize();
+        }
+
+        /**
+         * @return the serialized size in bytes of the descendants of this node
+         */
+        int getSubtreeSize() {
+            int size = 0;
+            if (children != null) {
+                for (Node child : children) {
+                    if (child != null) size += child.getSize();
+                }
+            }
+            return size;
+        }
+
+        void write(ByteBuffer out) {
+            out.putInt(getSubtreeSize());
+            for (double b : bounds) out.putDouble(b);
+            out.putInt(ids.count);
+            for (int i = 0; i < ids.count; i++) out.putInt(ids.ids[i]);
+            int childCount = 0;
+            if (children != null) {
+                for (Node child : children) {
+                    if (child != null) childCount++;
+                }
+            }
+            out.putInt(childCount);
+            if (children != null) {
+                for (Node child : children) {
+                    if (child != null) child.write(out);
+                }
+            }
+        }
+    }
+}
@@ -27,26 +27,38 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.opensextant.geodesy.Geodetic2DBounds;
 import org.opensextant.giscore.IAcceptSchema;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.Schema;
 import org.opensextant.giscore.input.GISInputStreamBase;
 import org.opensextant.giscore.input.dbf.DbfInputStream;
 import org.opensextant.giscore.utils.Args;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * Read one or more shapefiles in from a directory or from a zip input stream.
+ * Read one or more shapefiles in from a directory, a zip file or from a zip
+ * input stream. Zip files are read in place, zip input streams are extracted
+ * to a temporary directory first.
  *
  * @author DRAND
  */
 public class ShapefileInputStream extends GISInputStreamBase {
+	private static final Logger log = LoggerFactory.getLogger(ShapefileInputStream.class);
+
 	private static final String ms_tempDir = System.getProperty("java.io.tmpdir");
 
 	private static final AtomicInteger ms_tempDirCounter = new AtomicInteger();
@@ -70,6 +82,23 @@ public class ShapefileInputStream extends GISInputStreamBase {
 	 */
 	private File shapefiles[];
 
+	/**
+	 * Zip archive the shapefiles are read from in place, <code>null</code>
+	 * unless reading a zip file.
+	 */
+	private ZipFile zipFile;
+
+	/**
+	 * Shapefile (.shp) entries found in the zip archive, used in place of
+	 * the shapefiles array when reading a zip file.
+	 */
+	private List<ZipEntry> zipShapefiles;
+
+	/**
+	 * This tracks if we opened the zip file and should close it
+	 */
+	private boolean ownsZipFile;
+
 	/**
 	 * The current shapefile being read. When we are done this will be set
 	 * to the length of the shapefiles array.
@@ -86,6 +115,36 @@ public class ShapefileInputStream extends GISInputStreamBase {
 	 */
 	private SingleShapefileInputHandler handler;
 
+	/**
+	 * Bounds used to filter features, may be <code>null</code>
+	 */
+	private Geodetic2DBounds filterBounds;
+
+	/**
+	 * Number of threads used to decode geometry
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Return features in file order when decoding in parallel
+	 */
+	private boolean preserveOrder = true;
+
+	/**
+	 * Decode geometry on first access
+	 */
+	private boolean lazyGeometry;
+
+	/**
+	 * Names of the dbf fields to read, <code>null</code> for all fields
+	 */
+	private Collection<String> projection;
+
+	/**
+	 * Maximum number of distinct values shared per character field
+	 */
+	private int dictionaryLimit;
+
 	/**
 	 * This tracks if we're using a temp directory
 	 */
@@ -173,9 +232,12 @@ public class ShapefileInputStream extends GISInputStreamBase {
 	}
 
 	/**
-	 * Ctor
+	 * Ctor. A zip file is read in place from its entries, see
+	 * {@link #ShapefileInputStream(ZipFile, IAcceptSchema)} for what that
+	 * does not support.
 	 *
-	 * @param file     the location of the shapefile(s) as individual .shp file or directory
+	 * @param file     the location of the shapefile(s) as individual .shp file,
+	 *                 directory or zip file
 	 * @param accepter a function that determines if a schema should be used,
 	 *                 may be <code>null</code>
 	 * @throws IllegalArgumentException if file argument is <code>null</code>
@@ -195,7 +257,41 @@ public class ShapefileInputStream extends GISInputStreamBase {
 		}
 		IAcceptSchema accepter = (IAcceptSchema) (args.length > 0 ? args[0] : null);
 		usingTemp = false;
-		initialize(file, accepter);
+		if (file.isFile() && file.getName().toLowerCase().endsWith(".zip")) {
+			try {
+				initialize(new ZipFile(file), accepter);
+			} catch (IOException e) {
+				throw new IllegalArgumentException("Invalid shapefile zip archive", e);
+			}
+			ownsZipFile = true;
+		} else {
+			initialize(file, accepter);
+		}
+	}
+
+	/**
+	 * Ctor for reading shapefiles in place from a zip archive without
+	 * extracting them. The components are read directly from the zip entries,
+	 * so features are read the same way as from a plain shp stream.
+	 * The zip file is not closed by this stream.
+	 * <p>
+	 * Entries are read sequentially, so the shp file is not memory mapped,
+	 * random access by record number is not available and a .qix spatial
+	 * index is ignored, the filter bounds are checked against every record.
+	 * Geometry is still decoded in parallel if requested. Extract the archive
+	 * and read the directory to get all of these.
+	 *
+	 * @param zipFile  the zip archive holding one or more shapefiles, never <code>null</code>
+	 * @param accepter a function that determines if a schema should be used,
+	 *                 may be <code>null</code>
+	 * @throws IllegalArgumentException if zipFile argument is <code>null</code>
+	 */
+	public ShapefileInputStream(ZipFile zipFile, IAcceptSchema accepter) {
+		if (zipFile == null) {
+			throw new IllegalArgumentException("zipFile argument should never be null");
+		}
+		usingTemp = false;
+		initialize(zipFile, accepter);
 	}
 
 	/**
@@ -224,10 +320,170 @@ public class ShapefileInputStream extends GISInputStreamBase {
 		}
 	}
 
+	/**
+	 * Initialize the input stream to read from a zip archive
+	 *
+	 * @param zip      the zip archive
+	 * @param accepter
+	 */
+	private void initialize(ZipFile zip, IAcceptSchema accepter) {
+		this.accepter = accepter;
+		zipFile = zip;
+		zipShapefiles = new ArrayList<ZipEntry>();
+		Enumeration<? extends ZipEntry> entries = zip.entries();
+		while (entries.hasMoreElements()) {
+			ZipEntry entry = entries.nextElement();
+			if (!entry.isDirectory() && entry.getName().endsWith(".shp")) {
+				zipShapefiles.add(entry);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of shapefiles found
+	 */
+	private int getShapefileCount() {
+		return zipFile != null ? zipShapefiles.size() : shapefiles.length;
+	}
+
+	/**
+	 * Set the bounds used to filter features. Features whose bounding box does
+	 * not intersect the bounds are skipped without decoding their geometry or
+	 * attributes. Applies to shapefiles not yet opened.
+	 *
+	 * @param bounds the filter bounds, <code>null</code> to read all features
+	 */
+	public void setFilterBounds(Geodetic2DBounds bounds) {
+		filterBounds = bounds;
+	}
+
+	/**
+	 * @return the filter bounds, <code>null</code> if all features are read
+	 */
+	public Geodetic2DBounds getFilterBounds() {
+		return filterBounds;
+	}
+
+	/**
+	 * Set the number of threads used to decode geometry. Applies to shapefiles
+	 * not yet opened.
+	 *
+	 * @param parallelism number of decoding threads, 1 (the default) decodes
+	 *                    on the calling thread
+	 * @throws IllegalArgumentException if parallelism is less than 1
+	 * @see SingleShapefileInputHandler#setParallelism(int)
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return the number of threads used to decode geometry
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * When decoding in parallel, choose whether features are returned in
+	 * file order (the default) or as soon as they are decoded. Applies to
+	 * shapefiles not yet opened.
+	 *
+	 * @param preserveOrder <code>false</code> to return features in the order
+	 *                      decoding completes
+	 */
+	public void setPreserveOrder(boolean preserveOrder) {
+		this.preserveOrder = preserveOrder;
+	}
+
+	/**
+	 * @return <code>true</code> if features are returned in file order
+	 */
+	public boolean isPreserveOrder() {
+		return preserveOrder;
+	}
+
+	/**
+	 * Choose whether geometry is decoded when a feature is read (the default)
+	 * or when the feature's geometry is first requested. Applies to
+	 * shapefiles not yet opened.
+	 *
+	 * @param lazyGeometry <code>true</code> to decode geometry on first access
+	 * @see SingleShapefileInputHandler#setLazyGeometry(boolean)
+	 */
+	public void setLazyGeometry(boolean lazyGeometry) {
+		this.lazyGeometry = lazyGeometry;
+	}
+
+	/**
+	 * @return <code>true</code> if geometry is decoded on first access
+	 */
+	public boolean isLazyGeometry() {
+		return lazyGeometry;
+	}
+
+	/**
+	 * Restrict the dbf fields that are read to the given names, the schema of
+	 * each shapefile only holds the projected fields. Applies to shapefiles
+	 * not yet opened, each of which must have all of the named fields.
+	 *
+	 * @param fieldNames names of the fields to read, <code>null</code> to read
+	 *                   all fields
+	 * @see SingleShapefileInputHandler#setProjection(Collection)
+	 */
+	public void setProjection(Collection<String> fieldNames) {
+		projection = fieldNames == null ? null : new ArrayList<String>(fieldNames);
+	}
+
+	/**
+	 * @return the names of the dbf fields to read, <code>null</code> if all
+	 * fields are read
+	 */
+	public Collection<String> getProjection() {
+		return projection;
+	}
+
+	/**
+	 * Share the String instances of repeated values of character fields.
+	 * Applies to shapefiles not yet opened.
+	 *
+	 * @param maxEntries maximum number of distinct values per field, 0 (the
+	 *                   default) to create a new String for every value
+	 * @throws IllegalArgumentException if maxEntries is negative
+	 * @see DbfInputStream#setDictionaryLimit(int)
+	 */
+	public void setDictionaryLimit(int maxEntries) {
+		if (maxEntries < 0) {
+			throw new IllegalArgumentException("maxEntries must not be negative");
+		}
+		dictionaryLimit = maxEntries;
+	}
+
+	/**
+	 * @return the maximum number of distinct values shared per character
+	 *         field, 0 if values are not shared
+	 */
+	public int getDictionaryLimit() {
+		return dictionaryLimit;
+	}
+
 	public void close() {
 		if (handler != null) {
 			handler.close();
 		}
+		if (zipFile != null) {
+			if (ownsZipFile) {
+				try {
+					zipFile.close();
+				} catch (IOException e) {
+					log.warn("Problem closing zip file " + zipFile.getName(), e);
+				}
+			}
+			return;
+		}
 		if (usingTemp && !workingDir.delete()) {
 			workingDir.deleteOnExit();
 		}
@@ -236,6 +492,23 @@ public class ShapefileInputStream extends GISInputStreamBase {
 	@NonNull
 	@Override
 	public Iterator<Schema> enumerateSchemata() throws IOException {
+		if (zipFile != null) {
+			List<Schema> schemata = new ArrayList<Schema>();
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				if (entry.isDirectory() || !entry.getName().endsWith(".dbf")) continue;
+				DbfInputStream dbfis = new DbfInputStream(zipFile.getInputStream(entry), null);
+				try {
+					if (projection != null) dbfis.setProjection(projection);
+					Schema schema = (Schema) dbfis.read();
+					if (schema != null) schemata.add(schema);
+				} finally {
+					dbfis.close();
+				}
+			}
+			return schemata.iterator();
+		}
 		File[] dbfs = workingDir.listFiles(new FileFilter() {
 			public boolean accept(File pathname) {
 				return pathname.getName().endsWith(".dbf");
@@ -244,6 +517,7 @@ public class ShapefileInputStream extends GISInputStreamBase {
 		List<Schema> schemata = new ArrayList<Schema>();
 		for (File dbf : dbfs) {
 			DbfInputStream dbfis = new DbfInputStream(dbf, null);
+			if (projection != null) dbfis.setProjection(projection);
 			Schema schema = (Schema) dbfis.read();
 			if (schema != null) schemata.add(schema);
 		}
@@ -252,7 +526,7 @@ public class ShapefileInputStream extends GISInputStreamBase {
 
 	public IGISObject read() throws IOException {
 		IGISObject rval = null;
-		while (rval == null && currentShapefile < shapefiles.length) {
+		while (rval == null && currentShapefile < getShapefileCount()) {
 			if (handler == null) {
 				handleNewShapefile(); // It will iterate
 			} else {
@@ -281,10 +555,57 @@ public class ShapefileInputStream extends GISInputStreamBase {
 	 * @throws IOException if an I/O error occurs
 	 */
 	private void handleNewShapefile() throws IOException {
-		File shapefile = shapefiles[currentShapefile];
-		String basename = shapefile.getName();
-		int i = basename.indexOf(".shp");
-		basename = basename.substring(0, i);
-		handler = new SingleShapefileInputHandler(workingDir, basename);
+		if (zipFile != null) {
+			handler = openZipShapefile(zipShapefiles.get(currentShapefile));
+		} else {
+			File shapefile = shapefiles[currentShapefile];
+			String basename = shapefile.getName();
+			int i = basename.indexOf(".shp");
+			basename = basename.substring(0, i);
+			handler = new SingleShapefileInputHandler(workingDir, basename);
+		}
+		handler.setFilterBounds(filterBounds);
+		handler.setParallelism(parallelism);
+		handler.setPreserveOrder(preserveOrder);
+		handler.setLazyGeometry(lazyGeometry);
+		if (projection != null) {
+			handler.setProjection(projection);
+		}
+		handler.setDictionaryLimit(dictionaryLimit);
+	}
+
+	/**
+	 * Open the handler on a shapefile in the zip archive, reading the
+	 * shp and any dbf and prj components with the same base name
+	 * directly from their entries.
+	 *
+	 * @param shpEntry the entry of the shp component
+	 * @return the handler
+	 * @throws IOException if an I/O error occurs
+	 */
+	private SingleShapefileInputHandler openZipShapefile(ZipEntry shpEntry) throws IOException {
+		String path = shpEntry.getName();
+		path = path.substring(0, path.length() - 4);
+		String normalized = path.replace('\\', '/');
+		String basename = normalized.substring(normalized.lastIndexOf('/') + 1);
+		Map<ShapefileComponent, InputStream> others = new EnumMap<ShapefileComponent, InputStream>(ShapefileComponent.class);
+		ZipEntry dbfEntry = zipFile.getEntry(path + ".dbf");
+		if (dbfEntry != null) {
+			others.put(ShapefileComponent.DBF, zipFile.getInputStream(dbfEntry));
+		}
+		ZipEntry prjEntry = zipFile.getEntry(path + ".prj");
+		if (prjEntry != null) {
+			others.put(ShapefileComponent.PRJ, zipFile.getInputStream(prjEntry));
+		}
+		InputStream shpStream = new BufferedInputStream(zipFile.getInputStream(shpEntry));
+		try {
+			return new SingleShapefileInputHandler(shpStream, others, basename);
+		} catch (IOException | RuntimeException e) {
+			IOUtils.closeQuietly(shpStream);
+			for (InputStream other : others.values()) {
+				IOUtils.closeQuietly(other);
+			}
+			throw e;
+		}
 	}
 }
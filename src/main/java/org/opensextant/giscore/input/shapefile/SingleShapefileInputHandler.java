@@ -23,20 +23,31 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
@@ -49,6 +60,7 @@ import org.opensextant.geodesy.Latitude;
 import org.opensextant.geodesy.Longitude;
 import org.opensextant.giscore.events.Feature;
 import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.events.IGeometrySource;
 import org.opensextant.giscore.events.Schema;
 import org.opensextant.giscore.geometry.Geometry;
 import org.opensextant.giscore.geometry.Line;
@@ -56,6 +68,7 @@ import org.opensextant.giscore.geometry.LinearRing;
 import org.opensextant.giscore.geometry.MultiLine;
 import org.opensextant.giscore.geometry.MultiPoint;
 import org.opensextant.giscore.geometry.MultiPolygons;
+import org.opensextant.giscore.geometry.PackedPointList;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.geometry.Polygon;
 import org.opensextant.giscore.input.GISInputStreamBase;
@@ -87,6 +100,18 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
     protected static final int MULTINESTEDRINGS_TYPE = 5;  // 5 is Polygon    15 is PolygonZ
     protected static final int MULTIPOINT_TYPE = 8;        // 8 is MultiPoint 18 is MultiPointZ
 
+    /**
+     * Largest region of the shp file that is memory mapped at one time. Files
+     * up to this size are mapped once as a whole, larger files are read through
+     * a window of this size that slides forward as records are consumed.
+     */
+    private static final long MAX_MAPPED_WINDOW = Integer.MAX_VALUE;
+
+    /**
+     * Number of records queued for decoding per thread when decoding in parallel
+     */
+    private static final int TASKS_PER_THREAD = 32;
+
     /*
       * Schema, derived from the read dbf file
       */
@@ -115,6 +140,17 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
      */
     private FileChannel fileChannel;
 
+    /**
+     * Currently mapped region of the shp file, records are sliced out of
+     * this buffer. Only used when reading from a {@code FileChannel}.
+     */
+    private MappedByteBuffer mappedWindow;
+
+    /**
+     * Position in the shp file of the first byte of the mapped window
+     */
+    private long mappedWindowStart;
+
     /**
      * Open shp stream as a channel
      */
@@ -124,8 +160,88 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
      * Ensures that we don't read bytes out of order when reading from an
      * InputStream.
      */
-    private int plainFileOffsetSanity = 0;
+    private long plainFileOffsetSanity = 0;
     
+    /**
+     * Mapped shx index file holding the offset and length of each record, or
+     * {@code null} if there is no index or reading from a stream.
+     */
+    private MappedByteBuffer shxIndex;
+
+    /**
+     * Count of records as given by the shx index, -1 if not known
+     */
+    private int recordCount = -1;
+
+    /**
+     * Zero-based number of the record at the current file offset
+     */
+    private int nextRecordNumber = 0;
+
+    /**
+     * The .qix spatial index file, until it has been read
+     */
+    private File qixFile;
+
+    /**
+     * Spatial index used to find candidate records for the filter bounds
+     */
+    private QuadTreeIndex spatialIndex;
+
+    /**
+     * Use the spatial index when filtering and random access is available
+     */
+    private boolean useSpatialIndex = true;
+
+    /**
+     * Candidate records for the current filter bounds from the spatial index,
+     * in ascending order, and the position of the next one to visit
+     */
+    private int[] candidates;
+    private int candidatePos;
+
+    /**
+     * Bounds used to filter records, <code>null</code> to read all records.
+     * The edges are kept in degrees to test record bounding boxes directly.
+     */
+    private Geodetic2DBounds filterBounds;
+    private double filterWest, filterEast, filterSouth, filterNorth;
+
+    /**
+     * Number of threads decoding geometry, 1 to decode on the calling thread
+     */
+    private int parallelism = 1;
+
+    /**
+     * Return features in file order when decoding in parallel
+     */
+    private boolean preserveOrder = true;
+
+    /**
+     * Attach the raw record to each feature and decode the geometry on first access
+     */
+    private boolean lazyGeometry;
+
+    /**
+     * Pool decoding geometry, created on first parallel read
+     */
+    private ForkJoinPool decoderPool;
+
+    /**
+     * Decoders in file order, used when preserving order
+     */
+    private ArrayDeque<RecordDecoder> pendingDecoders;
+
+    /**
+     * Decoders in order of completion, used when not preserving order
+     */
+    private BlockingQueue<RecordDecoder> completedDecoders;
+
+    /**
+     * Count of decoders submitted whose features have not been returned
+     */
+    private int decodersInFlight;
+
     /**
      * Geometry type for this shapefile
      */
@@ -134,7 +250,7 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
     /**
      * Where we are in the shpFile currently
      */
-    private int fileOffset = 0;
+    private long fileOffset = 0;
 
     /**
      * The total length of the file, used to know if we are at the end of the
@@ -180,7 +296,7 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
             }
             final InputStream dbfStream = otherStreams.get(ShapefileComponent.DBF);
             if(dbfStream != null) {
-                loadDbf(dbfStream, shapefilename);
+                loadDbf(new DbfInputStream(dbfStream, null), shapefilename);
             }
         }
         plainChannel = Channels.newChannel(shpStream);
@@ -216,6 +332,7 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         File dbfFile = new File(inputDirectory, shapefilename + ".dbf");
         File shpFile = new File(inputDirectory, shapefilename + ".shp");
         File prjFile = new File(inputDirectory, shapefilename + ".prj");
+        File shxFile = new File(inputDirectory, shapefilename + ".shx");
 
         if (!shpFile.exists()) {
             throw new IllegalArgumentException(
@@ -226,7 +343,15 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         }
 
         if (dbfFile.exists()) {
-            loadDbf(new FileInputStream(dbfFile), shapefilename);
+            loadDbf(new DbfInputStream(dbfFile, null), shapefilename);
+        }
+
+        if (shxFile.exists()) {
+            loadShx(shxFile);
+            File indexFile = new File(inputDirectory, shapefilename + ".qix");
+            if (indexFile.exists()) {
+                qixFile = indexFile;
+            }
         }
 
         FileInputStream fis = new FileInputStream(shpFile);
@@ -269,8 +394,8 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         }
     }
 
-    private void loadDbf(InputStream stream, String shapefilename) throws IOException {
-        dbf = new DbfInputStream(stream, null);
+    private void loadDbf(DbfInputStream dbfStream, String shapefilename) throws IOException {
+        dbf = dbfStream;
         dbf.setRowClass(Feature.class);
         
         // First thing in the dbf should be a schema
@@ -285,9 +410,41 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         }
     }
     
-    private ByteBuffer readFromChannel(int position, int size) throws IOException {
+    /**
+     * Map the shx index file. The mapping stays valid after the file is closed.
+     *
+     * @param shxFile the index file, must exist
+     * @throws IOException if the index is invalid or an I/O error occurs
+     */
+    private void loadShx(File shxFile) throws IOException {
+        FileInputStream fis = new FileInputStream(shxFile);
+        try {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size < 100 || (size - 100) % 8 != 0) {
+                throw new IOException("Shapefile index has invalid length " + size);
+            }
+            shxIndex = channel.map(MapMode.READ_ONLY, 0, size);
+            if (shxIndex.getInt(0) != SIGNATURE)
+                throw new IOException("Invalid Shapefile index signature");
+            recordCount = (int) ((size - 100) / 8);
+        } finally {
+            IOUtils.closeQuietly(fis);
+        }
+    }
+
+    private ByteBuffer readFromChannel(long position, int size) throws IOException {
         if(fileChannel != null) {
-            return fileChannel.map(MapMode.READ_ONLY, position, size);
+            if (mappedWindow == null || position < mappedWindowStart
+                    || position + size > mappedWindowStart + mappedWindow.capacity()) {
+                mapWindow(position, size);
+            }
+            // Slice the requested record out of the mapped window
+            ByteBuffer ret = mappedWindow.duplicate();
+            int start = (int) (position - mappedWindowStart);
+            ret.limit(start + size);
+            ret.position(start);
+            return ret.slice();
         } else {
             if(position != plainFileOffsetSanity) {
                 throw new AssertionError("Stream reading was not fully sequential, requested: " + position + " furthest seen: " + plainFileOffsetSanity);
@@ -304,6 +461,26 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         }
     }
 
+    /**
+     * Map the region of the shp file that holds the requested bytes. The whole
+     * file is mapped if it fits in a single window, otherwise a window starting
+     * at the requested position is mapped.
+     *
+     * @param position position in the file of the first byte needed
+     * @param size number of bytes needed
+     * @throws IOException if the file is too short or an I/O error occurs
+     */
+    private void mapWindow(long position, int size) throws IOException {
+        long channelSize = fileChannel.size();
+        if (position + size > channelSize) {
+            throw new IOException("Unexpected EOF while reading at: " + position + " len: " + size);
+        }
+        long start = channelSize <= MAX_MAPPED_WINDOW ? 0 : position;
+        long len = Math.min(MAX_MAPPED_WINDOW, channelSize - start);
+        mappedWindow = fileChannel.map(MapMode.READ_ONLY, start, len);
+        mappedWindowStart = start;
+    }
+
     /**
      * Closes this input stream and releases any system resources
      * associated with the stream.
@@ -312,6 +489,10 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
      */
     public void close() {
         IllegalStateException channelCloseException = null;
+        if (decoderPool != null) {
+            decoderPool.shutdownNow();
+            decoderPool = null;
+        }
         if (fileChannel != null) {
             try {
                 fileChannel.close();
@@ -319,7 +500,9 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
                 channelCloseException = new IllegalStateException("Problem closing shp stream", e);
             }
             fileChannel = null;
+            mappedWindow = null;
         }
+        shxIndex = null;
         if (plainChannel != null) {
             try {
                 plainChannel.close();
@@ -352,6 +535,217 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         }
     }
 
+    /**
+     * Set the number of threads used to decode geometry. With a value greater
+     * than one records are still read in file order but their geometry is
+     * decoded on a fork-join pool of that many threads. Must be set before
+     * reading features.
+     *
+     * @param parallelism number of decoding threads, 1 (the default) decodes
+     *                    on the calling thread
+     * @throws IllegalArgumentException if parallelism is less than 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the number of threads used to decode geometry
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * When decoding in parallel, choose whether features are returned in
+     * file order (the default) or as soon as they are decoded.
+     *
+     * @param preserveOrder <code>false</code> to return features in the order
+     *                      decoding completes
+     */
+    public void setPreserveOrder(boolean preserveOrder) {
+        this.preserveOrder = preserveOrder;
+    }
+
+    /**
+     * @return <code>true</code> if features are returned in file order
+     */
+    public boolean isPreserveOrder() {
+        return preserveOrder;
+    }
+
+    /**
+     * Choose whether geometry is decoded when a feature is read (the default)
+     * or when {@link Feature#getGeometry()} is first called. In lazy mode each
+     * feature keeps a reference to its raw shp record, so passes that only use
+     * the attributes never decode geometry. Lazy mode takes precedence over
+     * parallel decoding.
+     *
+     * @param lazyGeometry <code>true</code> to decode geometry on first access
+     */
+    public void setLazyGeometry(boolean lazyGeometry) {
+        this.lazyGeometry = lazyGeometry;
+    }
+
+    /**
+     * @return <code>true</code> if geometry is decoded on first access
+     */
+    public boolean isLazyGeometry() {
+        return lazyGeometry;
+    }
+
+    /**
+     * Restrict the dbf fields that are read to the given names. Unnamed fields
+     * are skipped without being decoded and are left out of the schema.
+     * Must be called before the first feature is read.
+     *
+     * @param fieldNames names of the fields to read, <code>null</code> to read
+     *                   all fields
+     * @throws IllegalArgumentException if a name is not a field of the dbf file
+     * @throws IllegalStateException if a feature has already been read
+     * @see DbfInputStream#setProjection(Collection)
+     */
+    public void setProjection(Collection<String> fieldNames) {
+        if (dbf != null) {
+            dbf.setProjection(fieldNames);
+        } else if (fieldNames != null && !fieldNames.isEmpty()) {
+            throw new IllegalArgumentException("Shapefile has no dbf fields to project");
+        }
+    }
+
+    /**
+     * Share the String instances of repeated values of character fields, see
+     * {@link DbfInputStream#setDictionaryLimit(int)}.
+     *
+     * @param maxEntries maximum number of distinct values per field, 0 (the
+     *                   default) to create a new String for every value
+     * @throws IllegalArgumentException if maxEntries is negative
+     */
+    public void setDictionaryLimit(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        }
+        if (dbf != null) {
+            dbf.setDictionaryLimit(maxEntries);
+        }
+    }
+
+    /**
+     * @return the maximum number of distinct values shared per character
+     *         field, 0 if values are not shared
+     */
+    public int getDictionaryLimit() {
+        return dbf != null ? dbf.getDictionaryLimit() : 0;
+    }
+
+    /**
+     * Set the bounds used to filter features. Records whose bounding box does
+     * not intersect the bounds are skipped after reading just the bounding
+     * box, neither the geometry nor the dbf row is decoded. If random access
+     * is available only the candidate records found by the spatial index
+     * are visited, see {@link #getSpatialIndex()}.
+     *
+     * @param bounds the filter bounds, <code>null</code> to read all features
+     */
+    public void setFilterBounds(Geodetic2DBounds bounds) {
+        filterBounds = bounds;
+        candidates = null;
+        if (bounds != null) {
+            filterWest = bounds.getWestLon().inDegrees();
+            filterEast = bounds.getEastLon().inDegrees();
+            filterSouth = bounds.getSouthLat().inDegrees();
+            filterNorth = bounds.getNorthLat().inDegrees();
+        }
+    }
+
+    /**
+     * @return the filter bounds, <code>null</code> if all features are read
+     */
+    public Geodetic2DBounds getFilterBounds() {
+        return filterBounds;
+    }
+
+    /**
+     * Get the number of records in the shapefile as given by the shx index.
+     *
+     * @return the record count
+     * @throws IllegalStateException if random access is not available
+     */
+    public int getRecordCount() {
+        checkRandomAccess();
+        return recordCount;
+    }
+
+    /**
+     * Position the handler so that the next feature returned by {@link #read()}
+     * is the record with the given zero-based record number (the feature id).
+     * The shp and dbf files are both repositioned. If the schema has not been
+     * read yet it is still returned first.
+     *
+     * @param recordNumber zero-based record number, a value equal to the
+     *                     record count positions the handler at the end
+     * @throws IOException              if an I/O error occurs
+     * @throws IllegalArgumentException if recordNumber is out of range
+     * @throws IllegalStateException    if random access is not available
+     */
+    public void seek(int recordNumber) throws IOException {
+        checkRandomAccess();
+        if (recordNumber < 0 || recordNumber > recordCount) {
+            throw new IllegalArgumentException("Record number out of range: "
+                    + recordNumber);
+        }
+        positionAt(recordNumber);
+        candidates = null;
+        if (decoderPool != null) {
+            resetDecoders();
+        }
+    }
+
+    /**
+     * Read the feature with the given zero-based record number (the feature
+     * id). The filter bounds, if any, do not apply. Sequential reading
+     * continues with the following record.
+     *
+     * @param recordNumber zero-based record number
+     * @return the feature, never {@code null}
+     * @throws IOException              if an I/O error occurs
+     * @throws IllegalArgumentException if recordNumber is out of range
+     * @throws IllegalStateException    if random access is not available
+     */
+    public Feature read(int recordNumber) throws IOException {
+        checkRandomAccess();
+        if (recordNumber < 0 || recordNumber >= recordCount) {
+            throw new IllegalArgumentException("Record number out of range: "
+                    + recordNumber);
+        }
+        seek(recordNumber);
+        return readNext(false);
+    }
+
+    /**
+     * Random access needs the shx index and a file based shp.
+     *
+     * @throws IllegalStateException if random access is not available
+     */
+    private void checkRandomAccess() {
+        if (shxIndex == null || fileChannel == null) {
+            throw new IllegalStateException(
+                    "Random access requires a file based shapefile with a .shx index");
+        }
+    }
+
+    /**
+     * @param recordNumber zero-based record number
+     * @return the offset in bytes of the record in the shp file
+     */
+    private long getRecordOffset(int recordNumber) {
+        // Offsets are stored big endian in 16 bit words
+        return 2L * (shxIndex.getInt(100 + 8 * recordNumber) & 0xffffffffL);
+    }
+
     /**
      * Read the next feature from the shapefile. A shapefile will contain a
      * uniform set of geometry features.
@@ -360,43 +754,425 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
      * @throws IOException              if an I/O error occurs
      */
     private IGISObject readNext() throws IOException {
-        if (fileOffset >= (2 * fileLength)) return null;
+        if (parallelism > 1 && !lazyGeometry) {
+            return readParallel();
+        }
+        return readNext(filterBounds != null);
+    }
+
+    /**
+     * Read the next feature from the shapefile, optionally skipping over
+     * records that fall outside the filter bounds.
+     *
+     * @param applyFilter if <code>true</code> skip records whose bounding box
+     *                    does not intersect the filter bounds
+     * @return the next feature or <code>null</code> if we are done.
+     * @throws IOException              if an I/O error occurs
+     */
+    private Feature readNext(boolean applyFilter) throws IOException {
+        ByteBuffer buffer = nextRecordContent(applyFilter);
+        if (buffer == null) return null;
+        Feature f = nextRow();
+        if (f != null) {
+            if (lazyGeometry) {
+                f.setGeometrySource(new RecordGeometry(buffer, nextRecordNumber - 1));
+            } else {
+                f.setGeometry(getGeometry(buffer, is3D(shpType), isM(shpType)));
+            }
+        }
+        return f;
+    }
+
+    /**
+     * Find the content of the next record, optionally skipping over records
+     * (and their dbf rows) that fall outside the filter bounds.
+     *
+     * @param applyFilter if <code>true</code> skip records whose bounding box
+     *                    does not intersect the filter bounds
+     * @return buffer holding the record content or <code>null</code> if we are done.
+     * @throws IOException              if an I/O error occurs
+     */
+    private ByteBuffer nextRecordContent(boolean applyFilter) throws IOException {
+        if (applyFilter && useSpatialIndex && shxIndex != null && fileChannel != null) {
+            return nextCandidateContent();
+        }
+        while (fileOffset < (2L * fileLength)) {
+            ByteBuffer buffer = readRecordContent();
+            if (!applyFilter || intersectsFilter(buffer)) {
+                return buffer;
+            }
+            // Skip the matching dbf row without decoding it
+            if (dbf != null && !dbf.skipRecord()) return null;
+        }
+        return null;
+    }
 
-        Feature f;
+    /**
+     * Find the content of the next record that intersects the filter bounds,
+     * only visiting the candidate records found by the spatial index.
+     *
+     * @return buffer holding the record content or <code>null</code> if we are done.
+     * @throws IOException              if an I/O error occurs
+     */
+    private ByteBuffer nextCandidateContent() throws IOException {
+        if (candidates == null) {
+            candidates = queryIndex(getSpatialIndex());
+            candidatePos = 0;
+            while (candidatePos < candidates.length && candidates[candidatePos] < nextRecordNumber) {
+                candidatePos++;
+            }
+        }
+        while (candidatePos < candidates.length && fileOffset < (2L * fileLength)) {
+            int id = candidates[candidatePos++];
+            if (id >= recordCount) break;
+            positionAt(id);
+            ByteBuffer buffer = readRecordContent();
+            if (intersectsFilter(buffer)) {
+                return buffer;
+            }
+        }
+        positionAt(recordCount);
+        return null;
+    }
+
+    /**
+     * Query the spatial index with the filter bounds, splitting the query in
+     * two if the filter crosses the anti-meridian.
+     *
+     * @param index the spatial index
+     * @return candidate record numbers in ascending order
+     */
+    private int[] queryIndex(QuadTreeIndex index) {
+        if (filterWest <= filterEast) {
+            return index.query(filterWest, filterSouth, filterEast, filterNorth);
+        }
+        int[] east = index.query(filterWest, filterSouth, 180.0, filterNorth);
+        int[] west = index.query(-180.0, filterSouth, filterEast, filterNorth);
+        SortedSet<Integer> merged = new TreeSet<Integer>();
+        for (int id : east) merged.add(id);
+        for (int id : west) merged.add(id);
+        int[] rval = new int[merged.size()];
+        int i = 0;
+        for (Integer id : merged) rval[i++] = id;
+        return rval;
+    }
+
+    /**
+     * Position the shp and dbf at the given record.
+     *
+     * @param recordNumber zero-based record number, a value equal to the
+     *                     record count positions the handler at the end
+     * @throws IOException              if an I/O error occurs
+     */
+    private void positionAt(int recordNumber) throws IOException {
+        fileOffset = recordNumber == recordCount ? 2L * fileLength
+                : getRecordOffset(recordNumber);
+        nextRecordNumber = recordNumber;
         if (dbf != null) {
-            f = (Feature) dbf.read();
+            dbf.seek(recordNumber);
+        }
+    }
+
+    /**
+     * Get the spatial index used to answer filter queries. The index is read
+     * from the .qix file if there is one, otherwise it is built from the
+     * bounding boxes of the records and kept for later queries.
+     *
+     * @return the spatial index, never <code>null</code>
+     * @throws IOException              if an I/O error occurs
+     * @throws IllegalStateException    if random access is not available
+     */
+    public QuadTreeIndex getSpatialIndex() throws IOException {
+        checkRandomAccess();
+        if (spatialIndex == null && qixFile != null) {
+            try {
+                QuadTreeIndex index = QuadTreeIndex.read(qixFile);
+                if (index.getShapeCount() == recordCount) {
+                    spatialIndex = index;
+                } else {
+                    logger.warn("Ignoring spatial index " + qixFile
+                            + " that does not match the record count");
+                }
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable spatial index " + qixFile, e);
+            }
+            qixFile = null;
+        }
+        if (spatialIndex == null) {
+            spatialIndex = buildSpatialIndex();
+        }
+        return spatialIndex;
+    }
+
+    /**
+     * Set the spatial index used to answer filter queries, for instance one
+     * kept from an earlier handler on the same shapefile.
+     *
+     * @param index the spatial index, <code>null</code> to read or build it
+     *              again when needed
+     * @throws IllegalArgumentException if the index does not match the record count
+     */
+    public void setSpatialIndex(QuadTreeIndex index) {
+        if (index != null && index.getShapeCount() != recordCount) {
+            throw new IllegalArgumentException("Spatial index does not match the record count");
+        }
+        spatialIndex = index;
+        candidates = null;
+    }
+
+    /**
+     * Choose whether filtering by bounds uses a spatial index, which is the
+     * default when random access is available. Otherwise every record's
+     * bounding box is checked in turn.
+     *
+     * @param useSpatialIndex <code>false</code> to scan all records
+     */
+    public void setUseSpatialIndex(boolean useSpatialIndex) {
+        this.useSpatialIndex = useSpatialIndex;
+        candidates = null;
+    }
+
+    /**
+     * Build the spatial index by reading just the bounding box of each record.
+     *
+     * @return the spatial index
+     * @throws IOException              if an I/O error occurs
+     */
+    private QuadTreeIndex buildSpatialIndex() throws IOException {
+        double[] bounds = new double[recordCount * 4];
+        for (int i = 0; i < recordCount; i++) {
+            int contentLen = 2 * shxIndex.getInt(104 + 8 * i);
+            ByteBuffer buffer = readFromChannel(getRecordOffset(i) + 8, Math.min(contentLen, 36));
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int recShapeType = buffer.getInt(0);
+            int j = i * 4;
+            if (recShapeType == NULL_TYPE) {
+                Arrays.fill(bounds, j, j + 4, Double.NaN);
+                continue;
+            }
+            bounds[j] = buffer.getDouble(4);
+            bounds[j + 1] = buffer.getDouble(12);
+            int st = is3D(recShapeType) ? recShapeType - 10 : recShapeType;
+            if (st == POINT_TYPE) {
+                bounds[j + 2] = bounds[j];
+                bounds[j + 3] = bounds[j + 1];
+            } else {
+                bounds[j + 2] = buffer.getDouble(20);
+                bounds[j + 3] = buffer.getDouble(28);
+            }
+        }
+        return QuadTreeIndex.create(bounds, recordCount);
+    }
+
+    /**
+     * @return the feature holding the next dbf row, an empty feature if there
+     *         is no dbf, or <code>null</code> if the dbf is exhausted
+     * @throws IOException              if an I/O error occurs
+     */
+    private Feature nextRow() throws IOException {
+        return dbf != null ? (Feature) dbf.read() : new Feature();
+    }
+
+    /**
+     * Read the next feature with geometry decoded on the worker pool. Records
+     * are sliced from the shp and dbf rows are read on the calling thread while
+     * the geometry of up to {@link #TASKS_PER_THREAD} records per thread
+     * is decoded concurrently.
+     *
+     * @return the next feature or <code>null</code> if we are done.
+     * @throws IOException              if an I/O error occurs
+     */
+    private Feature readParallel() throws IOException {
+        if (decoderPool == null) {
+            decoderPool = new ForkJoinPool(parallelism);
+            resetDecoders();
+        }
+        fillDecoders();
+        if (decodersInFlight == 0) return null;
+        RecordDecoder decoder;
+        if (preserveOrder) {
+            decoder = pendingDecoders.removeFirst();
+            decoder.join();
         } else {
-            f = new Feature();
+            try {
+                decoder = completedDecoders.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for decoded feature");
+            }
         }
-        boolean is3D = is3D(shpType);
-        boolean includeM = isM(shpType);
-        if (f != null) {
-            Geometry geo = getGeometry(is3D, includeM);
-            f.setGeometry(geo);
+        decodersInFlight--;
+        if (decoder.error instanceof IOException) {
+            throw (IOException) decoder.error;
+        } else if (decoder.error != null) {
+            throw (RuntimeException) decoder.error;
         }
-        return f;
+        return decoder.feature;
     }
 
     /**
-     * Read the next Geometry Object and validate type. Return null at valid EOF.
+     * Submit decoders for the following records until enough are in flight
+     * or the end of the shapefile is reached.
      *
-     * @param is3D
-     * @param includeM
-     * @return
      * @throws IOException              if an I/O error occurs
      */
-    private Geometry getGeometry(boolean is3D, boolean includeM)
-            throws IOException {
+    private void fillDecoders() throws IOException {
+        int maxInFlight = parallelism * TASKS_PER_THREAD;
+        boolean applyFilter = filterBounds != null;
+        while (decodersInFlight < maxInFlight) {
+            ByteBuffer buffer = nextRecordContent(applyFilter);
+            if (buffer == null) return;
+            Feature f = nextRow();
+            if (f == null) {
+                fileOffset = 2L * fileLength; // dbf exhausted, nothing more to read
+                return;
+            }
+            RecordDecoder decoder = new RecordDecoder(f, buffer,
+                    preserveOrder ? null : completedDecoders);
+            if (preserveOrder) pendingDecoders.add(decoder);
+            decoderPool.execute(decoder);
+            decodersInFlight++;
+        }
+    }
+
+    /**
+     * Forget any decoders in flight, used when the read position changes.
+     * Decoders still running complete into queues that are no longer read.
+     */
+    private void resetDecoders() {
+        pendingDecoders = new ArrayDeque<RecordDecoder>();
+        completedDecoders = new LinkedBlockingQueue<RecordDecoder>();
+        decodersInFlight = 0;
+    }
+
+    /**
+     * Decodes the geometry of a record the first time the feature's geometry
+     * is requested.
+     */
+    private final class RecordGeometry implements IGeometrySource {
+        private final ByteBuffer buffer;
+        private final int recordNumber;
+
+        /**
+         * @param buffer       the record content
+         * @param recordNumber zero-based record number, used in errors
+         */
+        RecordGeometry(ByteBuffer buffer, int recordNumber) {
+            this.buffer = buffer;
+            this.recordNumber = recordNumber;
+        }
+
+        public Geometry createGeometry() {
+            try {
+                return getGeometry(buffer, is3D(shpType), isM(shpType));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to decode the geometry of shapefile record "
+                        + recordNumber + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Decodes the geometry of a single record into its feature on the
+     * worker pool.
+     */
+    private final class RecordDecoder extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Feature feature;
+        private final ByteBuffer buffer;
+        private final BlockingQueue<RecordDecoder> completed;
+        /**
+         * IOException or RuntimeException thrown by the decoding, rethrown
+         * as is so that errors match those of sequential reading
+         */
+        private Exception error;
+
+        RecordDecoder(Feature feature, ByteBuffer buffer,
+                BlockingQueue<RecordDecoder> completed) {
+            this.feature = feature;
+            this.buffer = buffer;
+            this.completed = completed;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                feature.setGeometry(getGeometry(buffer, is3D(shpType), isM(shpType)));
+            } catch (IOException | RuntimeException e) {
+                error = e;
+            }
+            if (completed != null) {
+                completed.add(this);
+            }
+        }
+    }
+
+    /**
+     * Read the content of the next record and advance to the following one.
+     *
+     * @return buffer holding the record content, starting with the shape type
+     * @throws IOException              if an I/O error occurs
+     */
+    private ByteBuffer readRecordContent() throws IOException {
         // EOF is OK if it occurs here, otherwise we'll throw the exception to caller
         ByteBuffer buffer = readFromChannel(fileOffset, 8);
         int num = readInt(buffer, ByteOrder.BIG_ENDIAN);
         int contentLen = readInt(buffer, ByteOrder.BIG_ENDIAN); // In 16 bit words
-        int nextFilePos = 2 * (contentLen + 4) + fileOffset;
+        long nextFilePos = 2L * (contentLen + 4) + fileOffset;
         if (contentLen <= 4)
             throw new IOException("Shapefile contains badly formatted record");
-        Geometry geomObj = null;
         int recLen = contentLen * 2;
         buffer = readFromChannel(fileOffset + 8, recLen);
+        fileOffset = nextFilePos; // Reposition for next call
+        nextRecordNumber++;
+        return buffer;
+    }
+
+    /**
+     * Check the bounding box of a record against the filter bounds. Only the
+     * record's bounding box (or the point itself for point records) is
+     * read, the buffer position is left unchanged.
+     *
+     * @param buffer record content starting with the shape type
+     * @return <code>true</code> if the record intersects the filter bounds,
+     *         null shapes never do
+     */
+    private boolean intersectsFilter(ByteBuffer buffer) {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int recShapeType = buffer.getInt(0);
+        if (recShapeType == NULL_TYPE) return false;
+        double xMin = buffer.getDouble(4);
+        double yMin = buffer.getDouble(12);
+        double xMax, yMax;
+        int st = is3D(recShapeType) ? recShapeType - 10 : recShapeType;
+        if (st == POINT_TYPE) {
+            xMax = xMin;
+            yMax = yMin;
+        } else {
+            xMax = buffer.getDouble(20);
+            yMax = buffer.getDouble(28);
+        }
+        if (yMax < filterSouth || yMin > filterNorth) return false;
+        if (filterWest <= filterEast) {
+            return xMax >= filterWest && xMin <= filterEast;
+        }
+        // Filter crosses the anti-meridian
+        return xMax >= filterWest || xMin <= filterEast;
+    }
+
+    /**
+     * Decode the geometry of a record and validate type.
+     *
+     * @param buffer record content starting with the shape type
+     * @param is3D
+     * @param includeM
+     * @return the geometry, <code>null</code> for a null shape
+     * @throws IOException              if an I/O error occurs
+     */
+    private Geometry getGeometry(ByteBuffer buffer, boolean is3D, boolean includeM)
+            throws IOException {
+        Geometry geomObj = null;
         int recShapeType = readInt(buffer, ByteOrder.LITTLE_ENDIAN);
         if (recShapeType != NULL_TYPE) {
             if (recShapeType != shpType)
@@ -420,7 +1196,6 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
                             shpType + ") that is currently unsupported");
             }
         }
-        fileOffset = nextFilePos; // Reposition for next call
         return geomObj;
     }
 
@@ -550,40 +1325,32 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         return parts;
     }
 
-    // Read PolyLine and Polygon point values and return Geodetic point array
+    // Read PolyLine and Polygon point values and return them as a packed point list,
+    // Point objects are only created if the caller asks for them
     // throws IllegalArgumentException error if units or value are out of range
-    private Geodetic2DPoint[] getPolyPoints(ByteBuffer buffer, int nPoints, boolean is3D, boolean includeM) {
-        Geodetic2DPoint[] pts;
-        // Read the X and Y points into arrays
+    private PackedPointList getPolyPoints(ByteBuffer buffer, int nPoints, boolean is3D, boolean includeM) {
+        // Read the X and Y points into arrays of radians, validated as Longitude
+        // and Latitude would
         double[] x = new double[nPoints];
         double[] y = new double[nPoints];
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
         for (int i = 0; i < nPoints; i++) {
-            x[i] = readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // Longitude
-            y[i] = readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // Latitude
+            x[i] = PackedPointList.toLongitudeRadians(buffer.getDouble());
+            y[i] = PackedPointList.toLatitudeRadians(buffer.getDouble());
         }
         // If 3D, read the Z bounds + values and skip over rest of record (M bounds and values)
+        double[] z = null;
         if (is3D) {
             readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // skip Zmin
             readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // skip Zmax
-            double[] z = new double[nPoints];
+            z = new double[nPoints];
             try {
                 for (int i = 0; i < nPoints; i++) {
-                    z[i] = readDouble(buffer, ByteOrder.LITTLE_ENDIAN);
+                    z[i] = buffer.getDouble();
                 }
             } catch (BufferUnderflowException bfe) {
                 logger.warn("Found too few z-values, the rest will be taken as 0.0");
             }
-            // Convert x, y, and z values into Geodetic points, ignoring the m values
-            pts = new Geodetic3DPoint[nPoints];
-            for (int i = 0; i < nPoints; i++)
-                pts[i] = new Geodetic3DPoint(new Longitude(x[i], Angle.DEGREES),
-                        new Latitude(y[i], Angle.DEGREES), z[i]);
-        } else {
-            // Convert x and y values into Geodetic points
-            pts = new Geodetic2DPoint[nPoints];
-            for (int i = 0; i < nPoints; i++)
-                pts[i] = new Geodetic2DPoint(new Longitude(x[i], Angle.DEGREES),
-                        new Latitude(y[i], Angle.DEGREES));
         }
         // Do the following just to get the spanning right, we ignore the m 
         // values
@@ -592,13 +1359,13 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
                 readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // skip Mmin
                 readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // skip Mmax
                 for (int i = 0; i < nPoints; i++) {
-                    readDouble(buffer, ByteOrder.LITTLE_ENDIAN); // skip measured vals
+                    buffer.getDouble(); // skip measured vals
                 }
             } catch (BufferUnderflowException bfe) {
                 logger.warn("Found too few m-values, but they were being ignored anyway");
             }
         }
-        return pts;
+        return new PackedPointList(x, y, z, 0, nPoints);
     }
 
     // Read next MultiLine (ESRI Polyline or PolylineZ) record
@@ -608,15 +1375,11 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         int nParts = readInt(buffer, ByteOrder.LITTLE_ENDIAN);
         int nPoints = readInt(buffer, ByteOrder.LITTLE_ENDIAN);  // total numPoints
         int[] parts = getPartOffsets(buffer, nParts, nPoints);
-        Geodetic2DPoint[] pts = getPolyPoints(buffer, nPoints, is3D, includeM);
-        ArrayList<Line> lnList = new ArrayList<Line>();
-        // Collect up the Geodetic points into the line parts
-        int k = 0; // point index
+        PackedPointList pts = getPolyPoints(buffer, nPoints, is3D, includeM);
+        ArrayList<Line> lnList = new ArrayList<Line>(nParts);
+        // Split the points into the line parts
         for (int j = 1; j <= nParts; j++) {
-            ArrayList<Point> ptList = new ArrayList<Point>();
-            int n = parts[j] - parts[j - 1];
-            for (int i = 0; i < n; i++) ptList.add(new Point(pts[k++]));
-            lnList.add(new Line(ptList));
+            lnList.add(new Line(pts.subList(parts[j - 1], parts[j])));
         }
         if (lnList.size() == 1)
             return lnList.get(0);
@@ -643,56 +1406,77 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         int nParts = readInt(buffer, ByteOrder.LITTLE_ENDIAN);
         int nPoints = readInt(buffer, ByteOrder.LITTLE_ENDIAN);  // total numPoints
         int[] parts = getPartOffsets(buffer, nParts, nPoints);
-        Geodetic2DPoint[] pts = getPolyPoints(buffer, nPoints, is3D, includeM);
+        PackedPointList pts = getPolyPoints(buffer, nPoints, is3D, includeM);
         // Shapefiles allow multiple outer rings intermixed with multiple inner rings
         // Our MultiLinearRings Object requires 1 outer and 0 or more inner.  We'll assume
         // inner rings follow their outer ring, and use direction as a list delimiter.
+        // The bounds of each part (xmin, ymin, xmax, ymax in radians) are kept so
+        // that only outer rings whose bounds enclose a ring are tested for containment.
+        double[] bounds = new double[4 * nParts];
         ArrayList<PolyHolder> polyholders = new ArrayList<PolyHolder>();
+        int[] holderParts = new int[nParts];
         ArrayList<LinearRing> savedRings = new ArrayList<LinearRing>();
+        int[] savedParts = new int[nParts];
         int k = 0; // point index
-        for (int j = 1; j <= nParts; j++) {
-            ArrayList<Point> ptList = new ArrayList<Point>();
-            int n = parts[j] - parts[j - 1];
-            for (int i = 0; i < n; i++) ptList.add(new Point(pts[k++]));
-            LinearRing r = new LinearRing(ptList);
-            if (r.clockwise()) {
+        for (int j = 0; j < nParts; j++) {
+            int n = parts[j + 1] - parts[j];
+            // Compute the bounds and orientation (same test as LinearRing.clockwise)
+            // from the packed coordinates
+            double xMin = Double.MAX_VALUE, yMin = Double.MAX_VALUE;
+            double xMax = -Double.MAX_VALUE, yMax = -Double.MAX_VALUE;
+            double doubleArea = 0.0;
+            double x0 = 0, y0 = 0, px = 0, py = 0;
+            for (int i = 0; i < n; i++) {
+                double x = pts.getLongitudeRadians(k);
+                double y = pts.getLatitudeRadians(k++);
+                if (i == 0) {
+                    x0 = x;
+                    y0 = y;
+                } else {
+                    doubleArea += px * y - py * x;
+                }
+                if (x < xMin) xMin = x;
+                if (x > xMax) xMax = x;
+                if (y < yMin) yMin = y;
+                if (y > yMax) yMax = y;
+                px = x;
+                py = y;
+            }
+            // closing segment, contributes nothing if the ring is already closed
+            doubleArea += px * y0 - py * x0;
+            bounds[4 * j] = xMin;
+            bounds[4 * j + 1] = yMin;
+            bounds[4 * j + 2] = xMax;
+            bounds[4 * j + 3] = yMax;
+            LinearRing r = new LinearRing(pts.subList(parts[j], parts[j + 1]));
+            if (doubleArea < 0) {
                 PolyHolder newPoly = new PolyHolder();
                 newPoly.setOuterRing(r);
+                holderParts[polyholders.size()] = j;
                 polyholders.add(newPoly);
             } else {
                 // Find a holder that has the given inner in its bounds
-                boolean found = false;
-                for (PolyHolder holder : polyholders) {
-                    LinearRing outer = holder.getOuterRing();
-                    if (outer.contains(r)) {
-                        holder.addInnerRing(r);
-                        found = true;
-                        break;
-                    }
-                }
-                if (found == false) {
+                PolyHolder holder = findHolder(polyholders, holderParts, bounds, j, r);
+                if (holder != null) {
+                    holder.addInnerRing(r);
+                } else {
+                    savedParts[savedRings.size()] = j;
                     savedRings.add(r);
                 }
             }
         }
         ArrayList<Polygon> polyList = new ArrayList<Polygon>();
         // Address all the saved rings
-        for (LinearRing saved : savedRings) {
+        for (int i = 0; i < savedRings.size(); i++) {
+            LinearRing saved = savedRings.get(i);
             // Find a holder that has the given inner in its bounds
-            boolean found = false;
-            for (PolyHolder holder : polyholders) {
-                LinearRing outer = holder.getOuterRing();
-                if (outer.contains(saved)) {
-                    holder.addInnerRing(saved);
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
+            PolyHolder holder = findHolder(polyholders, holderParts, bounds, savedParts[i], saved);
+            if (holder != null) {
+                holder.addInnerRing(saved);
+            } else {
                 // If we don't find something then we'll treat the ring as a
                 // poly itself
-                List<Point> rpts = new ArrayList<Point>();
-                rpts.addAll(saved.getPoints());
+                List<Point> rpts = new ArrayList<Point>(saved.getPoints());
                 Collections.reverse(rpts);
                 Polygon poly = new Polygon(new LinearRing(rpts));
                 polyList.add(poly);
@@ -701,15 +1485,16 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         // Decide what to do. If we have one object we should return a single
         // polygon or ring. Otherwise we return a multipolygons
         if ((polyholders.size() + polyList.size()) > 1) {
-            // Make polygons from holders and create
+            // Make polygons from holders and create, the rings were classified
+            // by orientation so outer rings are clockwise and inner rings are not
             for (PolyHolder holder : polyholders) {
-                polyList.add(holder.toPolygon());
+                polyList.add(holder.toPolygon(false));
             }
             return new MultiPolygons(polyList);
         } else if ((polyholders.size() + polyList.size()) == 1) {
             Polygon poly;
             if (polyholders.size() > 0) {
-                poly = polyholders.get(0).toPolygon();
+                poly = polyholders.get(0).toPolygon(false);
             } else {
                 poly = polyList.get(0);
             }
@@ -723,17 +1508,43 @@ public class SingleShapefileInputHandler extends GISInputStreamBase {
         }
     }
 
+    /**
+     * Find the first holder whose outer ring contains the given ring. Outer
+     * rings whose bounds do not enclose the bounds of the ring are skipped
+     * without the (expensive) segment by segment containment test.
+     *
+     * @param polyholders the holders in part order
+     * @param holderParts the part index of each holder's outer ring
+     * @param bounds      xmin, ymin, xmax, ymax of each part
+     * @param part        the part index of the ring
+     * @param ring        the ring
+     * @return the holder or <code>null</code> if no outer ring contains the ring
+     */
+    private static PolyHolder findHolder(List<PolyHolder> polyholders, int[] holderParts,
+                                         double[] bounds, int part, LinearRing ring) {
+        int i = 4 * part;
+        for (int h = 0; h < polyholders.size(); h++) {
+            int o = 4 * holderParts[h];
+            if (bounds[o] <= bounds[i] && bounds[o + 1] <= bounds[i + 1]
+                    && bounds[o + 2] >= bounds[i + 2] && bounds[o + 3] >= bounds[i + 3]) {
+                PolyHolder holder = polyholders.get(h);
+                if (holder.getOuterRing().contains(ring)) {
+                    return holder;
+                }
+            }
+        }
+        return null;
+    }
+
     // Read next MultiPoint (ESRI MultiPoint or MultiPointZ) record
     // throws IllegalArgumentException error if units or value are out of range
     private Geometry getMultipoint(ByteBuffer buffer, boolean is3D, boolean includeM) {
         int nPoints = readInt(buffer, ByteOrder.LITTLE_ENDIAN);  // total numPoints
-        Geodetic2DPoint[] pts = getPolyPoints(buffer, nPoints, is3D, includeM);
-        ArrayList<Point> ptList = new ArrayList<Point>();
-        for (int i = 0; i < nPoints; i++) ptList.add(new Point(pts[i]));
-        if (ptList.size() == 1)
-            return ptList.get(0);
+        PackedPointList pts = getPolyPoints(buffer, nPoints, is3D, includeM);
+        if (pts.size() == 1)
+            return pts.get(0);
         else
-            return new MultiPoint(ptList);
+            return new MultiPoint(pts);
     }
 
     /**
@@ -159,26 +159,8 @@ public class FeatureSorter {
 					"row should never be null");
 		}
 		try {
-			Class<? extends Geometry> geoclass = null;
-			Geometry g = null;
-			Schema s = getSchema(row);
-			if (s.getOidField() == null) {
-				s.put(oid);
-			}
-			String styleid = null;
-			if (row instanceof Feature) {
-				Feature feature = (Feature) row;
-				if (feature.getGeometry() != null) {
-					g = feature.getGeometry();
-					geoclass = feature.getGeometry().getClass();
-				}
-				if (splitOnStyle && feature.getStyleUrl() != null 
-						&& feature.getStyleUrl().startsWith("#")) {
-					styleid = feature.getStyleUrl().substring(1);
-				}
-			}
-			FeatureKey key = new FeatureKey(s, path, geoclass, row.getClass());
-			if (styleid != null) key.setStyleRef(styleid);
+			FeatureKey key = getKey(row, path);
+			Geometry g = row instanceof Feature ? ((Feature) row).getGeometry() : null;
 			ObjectBuffer buffer;
 			if (!key.equals(currentKey)) {
 				currentKey = key;
@@ -209,6 +191,41 @@ public class FeatureSorter {
 		}
 	}
 
+	/**
+	 * Get the key of the bin that a row belongs to without storing the row.
+	 * The row's schema is resolved and gets an OID field as for
+	 * {@link #add(Row, String)}.
+	 *
+	 * @param row  the row, never <code>null</code>
+	 * @param path the container path of the row, may be <code>null</code>
+	 * @return the key, never <code>null</code>
+	 */
+	public FeatureKey getKey(Row row, String path) {
+		if (row == null) {
+			throw new IllegalArgumentException(
+					"row should never be null");
+		}
+		Class<? extends Geometry> geoclass = null;
+		Schema s = getSchema(row);
+		if (s.getOidField() == null) {
+			s.put(oid);
+		}
+		String styleid = null;
+		if (row instanceof Feature) {
+			Feature feature = (Feature) row;
+			if (feature.getGeometry() != null) {
+				geoclass = feature.getGeometry().getClass();
+			}
+			if (splitOnStyle && feature.getStyleUrl() != null
+					&& feature.getStyleUrl().startsWith("#")) {
+				styleid = feature.getStyleUrl().substring(1);
+			}
+		}
+		FeatureKey key = new FeatureKey(s, path, geoclass, row.getClass());
+		if (styleid != null) key.setStyleRef(styleid);
+		return key;
+	}
+
 	/**
 	 * A row may either have a reference to a known schema or data that is
 	 * not governed by a schema. The assumption here is that the extended data
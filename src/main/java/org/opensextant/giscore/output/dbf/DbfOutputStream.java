@@ -21,9 +21,14 @@ package org.opensextant.giscore.output.dbf;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
 
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
@@ -58,6 +63,40 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
 
     private static final String US_ASCII = "US-ASCII";
     private static final byte[] blankpad = new byte[255];
+
+    /*
+     * How the value of a field is written, see writeRecord
+     */
+    private static final int STRING_FIELD = 0;
+    private static final int DECIMAL_FIELD = 1;
+    private static final int INT_FIELD = 2;
+    private static final int SHORT_FIELD = 3;
+    private static final int LONG_FIELD = 4;
+    private static final int DATE_FIELD = 5;
+    private static final int BOOL_FIELD = 6;
+    private static final int OTHER_FIELD = 7;
+
+    /**
+     * Decimals are written without DecimalFormat if their digits, scaled to
+     * an integer, stay below this bound so the scaling is exact enough to
+     * find the digits DecimalFormat would write.
+     */
+    private static final double MAX_SCALED_DECIMAL = 1L << 50;
+
+    /**
+     * Most fraction digits written by the decimal format
+     */
+    private static final int MAX_FRACTION_DIGITS = 16;
+
+    private static final double[] POWERS_OF_TEN = new double[MAX_FRACTION_DIGITS + 1];
+
+    /**
+     * 1582-10-15, the Gregorian cutover of the calendar used by the date
+     * format. Earlier dates, and dates past year 9999, use the date format.
+     */
+    private static final long MIN_FAST_DATE = -12219292800000L;
+    private static final long MAX_FAST_DATE = 253402300800000L;
+    private static final long MILLIS_PER_DAY = 86400000L;
     private final DateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
     private final DecimalFormat decimalFormat = new DecimalFormat(
             "+###############0.################;-###############0.################");
@@ -74,6 +113,11 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         for (int i = 0; i < blankpad.length; i++) {
             blankpad[i] = ' ';
         }
+        double p = 1.0;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = p;
+            p *= 10.0;
+        }
     }
 
     /**
@@ -99,7 +143,48 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
     private int numRecords = 0;
 
     /**
-     * Ctor
+     * Channel of the output file when rows are written as they arrive,
+     * <code>null</code> when rows are buffered until the stream is closed.
+     * The date and record count in the header are patched through the
+     * channel on close.
+     */
+    private FileChannel channel;
+
+    /**
+     * Position of the start of the dbf in the channel
+     */
+    private long headerPosition;
+
+    /**
+     * Length of a record, 0 until computed from the schema
+     */
+    private short recordLength;
+
+    /*
+     * Plan for writing the records, built from the schema with the header:
+     * the fields in order, the kind of each field's value and the width of
+     * each field in bytes
+     */
+    private SimpleField[] planFields;
+    private int[] fieldKinds;
+    private int[] fieldWidths;
+
+    /**
+     * Reused buffer that a record is assembled in before it is written
+     */
+    private byte[] record;
+
+    /**
+     * Reused buffer for the characters of a formatted number
+     */
+    private final byte[] digits = new byte[40];
+
+    /**
+     * Ctor. If the output stream is a file the header is written once the
+     * schema arrives and the rows as they arrive, the record count is
+     * patched in the header when the stream is closed. Otherwise the rows
+     * are buffered until the stream is closed since the header that
+     * precedes them holds their count.
      *
      * @param outputStream the output stream
      * @param arguments    the optional arguments, none are defined for this stream
@@ -112,8 +197,15 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
             throw new IllegalArgumentException(
                     "outputStream should never be null");
         }
-        stream = new BinaryOutputStream(outputStream);
-        this.buffer = new FieldCachingObjectBuffer();
+        if (outputStream instanceof FileOutputStream) {
+            channel = ((FileOutputStream) outputStream).getChannel();
+            headerPosition = channel.position();
+            this.buffer = null;
+        } else {
+            this.buffer = new FieldCachingObjectBuffer();
+        }
+        // records are written one at a time, batch them for the output
+        stream = new BinaryOutputStream(new BufferedOutputStream(outputStream));
 
         // Write the xBaseFile signature (should be 0x03 for dBase III)
         stream.writeByte(SIGNATURE);
@@ -135,13 +227,45 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         }
         this.schema = schema;
         this.buffer = buffer;
-        stream = new BinaryOutputStream(outputStream);
+        // records are written one at a time, batch them for the output
+        stream = new BinaryOutputStream(new BufferedOutputStream(outputStream));
         numRecords = (int) buffer.count();
 
         // Write the xBaseFile signature (should be 0x03 for dBase III)
         stream.writeByte(SIGNATURE);
     }
 
+    /**
+     * Ctor for writing rows to a file as they arrive instead of buffering them
+     * until the stream is closed. The header is written immediately with a
+     * record count of zero, which is patched when the stream is closed.
+     *
+     * @param channel the channel of the output file, the dbf is written from
+     *                the current position. Closed when this stream is closed.
+     * @param schema  the schema, never <code>null</code>
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalArgumentException if channel or schema is null
+     */
+    public DbfOutputStream(FileChannel channel, Schema schema)
+            throws IOException {
+        if (channel == null) {
+            throw new IllegalArgumentException("channel should never be null");
+        }
+        if (schema == null) {
+            throw new IllegalArgumentException("schema should never be null");
+        }
+        this.schema = schema;
+        this.buffer = null;
+        this.channel = channel;
+        headerPosition = channel.position();
+        stream = new BinaryOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel)));
+
+        // Write the xBaseFile signature (should be 0x03 for dBase III)
+        stream.writeByte(SIGNATURE);
+        writeHeader(0);
+    }
+
     /**
      * Write GISObject object to DBF
      *
@@ -152,6 +276,13 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         if (object instanceof Schema) {
             if (schema == null) {
                 schema = (Schema) object;
+                if (channel != null) {
+                    try {
+                        writeHeader(0);
+                    } catch (IOException e) {
+                        log.error("", e);
+                    }
+                }
             } else {
                 throw new IllegalStateException(
                         "Dbf can only handle one set of column definitions");
@@ -165,9 +296,30 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         }
     }
 
-    private void writeRow(Row object) throws IOException {
+    /**
+     * Write a row, written immediately if this stream was created on a file
+     * with a schema and buffered until the stream is closed otherwise.
+     * Unlike {@link #write(IGISObject)} errors are thrown to the caller.
+     *
+     * @param row the row, never <code>null</code>
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if the stream is closed, or if the row
+     *                               is written to a file before the schema
+     */
+    public void writeRow(Row row) throws IOException {
+        if (stream == null) {
+            throw new IllegalStateException("Stream is closed");
+        }
+        if (channel != null && planFields == null) {
+            throw new IllegalStateException(
+                    "May not write dbf without a schema");
+        }
         numRecords++;
-        buffer.write(object);
+        if (channel != null) {
+            writeRecord(row);
+        } else {
+            buffer.write(row);
+        }
     }
 
     /**
@@ -179,41 +331,33 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
     public void close() throws IOException {
         if (stream != null) {
             try {
+                if (channel != null) {
+                    if (planFields == null) {
+                        // no schema arrived, fails as without a channel
+                        writeHeader(numRecords);
+                    }
+                    // rows are written, patch the date and record count
+                    stream.flush();
+                    ByteBuffer patch = ByteBuffer.allocate(7);
+                    patch.order(ByteOrder.LITTLE_ENDIAN);
+                    putToday(patch);
+                    patch.putInt(numRecords);
+                    patch.flip();
+                    channel.write(patch, headerPosition + 1);
+                    return;
+                }
                 if (buffer.count() > Integer.MAX_VALUE) {
                     throw new IllegalStateException(
                             "Trying to persist too many elements to DBF file, only 2^32 - 1 are allowed");
                 }
-
-                // Write today's date as the date of last update (3 byte binary YY
-                // MM DD
-                // format)
-                String today = dateFormat.format(new Date(System
-                        .currentTimeMillis()));
-                // 2 digit year is written with Y2K +1900 assumption so add 100
-                // since
-                // we're past 2000
-                stream.write(100 + Byte.parseByte(today.substring(2, 4)));
-                for (int i = 4; i <= 6; i += 2)
-                    stream.write(Byte.parseByte(today.substring(i, i + 2)));
-
-                // Write record count (offset 0x4), header length (based on number of fields),
-                // and
-                // record length
-                stream.writeInt((int) buffer.count(), ByteOrder.LITTLE_ENDIAN);
-                stream.writeShort((short) ((schema.getKeys().size() * 32) + 33),
-                        ByteOrder.LITTLE_ENDIAN);
-                stream.writeShort(getRecordLength(), ByteOrder.LITTLE_ENDIAN);
-
-                // Fill in reserved and unused header fields we don't care about
-                // with
-                // zeros
-                for (int k = 0; k < 20; k++)
-                    stream.writeByte(NUL);
-
-                byte len[] = outputHeader();
+                writeHeader((int) buffer.count());
 
                 try {
-                    outputRows(len);
+                    Row row = (Row) buffer.read();
+                    while (row != null) {
+                        writeRecord(row);
+                        row = (Row) buffer.read();
+                    }
                 } catch (ClassNotFoundException e) {
                     throw new IllegalStateException(e);
                 } catch (InstantiationException e) {
@@ -221,19 +365,133 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
                 } catch (IllegalAccessException e) {
                     throw new IllegalStateException(e);
                 }
+                stream.flush();
             } finally {
                 IOUtils.closeQuietly(stream);
                 stream = null;
+                channel = null;
+            }
+        }
+    }
+
+    /**
+     * Write the header following the signature: the date of last update,
+     * record count, header and record length, and the field descriptors.
+     *
+     * @param count the record count
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeHeader(int count) throws IOException {
+        ByteBuffer date = ByteBuffer.allocate(3);
+        putToday(date);
+        stream.write(date.array());
+
+        // Write record count (offset 0x4), header length (based on number of fields),
+        // and
+        // record length
+        stream.writeInt(count, ByteOrder.LITTLE_ENDIAN);
+        stream.writeShort((short) ((schema.getKeys().size() * 32) + 33),
+                ByteOrder.LITTLE_ENDIAN);
+        stream.writeShort(getRecordLength(), ByteOrder.LITTLE_ENDIAN);
+
+        // Fill in reserved and unused header fields we don't care about
+        // with
+        // zeros
+        for (int k = 0; k < 20; k++)
+            stream.writeByte(NUL);
+
+        byte[] lengths = outputHeader();
+        buildPlan(lengths);
+    }
+
+    /**
+     * Decide once per field how its values are written so writing a record
+     * need not examine the field types again.
+     *
+     * @param lengths the field lengths as written in the header
+     */
+    private void buildPlan(byte[] lengths) {
+        int count = lengths.length;
+        planFields = new SimpleField[count];
+        fieldKinds = new int[count];
+        fieldWidths = new int[count];
+        int recordLength = 1; // Marker byte for deleted records
+        int i = 0;
+        for (SimpleField field : schema.getFields()) {
+            Type ft = field.getType();
+            int kind;
+            if (Type.STRING.equals(ft)) {
+                kind = STRING_FIELD;
+            } else if (Type.DOUBLE.equals(ft) || Type.FLOAT.equals(ft)) {
+                kind = DECIMAL_FIELD;
+            } else if (Type.INT.equals(ft) || Type.UINT.equals(ft)) {
+                kind = INT_FIELD;
+            } else if (Type.SHORT.equals(ft) || Type.USHORT.equals(ft)) {
+                kind = SHORT_FIELD;
+            } else if (Type.LONG.equals(ft) || Type.OID.equals(ft)) {
+                kind = LONG_FIELD;
+            } else if (Type.DATE.equals(ft)) {
+                kind = DATE_FIELD;
+            } else if (Type.BOOL.equals(ft)) {
+                kind = BOOL_FIELD;
+            } else {
+                kind = OTHER_FIELD;
             }
+            planFields[i] = field;
+            fieldKinds[i] = kind;
+            fieldWidths[i] = lengths[i] & 0xff;
+            recordLength += fieldWidths[i];
+            i++;
+        }
+        record = new byte[recordLength];
+    }
+
+    /**
+     * Put today's date as the date of last update (3 byte binary YY MM DD
+     * format)
+     *
+     * @param buf the buffer to put the date in
+     */
+    private void putToday(ByteBuffer buf) {
+        String today = dateFormat.format(new Date(System
+                .currentTimeMillis()));
+        // 2 digit year is written with Y2K +1900 assumption so add 100
+        // since
+        // we're past 2000
+        buf.put((byte) (100 + Byte.parseByte(today.substring(2, 4))));
+        for (int i = 4; i <= 6; i += 2)
+            buf.put(Byte.parseByte(today.substring(i, i + 2)));
+    }
+
+    /**
+     * @return the size in bytes of the dbf holding the rows written so far
+     * @throws IllegalStateException if the schema is not known yet
+     */
+    public long getSize() {
+        if (schema == null) {
+            throw new IllegalStateException("Schema is not known yet");
         }
+        return (schema.getKeys().size() * 32) + 33
+                + (long) numRecords * getRecordLength();
     }
 
-    private short getRecordLength() {
+    /**
+     * @return the length in bytes of a record, including the deleted marker
+     * @throws IllegalStateException if the schema is not known yet
+     */
+    public short getRecordLength() {
+        if (schema == null) {
+            throw new IllegalStateException("Schema is not known yet");
+        }
+        if (recordLength != 0) {
+            return recordLength;
+        }
         short rval = 1; // Marker byte for deleted records
         for (String fieldname : schema.getKeys()) {
             SimpleField field = schema.get(fieldname);
             rval += getFieldLength(field);
         }
+        recordLength = rval;
         return rval;
     }
 
@@ -287,125 +545,313 @@ public class DbfOutputStream implements IGISOutputStream, IDbfConstants {
         return fieldlen;
     }
 
-    private void outputRows(byte len[]) throws ClassNotFoundException,
-            IOException, InstantiationException, IllegalAccessException {
-        Row row = (Row) buffer.read();
-
-        while (row != null) {
-            stream.writeByte(' ');
-            int i = 0;
-            for (SimpleField field : schema.getFields()) {
-                short length = (short) len[i++];
-                if (length < 0) length += 256;
-                Type ft = field.getType();
-                if (Type.STRING.equals(field.getType())) {
-                    String data = getString(row.getData(field));
-                    writeStringField(stream, data, length);
-                } else if (Type.DOUBLE.equals(ft) || Type.FLOAT.equals(ft)) {
-                    Number data = getNumber(row.getData(field));
-                    if (data == null)
-                        writeField(stream, "", length);
-                    else {
-                        double number = data.doubleValue();
-                        String decimalString = decimalFormat.format(number);
-                        if (decimalString.length() > 34) {
-                            // value would be truncated - use numeric exponent format (e.g. 1.2e+308)
-                            decimalString = doubleExpFormat(number);
-                        }
-                        writeField(stream, decimalString, 34);
+    /**
+     * Write a single record. The record is assembled in the record buffer
+     * following the plan and written at once. Numbers and dates are
+     * formatted to bytes directly where that gives the same text as the
+     * formats, which are kept for the remaining values.
+     *
+     * @param row the row holding the record's data
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeRecord(Row row) throws IOException {
+        byte[] rec = record;
+        rec[0] = ' ';
+        int pos = 1;
+        for (int i = 0; i < planFields.length; i++) {
+            int width = fieldWidths[i];
+            Object value = row.getData(planFields[i]);
+            switch (fieldKinds[i]) {
+                case STRING_FIELD:
+                    putString(rec, pos, width, getString(value), false);
+                    break;
+                case DECIMAL_FIELD: {
+                    Number data = getNumber(value);
+                    if (data == null) {
+                        putBlanks(rec, pos, width);
+                    } else {
+                        putDecimal(rec, pos, width, data.doubleValue());
                     }
-                } else if (Type.INT.equals(ft) || Type.UINT.equals(ft)) {
-                    Number data = getNumber(row.getData(field));
-                    if (data != null) {
-                        int val = data.intValue();
-                        writeField(stream, Integer.toString(val), 10);
+                    break;
+                }
+                case INT_FIELD: {
+                    Number data = getNumber(value);
+                    if (data == null) {
+                        putBlanks(rec, pos, width);
                     } else {
-                        writeField(stream, "", 10);
+                        putNumber(rec, pos, width, formatLong(data.intValue()));
                     }
-                } else if (Type.SHORT.equals(ft) || Type.USHORT.equals(ft)) {
-                    Number data = getNumber(row.getData(field));
-                    if (data != null) {
-                        short val = data.shortValue();
-                        writeField(stream, Short.toString(val), 6);
+                    break;
+                }
+                case SHORT_FIELD: {
+                    Number data = getNumber(value);
+                    if (data == null) {
+                        putBlanks(rec, pos, width);
                     } else {
-                        writeField(stream, "", 6);
+                        putNumber(rec, pos, width, formatLong(data.shortValue()));
                     }
-                } else if (Type.LONG.equals(ft) || Type.OID.equals(ft)) {
-                    Number data = getNumber(row.getData(field));
+                    break;
+                }
+                case LONG_FIELD: {
+                    Number data = getNumber(value);
                     if (data == null) {
                         // some DBF implementations also interpret values starting with '*' as null
-                        writeField(stream, "", length);
+                        putBlanks(rec, pos, width);
                     } else {
-                        writeField(stream, Long.toString(data.longValue()), length);
+                        putNumber(rec, pos, width, formatLong(data.longValue()));
                     }
-                } else if (Type.DATE.equals(ft)) {
-                    Date data = getDate(row.getData(field));
+                    break;
+                }
+                case DATE_FIELD: {
+                    Date data = getDate(value);
                     // NOTE: dates stored as string (8-bytes) in the format (YYYYMMDD)
                     // and timestamp if any is discarded.
-                    if (data != null) {
-                        writeStringField(stream, dateFormat.format(data), 8);
-                    } else {
-                        writeStringField(stream, "", 8);
+                    if (data == null) {
+                        putBlanks(rec, pos, width);
+                    } else if (!putDate(rec, pos, data.getTime())) {
+                        putString(rec, pos, width, dateFormat.format(data), false);
                     }
-                } else if (Type.BOOL.equals(ft)) {
-                    Boolean bool = getBoolean(row.getData(field));
-                    if (bool == null)
-                        writeStringField(stream, "?", 1);
-                    else if (bool)
-                        writeStringField(stream, "T", 1);
-                    else
-                        writeStringField(stream, "F", 1);
-                } else {
-                    String data = getString(row.getData(field));
-                    writeField(stream, data, 32);
+                    break;
+                }
+                case BOOL_FIELD: {
+                    Boolean bool = getBoolean(value);
+                    rec[pos] = bool == null ? (byte) '?' : bool ? (byte) 'T' : (byte) 'F';
+                    break;
                 }
+                default:
+                    putString(rec, pos, width, getString(value), true);
             }
-            row = (Row) buffer.read();
+            pos += width;
         }
+        stream.write(rec, 0, pos);
     }
 
     /**
-     * Write the field data, truncating at the field length
+     * Put a decimal right-justified in the field as the decimal format would
+     * write it, with the exponent format for values too long for the field.
      *
-     * @param stream the stream
-     * @param data   the string to write, may be more or less than the field
-     *               length. This will be converted to ascii
-     * @param length the field length
+     * @param rec    the record buffer
+     * @param pos    offset of the field in the record
+     * @param width  the field width
+     * @param number the value
      * @throws IOException if an error occurs
      */
-    private void writeField(BinaryOutputStream stream, String data, int length)
+    private void putDecimal(byte[] rec, int pos, int width, double number)
             throws IOException {
-        byte str[] = data.getBytes(US_ASCII);
-        if (str.length < length) {
+        int len = formatDecimal(number);
+        if (len >= 0) {
+            putNumber(rec, pos, width, len);
+            return;
+        }
+        String decimalString = decimalFormat.format(number);
+        if (decimalString.length() > 34) {
+            // value would be truncated - use numeric exponent format (e.g. 1.2e+308)
+            decimalString = doubleExpFormat(number);
+        }
+        putString(rec, pos, width, decimalString, true);
+    }
+
+    /**
+     * Format a decimal into the digits buffer the way the decimal format
+     * does: a sign, the integer digits and, if the value has a fraction, a
+     * point and the fewest fraction digits that read back as the value.
+     * Values where that digit string cannot be found exactly are left to the
+     * decimal format.
+     *
+     * @param number the value
+     * @return the number of characters, or -1 if the value is not handled
+     */
+    private int formatDecimal(double number) {
+        if (Double.isNaN(number) || Double.isInfinite(number)) {
+            return -1;
+        }
+        double a = Math.abs(number);
+        // the decimal format writes a sign for negative zero as well
+        boolean negative = Double.doubleToRawLongBits(number) < 0;
+        for (int scale = 0; scale <= MAX_FRACTION_DIGITS; scale++) {
+            double scaled = a * POWERS_OF_TEN[scale];
+            if (scaled >= MAX_SCALED_DECIMAL) {
+                return -1;
+            }
+            double m = Math.rint(scaled);
+            if (m / POWERS_OF_TEN[scale] == a) {
+                // the digits read back as the value, make sure no other
+                // digits with this scale would
+                if (Math.ulp(a) * POWERS_OF_TEN[scale] >= 0.25) {
+                    return -1;
+                }
+                digits[0] = negative ? (byte) '-' : (byte) '+';
+                return formatDigits(-(long) m, 1, scale);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Format an integer into the digits buffer as Long.toString would.
+     *
+     * @param value the value
+     * @return the number of characters
+     */
+    private int formatLong(long value) {
+        if (value >= 0) {
+            // Long.MIN_VALUE has no positive counterpart, digits are
+            // produced from the negated value instead
+            return formatDigits(-value, 0, 0);
+        }
+        digits[0] = '-';
+        return formatDigits(value, 1, 0);
+    }
+
+    /**
+     * Write the digits of a value into the digits buffer.
+     *
+     * @param negated the value negated, never positive
+     * @param start   index of the first digit
+     * @param scale   the number of digits following an implied decimal point,
+     *                written with a point and at least one integer digit
+     * @return index following the last digit
+     */
+    private int formatDigits(long negated, int start, int scale) {
+        int count = 0;
+        long q = negated;
+        do {
+            count++;
+            q /= 10;
+        } while (q != 0);
+        if (scale > 0) {
+            count = Math.max(count, scale + 1) + 1;
+        }
+        int end = start + count;
+        int i = end;
+        q = negated;
+        for (int k = 0; k < scale; k++) {
+            digits[--i] = (byte) ('0' - q % 10);
+            q /= 10;
+        }
+        if (scale > 0) {
+            digits[--i] = '.';
+        }
+        do {
+            digits[--i] = (byte) ('0' - q % 10);
+            q /= 10;
+        } while (i > start);
+        return end;
+    }
+
+    /**
+     * Put the digits buffer right-justified in the field, truncated to the
+     * field width
+     *
+     * @param rec   the record buffer
+     * @param pos   offset of the field in the record
+     * @param width the field width
+     * @param len   the number of characters in the digits buffer
+     */
+    private void putNumber(byte[] rec, int pos, int width, int len) {
+        if (len < width) {
             // Numeric fields are right-justified and padded with blanks to width of field in Shape DBF files
-            stream.write(blankpad, 0, length - str.length);
-            stream.write(str, 0, str.length);
+            putBlanks(rec, pos, width - len);
+            System.arraycopy(digits, 0, rec, pos + width - len, len);
         } else {
-            if (str.length > length) {
-                log.trace("Value truncated - value too large for field: {} maxlen={}", data, length);
+            if (len > width) {
+                log.trace("Value truncated - value too large for field: {} maxlen={}",
+                        new String(digits, 0, len), width);
             }
-            stream.write(str, 0, length);
+            System.arraycopy(digits, 0, rec, pos, width);
         }
     }
 
+    private static void putBlanks(byte[] rec, int pos, int count) {
+        System.arraycopy(blankpad, 0, rec, pos, count);
+    }
+
     /**
-     * Write String field data, truncating value at the field length
+     * Put a date as YYYYMMDD in UTC, computed from the time for dates from
+     * the Gregorian cutover through year 9999, where the result is the same
+     * as the date format's
      *
-     * @param stream the stream
-     * @param data   the string to write, may be more or less than the field
-     *               length. This will be converted to ascii
-     * @param length the field length
+     * @param rec  the record buffer
+     * @param pos  offset of the field in the record
+     * @param time the date's time in milliseconds
+     * @return <code>false</code> if the date is out of that range and nothing
+     *         was put
+     */
+    private static boolean putDate(byte[] rec, int pos, long time) {
+        if (time < MIN_FAST_DATE || time >= MAX_FAST_DATE) {
+            return false;
+        }
+        long days = time / MILLIS_PER_DAY;
+        if (time % MILLIS_PER_DAY < 0) {
+            days--;
+        }
+        // civil date from days since 1970-01-01 in 400 year eras starting
+        // on March 1st so the leap day ends each year
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int day = doy - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+        rec[pos] = (byte) ('0' + year / 1000);
+        rec[pos + 1] = (byte) ('0' + year / 100 % 10);
+        rec[pos + 2] = (byte) ('0' + year / 10 % 10);
+        rec[pos + 3] = (byte) ('0' + year % 10);
+        rec[pos + 4] = (byte) ('0' + month / 10);
+        rec[pos + 5] = (byte) ('0' + month % 10);
+        rec[pos + 6] = (byte) ('0' + day / 10);
+        rec[pos + 7] = (byte) ('0' + day % 10);
+        return true;
+    }
+
+    /**
+     * Put string data in the field, truncating the value at the field width
+     *
+     * @param rec   the record buffer
+     * @param pos   offset of the field in the record
+     * @param width the field width
+     * @param data  the string to put, may be more or less than the field
+     *              width. This will be converted to ascii
+     * @param right <code>true</code> to right-justify the value as for
+     *              numbers, strings are left-justified
      * @throws IOException if an error occurs
      */
-    private void writeStringField(BinaryOutputStream stream, String data, int length)
-            throws IOException {
-        byte str[] = data.getBytes(US_ASCII);
-        if (str.length < length) {
-            // String fields are left-justified and padded with blanks to width of field in Shape DBF files
-            stream.write(str, 0, str.length);
-            stream.write(blankpad, 0, length - str.length);
+    private static void putString(byte[] rec, int pos, int width, String data,
+                                  boolean right) throws IOException {
+        int len = data.length();
+        for (int i = 0; i < len; i++) {
+            if (data.charAt(i) >= 0x80) {
+                // let the charset replace characters that are not ascii
+                byte[] str = data.getBytes(US_ASCII);
+                putBytes(rec, pos, width, str, str.length, right);
+                return;
+            }
+        }
+        int n = Math.min(len, width);
+        int at = right && len < width ? pos + width - len : pos;
+        for (int i = 0; i < n; i++) {
+            rec[at + i] = (byte) data.charAt(i);
+        }
+        if (len < width) {
+            putBlanks(rec, right ? pos : pos + len, width - len);
+        }
+    }
+
+    private static void putBytes(byte[] rec, int pos, int width, byte[] str,
+                                 int len, boolean right) {
+        if (len < width) {
+            if (right) {
+                putBlanks(rec, pos, width - len);
+                System.arraycopy(str, 0, rec, pos + width - len, len);
+            } else {
+                System.arraycopy(str, 0, rec, pos, len);
+                putBlanks(rec, pos + len, width - len);
+            }
         } else {
-            stream.write(str, 0, length);
+            System.arraycopy(str, 0, rec, pos, width);
         }
     }
 
@@ -2,14 +2,22 @@ package org.opensextant.giscore.output.shapefile;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EmptyStackException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipOutputStream;
 
 import org.apache.commons.lang.StringUtils;
@@ -27,6 +35,7 @@ import org.opensextant.giscore.output.IContainerNameStrategy;
 import org.opensextant.giscore.output.IGISOutputStream;
 import org.opensextant.giscore.output.gdb.BasicContainerNameStrategy;
 import org.opensextant.giscore.utils.Args;
+import org.opensextant.giscore.utils.ICancelable;
 import org.opensextant.giscore.utils.ObjectBuffer;
 import org.opensextant.giscore.utils.ZipUtils;
 import org.slf4j.Logger;
@@ -92,6 +101,45 @@ public class ShapefileOutputStream extends ShapefileBaseClass implements IGISOut
 	 */
 	private final PointShapeMapper mapper;
 
+	/**
+	 * Write a quadtree spatial index (.qix) for each shapefile
+	 */
+	private boolean writeSpatialIndex;
+
+	/**
+	 * Write the records of each shapefile as the features arrive instead of
+	 * buffering the features until the stream is closed
+	 */
+	private boolean streaming;
+
+	/**
+	 * Size in bytes at which each shapefile is split into parts
+	 */
+	private long maxPartSize = SingleShapefileOutputHandler.MAX_PART_SIZE;
+
+	/**
+	 * Write the shapefiles straight into the zip output stream instead of
+	 * writing files to the output path and zipping those
+	 */
+	private boolean directZip;
+
+	/**
+	 * Number of shapefiles generated concurrently when the stream is closed
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Optional callback checked while the shapefiles are generated
+	 */
+	private ICancelable cancelable;
+
+	/**
+	 * The open streaming handlers by feature key, in the order the keys
+	 * were first seen
+	 */
+	private final Map<FeatureKey, SingleShapefileOutputHandler> handlers =
+			new LinkedHashMap<FeatureKey, SingleShapefileOutputHandler>();
+
     /**
      * Ctor
      *
@@ -142,6 +190,142 @@ public class ShapefileOutputStream extends ShapefileBaseClass implements IGISOut
         this.mapper = mapper != null ? mapper : new PointShapeMapper();
     }
 	
+	/**
+	 * @return <code>true</code> if a quadtree spatial index (.qix) is written
+	 *         for each shapefile
+	 */
+	public boolean isWriteSpatialIndex() {
+		return writeSpatialIndex;
+	}
+
+	/**
+	 * Choose whether to write a quadtree spatial index (.qix) for each
+	 * shapefile. Must be set before the stream is closed.
+	 *
+	 * @param writeSpatialIndex <code>true</code> to write the index
+	 */
+	public void setWriteSpatialIndex(boolean writeSpatialIndex) {
+		this.writeSpatialIndex = writeSpatialIndex;
+	}
+
+	/**
+	 * @return <code>true</code> if shapefile records are written as the
+	 *         features arrive
+	 */
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Choose whether to write the shapefile records as the features arrive.
+	 * By default features are buffered and each shapefile is written when the
+	 * stream is closed. When streaming, the shp, shx and dbf files of a
+	 * schema, path and geometry type combination are opened with its first
+	 * feature and their headers are completed on close, so features are
+	 * never buffered and memory use stays flat. Streaming suits input whose
+	 * schemata are written before the features that use them, since the dbf
+	 * columns are fixed when a shapefile is opened. Must be set before the
+	 * first feature is written.
+	 *
+	 * @param streaming <code>true</code> to write records as features arrive
+	 * @throws IllegalStateException if features have already been written
+	 */
+	public void setStreaming(boolean streaming) {
+		if (!handlers.isEmpty() || !sorter.keys().isEmpty()) {
+			throw new IllegalStateException(
+					"Streaming must be chosen before features are written");
+		}
+		this.streaming = streaming;
+	}
+
+	/**
+	 * @return the size in bytes at which each shapefile is split into parts
+	 */
+	public long getMaxPartSize() {
+		return maxPartSize;
+	}
+
+	/**
+	 * Set the size at which each shapefile is split into numbered parts,
+	 * e.g. <code>name_001.shp</code>, so no shp, shx or dbf file exceeds
+	 * it. Must be set before the first feature is written.
+	 *
+	 * @param maxPartSize the size in bytes, defaults to and may not exceed
+	 *                    {@link SingleShapefileOutputHandler#MAX_PART_SIZE}
+	 * @throws IllegalArgumentException if maxPartSize is out of range
+	 * @see SingleShapefileOutputHandler#setMaxPartSize(long)
+	 */
+	public void setMaxPartSize(long maxPartSize) {
+		if (maxPartSize <= 100 || maxPartSize > SingleShapefileOutputHandler.MAX_PART_SIZE) {
+			throw new IllegalArgumentException("maxPartSize must be between 100 and "
+					+ SingleShapefileOutputHandler.MAX_PART_SIZE + " bytes");
+		}
+		this.maxPartSize = maxPartSize;
+	}
+
+	/**
+	 * @return <code>true</code> if the shapefiles are written straight into
+	 *         the zip output stream
+	 */
+	public boolean isDirectZip() {
+		return directZip;
+	}
+
+	/**
+	 * Choose whether the shapefiles are written straight into the zip output
+	 * stream given to the ctor. By default the shapefiles are written to
+	 * files in the output path and the files are then copied into the zip.
+	 * Writing directly skips the files, and the disk I/O to write and read
+	 * them back, which leaves only the zip as output. The shapefiles are
+	 * then written one at a time regardless of the parallelism, and each is
+	 * only added once complete, so one that fails is logged and left out of
+	 * the zip while the others are still written. Streamed
+	 * shapefiles are always written to files. Has no effect without a zip
+	 * output stream.
+	 *
+	 * @param directZip <code>true</code> to write directly to the zip
+	 */
+	public void setDirectZip(boolean directZip) {
+		this.directZip = directZip;
+	}
+
+	/**
+	 * @return the number of shapefiles generated concurrently on close
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Set the number of shapefiles generated concurrently when the stream is
+	 * closed. Each schema, path and geometry type combination produces an
+	 * independent shapefile so they can be written on separate threads.
+	 * The zip output, if any, is assembled once all shapefiles are written.
+	 * Ignored when writing directly to the zip output.
+	 *
+	 * @param parallelism number of threads, 1 (the default) writes the
+	 *                    shapefiles one at a time
+	 * @throws IllegalArgumentException if parallelism is less than 1
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Set a callback to cancel generating the shapefiles on close. Once
+	 * the callback reports cancellation the shapefiles being written stop,
+	 * the remaining ones are not started and close throws a
+	 * CancellationException.
+	 *
+	 * @param cancelable the callback, may be <code>null</code>
+	 */
+	public void setCancelable(ICancelable cancelable) {
+		this.cancelable = cancelable;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -155,37 +339,184 @@ public class ShapefileOutputStream extends ShapefileBaseClass implements IGISOut
 
 	@Override
 	public void close() throws IOException {
+		// streamed shapefiles are on disk already, zip them as before
+		boolean direct = directZip && outputStream != null && handlers.isEmpty();
+		for (Map.Entry<FeatureKey, SingleShapefileOutputHandler> entry : handlers.entrySet()) {
+			try {
+				SingleShapefileOutputHandler soh = entry.getValue();
+				soh.setStyle(getStyle(entry.getKey()));
+				soh.close();
+			} catch (Exception e) {
+				logger.error("Problem reifying data from stream",e);
+			}
+		}
+		handlers.clear();
+		// names are derived up front since the strategy need not be thread safe
+		List<SingleShapefileOutputHandler> layers = new ArrayList<SingleShapefileOutputHandler>();
 		for(FeatureKey key : sorter.keys()) {
 			ObjectBuffer buffer = sorter.getBuffer(key);
-			String pathstr = key.getPath();
-            List<String> path;
-            if (pathstr == null) path = Collections.emptyList();
-            else {
-                String pieces[] = pathstr.split("_");
-                path = Arrays.asList(pieces);
-            }
 			try {
-				String cname = containerNameStrategy.deriveContainerName(path, key);
-				Style style = null;
-				if (key.getStyleRef() != null) {
-					String id = key.getStyleRef();
-					if (styleMappings.get(id) != null) {
-						id = styleMappings.get(id);
-					}
-					style = styles.get(id);
-				}
-				SingleShapefileOutputHandler soh = 
-					new SingleShapefileOutputHandler(key.getSchema(), style, buffer, outputPath, cname, mapper);
-				soh.process();
+				String cname = getContainerName(key);
+				Style style = getStyle(key);
+				SingleShapefileOutputHandler soh = direct
+					? new SingleShapefileOutputHandler(key.getSchema(), style, buffer, cname, mapper)
+					: new SingleShapefileOutputHandler(key.getSchema(), style, buffer, outputPath, cname, mapper);
+				soh.setWriteSpatialIndex(writeSpatialIndex);
+				soh.setMaxPartSize(maxPartSize);
+				layers.add(soh);
 			} catch (Exception e) {
 				logger.error("Problem reifying data from stream",e);
 			}
 		}
-		sorter.cleanup();
+		try {
+			if (direct) {
+				for (SingleShapefileOutputHandler soh : layers) {
+					processLayer(soh, outputPath.getName());
+				}
+				return;
+			}
+			if (parallelism > 1 && layers.size() > 1) {
+				processConcurrently(layers);
+			} else {
+				for (SingleShapefileOutputHandler soh : layers) {
+					processLayer(soh);
+				}
+			}
+		} finally {
+			sorter.cleanup();
+		}
         if (outputStream != null)
 		    ZipUtils.outputZipComponents(outputPath.getName(), outputPath, outputStream);
 	}
 
+	/**
+	 * Write one shapefile straight into the zip output stream, logging any
+	 * problem so the other shapefiles are still written.
+	 *
+	 * @param soh    the handler
+	 * @param prefix path prefix of the zip entries
+	 * @throws CancellationException if the cancelable callback cancels
+	 */
+	private void processLayer(SingleShapefileOutputHandler soh, String prefix) {
+		if (cancelable != null && cancelable.isCanceled()) {
+			throw new CancellationException();
+		}
+		try {
+			soh.process(outputStream, prefix, cancelable);
+		} catch (CancellationException e) {
+			throw e;
+		} catch (Exception e) {
+			logger.error("Problem reifying data from stream",e);
+		}
+	}
+
+	/**
+	 * Write one shapefile, logging any problem so the other shapefiles are
+	 * still written.
+	 *
+	 * @param soh the handler
+	 * @throws CancellationException if the cancelable callback cancels
+	 */
+	private void processLayer(SingleShapefileOutputHandler soh) {
+		if (cancelable != null && cancelable.isCanceled()) {
+			throw new CancellationException();
+		}
+		try {
+			soh.process(cancelable);
+		} catch (CancellationException e) {
+			throw e;
+		} catch (Exception e) {
+			logger.error("Problem reifying data from stream",e);
+		}
+	}
+
+	/**
+	 * Write the shapefiles on a pool of {@link #parallelism} threads and wait
+	 * for all of them to finish.
+	 *
+	 * @param layers the handlers
+	 * @throws IOException if interrupted while waiting or if writing a
+	 *                     shapefile fails with an unexpected Throwable,
+	 *                     Errors are rethrown as is
+	 * @throws CancellationException if the cancelable callback cancels
+	 */
+	private void processConcurrently(List<SingleShapefileOutputHandler> layers)
+			throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(
+				Math.min(parallelism, layers.size()));
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>(layers.size());
+			for (final SingleShapefileOutputHandler soh : layers) {
+				results.add(pool.submit(new Runnable() {
+					public void run() {
+						processLayer(soh);
+					}
+				}));
+			}
+			boolean canceled = false;
+			Throwable failure = null;
+			for (Future<?> result : results) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof CancellationException) {
+						canceled = true;
+					} else if (failure == null) {
+						failure = cause;
+					}
+				}
+			}
+			if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+			if (failure != null) {
+				throw new IOException("Problem writing shapefiles", failure);
+			}
+			if (canceled) {
+				throw new CancellationException();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted writing shapefiles");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Derive the name of the shapefile for a feature key from its path
+	 *
+	 * @param key the feature key
+	 * @return the name
+	 */
+	private String getContainerName(FeatureKey key) {
+		String pathstr = key.getPath();
+		List<String> path;
+		if (pathstr == null) path = Collections.emptyList();
+		else {
+			String pieces[] = pathstr.split("_");
+			path = Arrays.asList(pieces);
+		}
+		return containerNameStrategy.deriveContainerName(path, key);
+	}
+
+	/**
+	 * @param key the feature key
+	 * @return the style referenced by the key, following style maps, or
+	 *         <code>null</code>
+	 */
+	private Style getStyle(FeatureKey key) {
+		if (key.getStyleRef() == null) {
+			return null;
+		}
+		String id = key.getStyleRef();
+		if (styleMappings.get(id) != null) {
+			id = styleMappings.get(id);
+		}
+		return styles.get(id);
+	}
+
 	/**
 	 * @exception  EmptyStackException  if <code>ContainerEnd</code> did not have a preceding <code>ContainerStart</code>
 	 */
@@ -229,7 +560,25 @@ public class ShapefileOutputStream extends ShapefileBaseClass implements IGISOut
 		// Skip non-geometry features
 		if (feature.getGeometry() == null) return;
 		String fullpath = path != null ? StringUtils.join(path, '_') : null;
-		FeatureKey key = sorter.add(feature, fullpath);
+		FeatureKey key;
+		if (streaming) {
+			key = sorter.getKey(feature, fullpath);
+			SingleShapefileOutputHandler soh = handlers.get(key);
+			try {
+				if (soh == null) {
+					soh = new SingleShapefileOutputHandler(key.getSchema(), null,
+							outputPath, getContainerName(key), mapper);
+					soh.setWriteSpatialIndex(writeSpatialIndex);
+					soh.setMaxPartSize(maxPartSize);
+					handlers.put(key, soh);
+				}
+				soh.write(feature);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		} else {
+			key = sorter.add(feature, fullpath);
+		}
 		if (datasets.get(key) == null) {
 			StringBuilder setname = new StringBuilder();
 			setname.append(fullpath);
@@ -18,6 +18,7 @@
  ***************************************************************************************/
 package org.opensextant.giscore.output.shapefile;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -28,18 +29,24 @@ import java.net.URL;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CancellationException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.opensextant.geodesy.Geodetic2DBounds;
 import org.opensextant.geodesy.Geodetic2DPoint;
 import org.opensextant.geodesy.Geodetic3DBounds;
@@ -58,6 +65,7 @@ import org.opensextant.giscore.geometry.MultiPoint;
 import org.opensextant.giscore.geometry.MultiPolygons;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.geometry.Polygon;
+import org.opensextant.giscore.input.shapefile.QuadTreeIndex;
 import org.opensextant.giscore.output.dbf.DbfOutputStream;
 import org.opensextant.giscore.utils.Color;
 import org.opensextant.giscore.utils.ICancelable;
@@ -94,6 +102,34 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	private static final Logger logger = LoggerFactory.getLogger(SingleShapefileOutputHandler.class);
 
 	private static final int VERSION = 1000;
+
+	/**
+	 * Size of the shp staging buffer in bytes
+	 */
+	private static final int SHP_STAGE_SIZE = 512 * 1024;
+
+	/**
+	 * Size of the shx staging buffer in bytes, a multiple of the 8 byte
+	 * index record
+	 */
+	private static final int SHX_STAGE_SIZE = 64 * 1024;
+
+	/**
+	 * Length of the shp and shx headers in bytes
+	 */
+	private static final int HEADER_LENGTH = 100;
+
+	/**
+	 * Bytes of shp or shx records held in memory when writing to a zip
+	 * before they are spilled to a temporary file
+	 */
+	private static final int SPILL_THRESHOLD = 8 * 1024 * 1024;
+
+	/**
+	 * Largest size of a shp, shx or dbf file in bytes. The shp offsets would
+	 * allow twice this size but many readers use signed 32 bit offsets.
+	 */
+	public static final long MAX_PART_SIZE = Integer.MAX_VALUE;
 	private static final String WGS84prj = "GEOGCS[\"GCS_WGS_1984\"," +
 			"DATUM[\"D_WGS_1984\"," +
 			"SPHEROID[\"WGS_1984\",6378137.0,298.257223563]]," +
@@ -108,7 +144,7 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	/**
 	 * The optional style information
 	 */
-	private final Style style;
+	private Style style;
 
 	/**
 	 * The current buffer being used to output geometry. The buffer is created
@@ -117,21 +153,59 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	 */
 	private ByteBuffer obuf;
 
+	/**
+	 * Name of the shapefile without suffix
+	 */
+	private final String shapefilename;
+
+	/**
+	 * The output directory, <code>null</code> if the shapefile is only
+	 * written to a zip
+	 */
+	private final File outputDirectory;
+
 	/*
-	 * Pointers to the four required files. Setup in the ctor and never modified
-	 * afterward.
+	 * Pointers to the four required files of the current part. Setup in the
+	 * ctor and changed when the output is split into parts, <code>null</code>
+	 * if the shapefile is only written to a zip.
 	 */
-	private final File shpFile;
-	private final File shxFile;
-	private final File prjFile;
-	private final File dbfFile;
+	private File shpFile;
+	private File shxFile;
+	private File prjFile;
+	private File dbfFile;
 	/*
 	 * Optional shm file, only used if style != null and there is an icon url.
 	 */
-	private final File shmFile;
+	private File shmFile;
+	/*
+	 * Optional qix file, only used if the spatial index is requested.
+	 */
+	private File qixFile;
+
+	/**
+	 * Size in bytes at which the output rolls over to a new part
+	 */
+	private long maxPartSize = MAX_PART_SIZE;
+
+	/**
+	 * Number of the current part, 0 until the output is split
+	 */
+	private int part;
 
 	/**
-	 * The buffer that holds the data to be output.
+	 * Write a quadtree spatial index (.qix) next to the shp and shx files
+	 */
+	private boolean writeSpatialIndex;
+
+	/**
+	 * Bounding box of each record in the order xmin, ymin, xmax, ymax, only
+	 * collected when writing the spatial index
+	 */
+	private double[] recordBounds;
+
+	/**
+	 * The buffer that holds the data to be output, <code>null</code> if
+	 * features are streamed through {@link #write(Feature)}.
 	 */
 	private final ObjectBuffer buffer;
 
@@ -141,6 +215,46 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	 */
 	private final PointShapeMapper mapper;
 
+	/**
+	 * Number of records written to the shp file
+	 */
+	private int recordCount;
+
+	/*
+	 * State of the shp and shx output while records are written
+	 */
+	private FileOutputStream shfos;
+	private FileOutputStream shxfos;
+	private WritableByteChannel channel;
+	private WritableByteChannel xchannel;
+	private Geodetic2DBounds bbox;
+	private int shapeAll = NULL_TYPE;
+	private boolean is3D;
+	// offset is in 16 bit words from the start of the file
+	// always contains the offset into the file for the current
+	// geo. After all the geo is written contains the length
+	// of the file
+	private int offset = 50;
+	private int ioffset = 50;
+
+	/**
+	 * Staging buffers for the shp and shx records. Records are collected
+	 * until the buffer is full and then written to the file in one
+	 * sequential write. Allocated once and reused.
+	 */
+	private ByteBuffer shpStage;
+	private ByteBuffer shxStage;
+
+	/**
+	 * The dbf output when streaming, opened with the shp and shx files
+	 */
+	private DbfOutputStream dbfStream;
+
+	/**
+	 * Set once a streaming handler has been closed
+	 */
+	private boolean closed;
+
 	/**
 	 * Ctor
 	 *
@@ -161,14 +275,65 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	public SingleShapefileOutputHandler(Schema schema, Style style,
 										ObjectBuffer buffer, File outputDirectory, String shapefilename,
 										PointShapeMapper mapper) {
+		this(schema, style, buffer, outputDirectory, shapefilename, mapper, false);
+	}
+
+	/**
+	 * Ctor for streaming output. Features are written with
+	 * {@link #write(Feature)} as they arrive and the headers are completed
+	 * by {@link #close()}, so the features are never buffered.
+	 *
+	 * @param schema          the schema, never <code>null</code>.
+	 * @param style           the optional style, may be <code>null</code>
+	 * @param outputDirectory the output directory, will be created if it does not exist,
+	 *                        never <code>null</code>.
+	 * @param shapefilename   the name of the shapefile to be created, never
+	 *                        <code>null</code> or empty
+	 * @param mapper          a mapper to go from the url based icons in the Style to a
+	 *                        short value for use with ESRI, must not be <code>null</code>
+	 *                        if style is not <code>null</code>.
+	 * @throws IllegalArgumentException if couldn't create output directory or any of the required
+	 *                                  arguments are invalid
+	 */
+	public SingleShapefileOutputHandler(Schema schema, Style style,
+										File outputDirectory, String shapefilename,
+										PointShapeMapper mapper) {
+		this(schema, style, null, outputDirectory, shapefilename, mapper, true);
+	}
+
+	/**
+	 * Ctor for output to a zip with
+	 * {@link #process(ZipOutputStream, String, ICancelable)}. No files or
+	 * directories are created.
+	 *
+	 * @param schema        the schema, never <code>null</code>.
+	 * @param style         the optional style, may be <code>null</code>
+	 * @param buffer        the output buffer, never <code>null</code> or empty
+	 * @param shapefilename the name of the shapefile, used with the standard
+	 *                      suffixes to name the zip entries. never
+	 *                      <code>null</code> or empty
+	 * @param mapper        a mapper to go from the url based icons in the Style to a
+	 *                      short value for use with ESRI, must not be <code>null</code>
+	 *                      if style is not <code>null</code>.
+	 * @throws IllegalArgumentException if any of the required arguments are invalid
+	 */
+	public SingleShapefileOutputHandler(Schema schema, Style style,
+										ObjectBuffer buffer, String shapefilename,
+										PointShapeMapper mapper) {
+		this(schema, style, buffer, null, shapefilename, mapper, false);
+	}
+
+	private SingleShapefileOutputHandler(Schema schema, Style style,
+										 ObjectBuffer buffer, File outputDirectory, String shapefilename,
+										 PointShapeMapper mapper, boolean streaming) {
 		if (schema == null) {
 			throw new IllegalArgumentException("schema should never be null");
 		}
-		if (buffer == null || buffer.count() == 0) {
+		if (!streaming && (buffer == null || buffer.count() == 0)) {
 			throw new IllegalArgumentException(
 					"buffer should never be null and must contain at least one geometry element");
 		}
-		if (outputDirectory == null) {
+		if (streaming && outputDirectory == null) {
 			throw new IllegalArgumentException(
 					"outputDirectory should never be null");
 		}
@@ -176,7 +341,7 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 			throw new IllegalArgumentException(
 					"shapefilename should never be null or empty");
 		}
-		if (!outputDirectory.exists()) {
+		if (outputDirectory != null && !outputDirectory.exists()) {
 			if (!outputDirectory.mkdirs()) {
 				throw new IllegalArgumentException(
 						"Couldn't create output directory");
@@ -190,12 +355,90 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		this.buffer = buffer;
 		this.style = style;
 		this.mapper = mapper;
+		this.shapefilename = shapefilename;
+		this.outputDirectory = outputDirectory;
 
-		shpFile = new File(outputDirectory, shapefilename + ".shp");
-		shxFile = new File(outputDirectory, shapefilename + ".shx");
-		prjFile = new File(outputDirectory, shapefilename + ".prj");
-		dbfFile = new File(outputDirectory, shapefilename + ".dbf");
-		shmFile = new File(outputDirectory, shapefilename + ".shm");
+		if (outputDirectory != null) {
+			setFiles(shapefilename);
+		}
+	}
+
+	/**
+	 * Point the component files at the given name
+	 *
+	 * @param name the name of the shapefile without suffix
+	 */
+	private void setFiles(String name) {
+		shpFile = new File(outputDirectory, name + ".shp");
+		shxFile = new File(outputDirectory, name + ".shx");
+		prjFile = new File(outputDirectory, name + ".prj");
+		dbfFile = new File(outputDirectory, name + ".dbf");
+		shmFile = new File(outputDirectory, name + ".shm");
+		qixFile = new File(outputDirectory, name + ".qix");
+	}
+
+	/**
+	 * @return <code>true</code> if a quadtree spatial index (.qix) is written
+	 */
+	public boolean isWriteSpatialIndex() {
+		return writeSpatialIndex;
+	}
+
+	/**
+	 * Choose whether to write a quadtree spatial index (.qix) alongside the
+	 * shp and shx files. The index lets readers answer bounding box queries
+	 * by visiting only candidate records.
+	 *
+	 * @param writeSpatialIndex <code>true</code> to write the index
+	 */
+	public void setWriteSpatialIndex(boolean writeSpatialIndex) {
+		this.writeSpatialIndex = writeSpatialIndex;
+	}
+
+	/**
+	 * @return the size in bytes at which the output is split into parts
+	 */
+	public long getMaxPartSize() {
+		return maxPartSize;
+	}
+
+	/**
+	 * Set the size at which the output is split into parts. Before a record
+	 * would make the shp, shx or dbf file larger than this size the current
+	 * files are completed and the following records are written to a new
+	 * part. Parts are named with a three digit suffix, e.g.
+	 * <code>name_001.shp</code>, <code>name_002.shp</code>, and each part has
+	 * the same dbf columns and its own prj, qix and shm files. Output that
+	 * fits in one part keeps the plain name. A single record larger than
+	 * this size is still written as a part of its own. Output to a zip is
+	 * never split.
+	 *
+	 * @param maxPartSize the size in bytes, defaults to and may not exceed
+	 *                    {@link #MAX_PART_SIZE}
+	 * @throws IllegalArgumentException if maxPartSize is not larger than the
+	 *                                  file headers or exceeds MAX_PART_SIZE
+	 */
+	public void setMaxPartSize(long maxPartSize) {
+		if (maxPartSize <= HEADER_LENGTH || maxPartSize > MAX_PART_SIZE) {
+			throw new IllegalArgumentException("maxPartSize must be between "
+					+ HEADER_LENGTH + " and " + MAX_PART_SIZE + " bytes");
+		}
+		this.maxPartSize = maxPartSize;
+	}
+
+	/**
+	 * Set the style used to write the shm file. When streaming the style may
+	 * be set at any time before the handler is closed.
+	 *
+	 * @param style the style, may be <code>null</code>
+	 * @throws IllegalArgumentException if style is given without a mapper
+	 */
+	public void setStyle(Style style) {
+		if (style != null && mapper == null) {
+			throw new IllegalArgumentException(
+					"mapper should never be null if style is provided");
+		}
+		this.style = style;
 	}
 
 	/**
@@ -229,31 +472,310 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	public void process(ICancelable callback) throws IOException,
 			ClassNotFoundException, InstantiationException,
 			IllegalAccessException, XMLStreamException {
-		// Write prj
-		FileOutputStream prjos = new FileOutputStream(prjFile);
+		if (buffer == null) {
+			throw new IllegalStateException(
+					"Streaming handler is written with write(Feature) and close()");
+		}
+		if (shpFile == null) {
+			throw new IllegalStateException(
+					"Handler without output directory is written to a zip");
+		}
+		// Write shp, shx and dbf records in one pass
+		openStreams();
+		boolean written = false;
 		try {
-			prjos.write(WGS84prj.getBytes("US-ASCII"));
+			writeBuffer(callback);
+			written = true;
 		} finally {
-			prjos.close();
+			if (!written) {
+				closeShapeFiles();
+				closeDbf();
+			}
 		}
-		// Write shp and shx
-		outputFeatures(callback);
-		// Write dbf
-		FileOutputStream dbfos = new FileOutputStream(dbfFile);
+		// Write headers, prj, qix and shm
+		closePart();
+	}
+
+	/**
+	 * Output the data as entries of a zip instead of files. The shp, shx and
+	 * dbf content is held in memory, or in a temporary file once it grows
+	 * large, and the entries are only added once all of it has been produced.
+	 * A failure while reading the buffer or encoding the records therefore
+	 * leaves nothing of this shapefile in the zip. An I/O error writing the
+	 * zip itself can still leave the entries incomplete.
+	 *
+	 * @param zip      the zip to write the entries to, never <code>null</code>.
+	 *                 Left open.
+	 * @param prefix   path prefix of the entries, may be <code>null</code> or
+	 *                 empty to write the entries at the top of the zip
+	 * @param callback Provide {@code ICancelable} callback which if {@code
+	 *                 isCanceled()} returns true then processing is aborted and
+	 *                 CancellationException is thrown. If {@code null} then no
+	 *                 cancellation checks are done.
+	 * @throws IOException            if an I/O error occurs.
+	 * @throws IllegalAccessException
+	 * @throws InstantiationException
+	 * @throws ClassNotFoundException
+	 * @throws XMLStreamException
+	 * @throws CancellationException  if callback is provided and forces a cancellation
+	 * @throws IllegalArgumentException if zip is <code>null</code>
+	 */
+	public void process(ZipOutputStream zip, String prefix, ICancelable callback)
+			throws IOException, ClassNotFoundException, InstantiationException,
+			IllegalAccessException, XMLStreamException {
+		if (buffer == null) {
+			throw new IllegalStateException(
+					"Streaming handler is written with write(Feature) and close()");
+		}
+		if (zip == null) {
+			throw new IllegalArgumentException("zip should never be null");
+		}
+		String base = prefix == null || prefix.length() == 0 ? shapefilename
+				: prefix + "/" + shapefilename;
+		DeferredFileOutputStream shpSpill = new DeferredFileOutputStream(
+				SPILL_THRESHOLD, "shp", ".tmp", null);
+		DeferredFileOutputStream shxSpill = new DeferredFileOutputStream(
+				SPILL_THRESHOLD, "shx", ".tmp", null);
+		DeferredFileOutputStream dbfSpill = new DeferredFileOutputStream(
+				SPILL_THRESHOLD, "dbf", ".tmp", null);
 		try {
+			// Produce everything before touching the zip
+			resetShapeState();
+			channel = Channels.newChannel(shpSpill);
+			xchannel = Channels.newChannel(shxSpill);
+			writeBuffer(callback);
+			flush(channel, shpStage);
+			flush(xchannel, shxStage);
+			shpSpill.close();
+			shxSpill.close();
+			QuadTreeIndex index = null;
+			if (writeSpatialIndex) {
+				index = QuadTreeIndex.create(recordBounds, recordCount);
+				recordBounds = null;
+			}
 			buffer.resetReadIndex();
-			// Modify the schema for the dbf if we have dates since shapefile's
-			// output of dates is entirely useless. Substitute string for date
-			Schema dbfschema = dbfModify(schema);
-			DbfOutputStream dbf = new DbfOutputStream(dbfos, dbfschema, buffer);
+			DbfOutputStream dbf = new DbfOutputStream(dbfSpill,
+					dbfModify(schema), buffer);
 			dbf.close();
+			ByteArrayOutputStream shm = null;
+			if (style != null && style.getIconUrl() != null) {
+				shm = new ByteArrayOutputStream();
+				writeShm(shm);
+			}
+			// Write prj
+			zip.putNextEntry(new ZipEntry(base + ".prj"));
+			zip.write(WGS84prj.getBytes("US-ASCII"));
+			// Write shp and shx
+			zip.putNextEntry(new ZipEntry(base + ".shp"));
+			writeHeader(zip, createShapeHeader(offset, shapeAll, is3D, bbox));
+			shpSpill.writeTo(zip);
+			zip.putNextEntry(new ZipEntry(base + ".shx"));
+			writeHeader(zip, createShapeHeader(50 + recordCount * 4, shapeAll, is3D, bbox));
+			shxSpill.writeTo(zip);
+			// Write qix
+			if (index != null) {
+				zip.putNextEntry(new ZipEntry(base + ".qix"));
+				index.write(zip);
+			}
+			// Write dbf
+			zip.putNextEntry(new ZipEntry(base + ".dbf"));
+			dbfSpill.writeTo(zip);
+			// Write shm
+			if (shm != null) {
+				zip.putNextEntry(new ZipEntry(base + ".shm"));
+				shm.writeTo(zip);
+			}
+			zip.closeEntry();
 		} finally {
-			dbfos.close();
+			channel = null;
+			xchannel = null;
+			deleteSpill(shpSpill);
+			deleteSpill(shxSpill);
+			deleteSpill(dbfSpill);
 		}
-		// Write shm
+	}
+
+	private static void writeHeader(OutputStream out, ByteBuffer header)
+			throws IOException {
+		out.write(header.array(), 0, header.limit());
+	}
+
+	private static void deleteSpill(DeferredFileOutputStream spill) {
+		IOUtils.closeQuietly(spill);
+		File file = spill.getFile();
+		if (file != null && file.exists() && !file.delete()) {
+			logger.warn("Could not delete temporary file " + file);
+		}
+	}
+
+	/**
+	 * Write a feature to a streaming handler. The shp, shx and dbf records are
+	 * written immediately. As with buffered output, features without geometry
+	 * only get a dbf record.
+	 *
+	 * @param feature the feature, never <code>null</code>
+	 * @throws IOException if an I/O error occurs
+	 * @throws IllegalArgumentException if the geometry type differs from the
+	 *                                  features written before
+	 * @throws IllegalStateException if this handler writes a buffer or has
+	 *                               been closed
+	 */
+	public void write(Feature feature) throws IOException {
+		if (buffer != null) {
+			throw new IllegalStateException(
+					"Buffered handler is written with process()");
+		}
+		if (closed) {
+			throw new IllegalStateException("Handler has been closed");
+		}
+		if (channel == null) {
+			openStreams();
+		}
+		writeShape(feature);
+		dbfStream.writeRow(feature);
+	}
+
+	/**
+	 * Complete the current part and continue with the next one. The first
+	 * part is renamed to carry the part suffix as well.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void nextPart() throws IOException {
+		// the parts share the shape type
+		int type = shapeAll;
+		boolean z = is3D;
+		try {
+			closePart();
+		} catch (XMLStreamException e) {
+			throw new IOException("Problem writing shm file", e);
+		}
+		if (part == 0) {
+			part = 1;
+			File[] files = {shpFile, shxFile, prjFile, dbfFile, shmFile, qixFile};
+			setFiles(getPartName(part));
+			File[] renamed = {shpFile, shxFile, prjFile, dbfFile, shmFile, qixFile};
+			for (int i = 0; i < files.length; i++) {
+				if (!files[i].exists()) continue;
+				if (renamed[i].exists() && !renamed[i].delete()
+						|| !files[i].renameTo(renamed[i])) {
+					throw new IOException("Could not rename " + files[i] + " to " + renamed[i]);
+				}
+			}
+		}
+		part++;
+		setFiles(getPartName(part));
+		openStreams();
+		shapeAll = type;
+		is3D = z;
+	}
+
+	private String getPartName(int number) {
+		return String.format(Locale.US, "%s_%03d", shapefilename, number);
+	}
+
+	/**
+	 * Check whether the next record fits in the current part
+	 *
+	 * @param len length of the shp record content in 16 bit words
+	 * @return <code>true</code> if the shp, shx or dbf file would exceed
+	 *         the maximum part size
+	 */
+	private boolean isPartFull(int len) {
+		if (recordCount == 0 || shfos == null) {
+			// the first record always goes in, zip output is not split
+			return false;
+		}
+		// offsets are in 16 bit words, records have a 4 word header
+		return (offset + 4L + len) * 2 > maxPartSize
+				|| (ioffset + 4L) * 2 > maxPartSize
+				|| dbfStream.getSize() + dbfStream.getRecordLength() > maxPartSize;
+	}
+
+	/**
+	 * Finish a streaming handler: patch the shp, shx and dbf headers and
+	 * write the prj, qix and shm files. A handler that was never written to
+	 * produces an empty shapefile.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 * @throws XMLStreamException if the shm file cannot be written
+	 * @throws IllegalStateException if this handler writes a buffer
+	 */
+	public void close() throws IOException, XMLStreamException {
+		if (buffer != null) {
+			throw new IllegalStateException(
+					"Buffered handler is written with process()");
+		}
+		if (closed) return;
+		closed = true;
+		if (channel == null) {
+			openStreams();
+		}
+		closePart();
+	}
+
+	/**
+	 * Patch the shp, shx and dbf headers of the current part, close the
+	 * files and write the prj, qix and shm files.
+	 *
+	 * @throws IOException if an I/O error occurs
+	 * @throws XMLStreamException if the shm file cannot be written
+	 */
+	private void closePart() throws IOException, XMLStreamException {
+		try {
+			putShapeHeaders();
+		} finally {
+			closeShapeFiles();
+			closeDbf();
+		}
+		writePrj();
+		writeSpatialIndexFile();
 		writeShm();
 	}
 
+	private void closeDbf() throws IOException {
+		if (dbfStream != null) {
+			try {
+				dbfStream.close();
+			} finally {
+				dbfStream = null;
+			}
+		}
+	}
+	/**
+	 * Open the shp, shx and dbf files of the current part
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void openStreams() throws IOException {
+		openShapeFiles();
+		FileOutputStream dbfos = new FileOutputStream(dbfFile);
+		try {
+			// Modify the schema for the dbf if we have dates since shapefile's
+			// output of dates is entirely useless. Substitute string for date
+			dbfStream = new DbfOutputStream(dbfos.getChannel(), dbfModify(schema));
+		} catch (IOException e) {
+			IOUtils.closeQuietly(dbfos);
+			throw e;
+		}
+	}
+
+	private void writePrj() throws IOException {
+		FileOutputStream prjos = new FileOutputStream(prjFile);
+		try {
+			prjos.write(WGS84prj.getBytes("US-ASCII"));
+		} finally {
+			prjos.close();
+		}
+	}
+
+	private void writeSpatialIndexFile() throws IOException {
+		if (writeSpatialIndex) {
+			QuadTreeIndex.create(recordBounds, recordCount).write(qixFile);
+			recordBounds = null;
+		}
+	}
+
 	/**
 	 * Find and replace and simple fields of type date with type string
 	 *
@@ -298,7 +820,18 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		if (style == null || style.getIconUrl() == null)
 			return;
 
-		OutputStream stream = new FileOutputStream(shmFile);
+		writeShm(new FileOutputStream(shmFile));
+	}
+
+	/**
+	 * Write the shm content for the style to a stream, which is closed.
+	 *
+	 * @param stream the stream
+	 * @throws XMLStreamException
+	 * @throws MalformedURLException
+	 */
+	private void writeShm(OutputStream stream) throws XMLStreamException,
+			MalformedURLException {
 		XMLStreamWriter writer = null;
 		try {
 			XMLOutputFactory factory = XMLOutputFactory.newInstance();
@@ -354,9 +887,9 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	}
 
 	/**
-	 * Output the features. As the features are output, track the bounding box
-	 * information and check for consistent geometry usage. After all the
-	 * features are written we reopen the shapefile to output the header.
+	 * Write the shp and shx records of the buffered features, and their dbf
+	 * records if the dbf is open. As before every feature has a dbf record,
+	 * including features without geometry.
 	 *
 	 * @param callback
 	 * @throws IOException            if an I/O error occurs.
@@ -364,81 +897,166 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	 * @throws InstantiationException
 	 * @throws ClassNotFoundException
 	 * @throws CancellationException  if callback is provided and forces a cancellation
-	 * @throws BufferOverflowException
 	 */
-	private void outputFeatures(ICancelable callback) throws IOException,
+	private void writeBuffer(ICancelable callback) throws IOException,
 			ClassNotFoundException, InstantiationException,
 			IllegalAccessException {
-		int recordNumber = 1;
-		Geodetic2DBounds bbox = null;
-		int shapeAll = NULL_TYPE;
-		boolean is3D = false;
-		// offset is in 16 bit words from the start of the file
-		// always contains the offset into the file for the current
-		// geo. After all the geo is written contains the length
-		// of the file
-		int offset = 50;
-		int ioffset = 50;
-		FileOutputStream shfos = null;
-		FileOutputStream shxfos = null;
-
-		try {
-			shfos = new FileOutputStream(shpFile);
-			shxfos = new FileOutputStream(shxFile);
-			FileChannel channel = shfos.getChannel();
-			FileChannel xchannel = shxfos.getChannel();
-
-			IDataSerializable ser = buffer.read();
-			while (ser != null) {
-				if (callback != null && callback.isCanceled()) {
-					throw new CancellationException();
-				}
-				Feature feat = (Feature) ser;
-				Geometry geo = feat.getGeometry();
-				if (geo != null) {
-					int shape = getEsriShapeType(geo);
-					if (shape != NULL_TYPE) {
-						// Make sure the type is the same as others in the feature
-						// list
-						if (shapeAll == NULL_TYPE) {
-							shapeAll = shape;
-							is3D = is3D(shape);
-						} else if (shape != shapeAll)
-							throw new IllegalArgumentException(
-									"Feature list must contain"
-											+ " geometry objects of same type: expected "
-											+ shapeAll + " but was " + shape);
-					}
-					if (bbox == null) {
-						bbox = geo.getBoundingBox(); // 3d or not depending on the
-						// must make copy of the bounding box
-						bbox = bbox instanceof Geodetic3DBounds ? new Geodetic3DBounds(
-								(Geodetic3DBounds) bbox)
-								: new Geodetic2DBounds(bbox);
-						// geo
-					} else {
-						bbox.include(geo.getBoundingBox());
-					}
-					int len = getRecLen(geo);
-					outputGeometry(channel, offset, geo, is3D, shape, recordNumber,
-							len);
-					outputIndex(xchannel, ioffset, offset, len);
-					// Records have additional 4 words of info at the start of the
-					// record
-					offset += len + 4;
-					ioffset += 4;
-					recordNumber++;
-				}
-				ser = buffer.read();
+		IDataSerializable ser = buffer.read();
+		while (ser != null) {
+			if (callback != null && callback.isCanceled()) {
+				throw new CancellationException();
 			}
-			// Write header
-			putShapeHeader(channel, offset, shapeAll, is3D, bbox);
-			int shxlen = 50 + (recordNumber - 1) * 4;
-			putShapeHeader(xchannel, shxlen, shapeAll, is3D, bbox);
-		} finally {
-			IOUtils.closeQuietly(shfos);
-			IOUtils.closeQuietly(shxfos);
+			Feature feature = (Feature) ser;
+			writeShape(feature);
+			if (dbfStream != null) {
+				dbfStream.writeRow(feature);
+			}
+			ser = buffer.read();
+		}
+	}
+
+	/**
+	 * Open the shp and shx files and reset the record state
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void openShapeFiles() throws IOException {
+		resetShapeState();
+		shfos = new FileOutputStream(shpFile);
+		FileChannel shpChannel = shfos.getChannel();
+		shxfos = new FileOutputStream(shxFile);
+		FileChannel shxChannel = shxfos.getChannel();
+		// records follow the headers, which are written once all records are
+		shpChannel.position(HEADER_LENGTH);
+		shxChannel.position(HEADER_LENGTH);
+		channel = shpChannel;
+		xchannel = shxChannel;
+	}
+
+	/**
+	 * Reset the record state and the staging buffers
+	 */
+	private void resetShapeState() {
+		recordCount = 0;
+		bbox = null;
+		shapeAll = NULL_TYPE;
+		is3D = false;
+		offset = 50;
+		ioffset = 50;
+		if (writeSpatialIndex) {
+			recordBounds = new double[1024];
+		}
+		if (shpStage == null) {
+			shpStage = ByteBuffer.allocateDirect(SHP_STAGE_SIZE);
+			shxStage = ByteBuffer.allocateDirect(SHX_STAGE_SIZE);
+		}
+		shpStage.clear();
+		shxStage.clear();
+	}
+
+	/**
+	 * Write the shp and shx records of a feature. As the features are output,
+	 * track the bounding box information and check for consistent geometry
+	 * usage.
+	 *
+	 * Features without geometry are ignored.
+	 *
+	 * @param feat the feature
+	 * @throws IOException if an I/O error occurs.
+	 * @throws BufferOverflowException
+	 */
+	private void writeShape(Feature feat) throws IOException {
+		Geometry geo = feat.getGeometry();
+		if (geo == null) {
+			return;
+		}
+		int shape = getEsriShapeType(geo);
+		int len = getRecLen(geo);
+		if (isPartFull(len)) {
+			nextPart();
+		}
+		if (shape != NULL_TYPE) {
+			// Make sure the type is the same as others in the feature
+			// list
+			if (shapeAll == NULL_TYPE) {
+				shapeAll = shape;
+				is3D = is3D(shape);
+			} else if (shape != shapeAll)
+				throw new IllegalArgumentException(
+						"Feature list must contain"
+								+ " geometry objects of same type: expected "
+								+ shapeAll + " but was " + shape);
+		}
+		if (bbox == null) {
+			bbox = geo.getBoundingBox(); // 3d or not depending on the
+			// must make copy of the bounding box
+			bbox = bbox instanceof Geodetic3DBounds ? new Geodetic3DBounds(
+					(Geodetic3DBounds) bbox)
+					: new Geodetic2DBounds(bbox);
+			// geo
+		} else {
+			bbox.include(geo.getBoundingBox());
+		}
+		if (writeSpatialIndex) {
+			addRecordBounds(recordCount, geo);
+		}
+		outputGeometry(geo, shape, recordCount + 1, len);
+		outputIndex(offset, len);
+		// Records have additional 4 words of info at the start of the
+		// record
+		offset += len + 4;
+		ioffset += 4;
+		recordCount++;
+	}
+
+	/**
+	 * Write the shp and shx headers once all records are written
+	 *
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void putShapeHeaders() throws IOException {
+		flush(channel, shpStage);
+		flush(xchannel, shxStage);
+		shfos.getChannel().write(createShapeHeader(offset, shapeAll, is3D, bbox), 0);
+		int shxlen = 50 + recordCount * 4;
+		shxfos.getChannel().write(createShapeHeader(shxlen, shapeAll, is3D, bbox), 0);
+	}
+
+	private void closeShapeFiles() {
+		IOUtils.closeQuietly(shfos);
+		IOUtils.closeQuietly(shxfos);
+		shfos = null;
+		shxfos = null;
+		channel = null;
+		xchannel = null;
+	}
+
+	/**
+	 * Keep the bounding box of a record for the spatial index, using the same
+	 * values that are written as the record's bounding box.
+	 *
+	 * @param index zero-based record number
+	 * @param geo the record's geometry
+	 */
+	private void addRecordBounds(int index, Geometry geo) {
+		if (recordBounds.length < (index + 1) * 4) {
+			recordBounds = Arrays.copyOf(recordBounds, recordBounds.length * 2);
 		}
+		Geodetic2DBounds gb = geo.getBoundingBox();
+		double westLonDeg = gb.getWestLon().inDegrees();
+		double eastLonDeg = gb.getEastLon().inDegrees();
+		// Same correction for wrapping bounding boxes as putBBox
+		if (eastLonDeg == -180.0)
+			eastLonDeg = +180.0;
+		else if (eastLonDeg < westLonDeg) {
+			westLonDeg = -180.0;
+			eastLonDeg = +180.0;
+		}
+		int j = index * 4;
+		recordBounds[j] = westLonDeg;
+		recordBounds[j + 1] = gb.getSouthLat().inDegrees();
+		recordBounds[j + 2] = eastLonDeg;
+		recordBounds[j + 3] = gb.getNorthLat().inDegrees();
 	}
 
 	/**
@@ -453,13 +1071,35 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		return tv.getType();
 	}
 
-	private void outputIndex(FileChannel xchannel, int offset, int recoffset,
-							 int length) throws IOException {
-		ByteBuffer buffer = ByteBuffer.allocate(8);
-		writeInt(buffer, recoffset, ByteOrder.BIG_ENDIAN);
-		writeInt(buffer, length, ByteOrder.BIG_ENDIAN);
-		buffer.flip();
-		xchannel.write(buffer, offset * 2L);
+	/**
+	 * Stage the index record of a shp record
+	 *
+	 * @param recoffset offset of the shp record in 16 bit words
+	 * @param length    length of the shp record content in 16 bit words
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void outputIndex(int recoffset, int length) throws IOException {
+		if (shxStage.remaining() < 8) {
+			flush(xchannel, shxStage);
+		}
+		writeInt(shxStage, recoffset, ByteOrder.BIG_ENDIAN);
+		writeInt(shxStage, length, ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Write the staged bytes to the channel at its current position and
+	 * clear the staging buffer
+	 *
+	 * @param out   the channel
+	 * @param stage the staging buffer
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private static void flush(WritableByteChannel out, ByteBuffer stage) throws IOException {
+		stage.flip();
+		while (stage.hasRemaining()) {
+			out.write(stage);
+		}
+		stage.clear();
 	}
 
 	@Override
@@ -658,16 +1298,34 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		}
 	}
 
-	private void outputGeometry(FileChannel channel, int offset, Geometry geom,
-								boolean is3D, int shape, int rnumber, int rlength)
+	/**
+	 * Stage a shp record: the record header, the shape type and the content
+	 * written by the geometry's visitor. Records larger than the staging
+	 * buffer are written through a buffer of their own.
+	 *
+	 * @param geom    the geometry
+	 * @param shape   the shape type
+	 * @param rnumber the one-based record number
+	 * @param rlength the content length in 16 bit words
+	 * @throws IOException if an I/O error occurs.
+	 */
+	private void outputGeometry(Geometry geom, int shape, int rnumber, int rlength)
 			throws IOException {
-		ByteBuffer hbuffer = ByteBuffer.allocate(12);
-		writeInt(hbuffer, rnumber, ByteOrder.BIG_ENDIAN);
-		writeInt(hbuffer, rlength, ByteOrder.BIG_ENDIAN);
-		writeInt(hbuffer, shape, ByteOrder.LITTLE_ENDIAN);
-		hbuffer.flip();
-		channel.write(hbuffer, offset * 2L);
-		obuf = ByteBuffer.allocate(rlength * 2);
+		// the record header is 8 bytes, the shape type is the first 4 bytes
+		// of the content
+		int size = 8 + rlength * 2;
+		if (shpStage.remaining() < size) {
+			flush(channel, shpStage);
+		}
+		ByteBuffer out = size <= shpStage.capacity() ? shpStage
+				: ByteBuffer.allocate(size);
+		int end = out.position() + size;
+		writeInt(out, rnumber, ByteOrder.BIG_ENDIAN);
+		writeInt(out, rlength, ByteOrder.BIG_ENDIAN);
+		writeInt(out, shape, ByteOrder.LITTLE_ENDIAN);
+		// the limit catches content longer than the computed record length
+		out.limit(end);
+		obuf = out;
 		try {
 			geom.accept(this);
 		} catch (BufferOverflowException bfe) {
@@ -675,10 +1333,17 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 					+ " bytes for geometry " + geom + " having "
 					+ geom.getNumPoints() + " points and " + geom.getNumParts() + " parts");
 			throw bfe;
+		} finally {
+			obuf = null;
+		}
+		// content shorter than the record length is padded with zeros
+		while (out.position() < end) {
+			out.put((byte) 0);
+		}
+		out.limit(out.capacity());
+		if (out != shpStage) {
+			flush(channel, out);
 		}
-		obuf.flip();
-		channel.write(obuf, offset * 2 + 12);
-		obuf = null;
 	}
 
 	/**
@@ -974,19 +1639,17 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 	}
 
 	/**
-	 * Write the shapefile header, containing fileLen, shapeType and Bounding
+	 * Create the shapefile header, containing fileLen, shapeType and Bounding
 	 * Box
 	 *
-	 * @param channel
 	 * @param fileLen
 	 * @param shapeType
 	 * @param is3D
 	 * @param bbox
-	 * @throws IOException            if an I/O error occurs.
+	 * @return the header, ready to be written
 	 */
-	private void putShapeHeader(FileChannel channel, int fileLen,
-								int shapeType, boolean is3D, Geodetic2DBounds bbox)
-			throws IOException {
+	private ByteBuffer createShapeHeader(int fileLen, int shapeType,
+										 boolean is3D, Geodetic2DBounds bbox) {
 		ByteBuffer buffer = ByteBuffer.allocate(100);
 		// Write the shapefile signature (should be 9994)
 		writeInt(buffer, SIGNATURE, ByteOrder.BIG_ENDIAN);
@@ -1001,9 +1664,15 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		// Write the shapeType
 		writeInt(buffer, shapeType, ByteOrder.LITTLE_ENDIAN);
 		// Write the overall X-Y bounding box to the shapefile header
-		obuf = buffer;
-		putBBox(bbox);
-		obuf = null;
+		if (bbox != null) {
+			obuf = buffer;
+			putBBox(bbox);
+			obuf = null;
+		} else {
+			// no records, leave the bounding box empty
+			for (int i = 0; i < 4; i++)
+				writeDouble(buffer, 0.0, ByteOrder.LITTLE_ENDIAN);
+		}
 		// In Shapefiles, Z and M bounds are usually separated from X-Y
 		// bounds
 		// (and instead grouped with their arrays of data), except for in
@@ -1018,7 +1687,7 @@ public class SingleShapefileOutputHandler extends ShapefileBaseClass {
 		writeDouble(buffer, 0.0, ByteOrder.LITTLE_ENDIAN); // M max (not
 		// supported)
 		buffer.flip();
-		channel.write(buffer, 0);
+		return buffer;
 	}
 
 	/**
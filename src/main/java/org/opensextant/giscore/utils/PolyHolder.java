@@ -106,21 +106,37 @@ public class PolyHolder {
 	 * their points in a counter clockwise direction.
 	 */
 	public Polygon toPolygon() {
-		if (!outerRing.clockwise()) {
-			List<Point> pts = new ArrayList<Point>();
-			pts.addAll(outerRing.getPoints());
-			Collections.reverse(pts);
-			outerRing = new LinearRing(pts);
-		}
-		for(int i = 0; i < innerRings.size(); i++) {
-			LinearRing ring = innerRings.get(i);
-			if (ring.clockwise()) {
-				List<Point> pts = new ArrayList<Point>();
-				pts.addAll(ring.getPoints());
-				Collections.reverse(pts);
-				innerRings.set(i, new LinearRing(pts));
+		return toPolygon(true);
+	}
+
+	/**
+	 * Create a polygon from the rings.
+	 * 
+	 * @param checkOrientation if <code>true</code> the outer ring is reversed
+	 * unless clockwise and the inner rings are reversed unless counter
+	 * clockwise. Callers that already know the orientation of each ring, e.g.
+	 * because they classified the rings by orientation, pass
+	 * <code>false</code> to use the rings as they are.
+	 * @return the polygon
+	 */
+	public Polygon toPolygon(boolean checkOrientation) {
+		if (checkOrientation) {
+			if (!outerRing.clockwise()) {
+				outerRing = reverse(outerRing);
+			}
+			for(int i = 0; i < innerRings.size(); i++) {
+				LinearRing ring = innerRings.get(i);
+				if (ring.clockwise()) {
+					innerRings.set(i, reverse(ring));
+				}
 			}
 		}
 		return new Polygon(outerRing, innerRings);
 	}
+
+	private static LinearRing reverse(LinearRing ring) {
+		List<Point> pts = new ArrayList<Point>(ring.getPoints());
+		Collections.reverse(pts);
+		return new LinearRing(pts);
+	}
 }
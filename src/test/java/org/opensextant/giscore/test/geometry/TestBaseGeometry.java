@@ -24,6 +24,7 @@ import org.opensextant.giscore.geometry.LinearRing;
 import org.opensextant.giscore.geometry.Model;
 import org.opensextant.giscore.geometry.MultiLine;
 import org.opensextant.giscore.geometry.MultiPoint;
+import org.opensextant.giscore.geometry.PackedPointList;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.geometry.Polygon;
 import org.opensextant.giscore.test.TestGISBase;
@@ -540,6 +541,45 @@ public class TestBaseGeometry extends TestGISBase {
         assertEquals(cp, ring.getCenter());
     }
 
+    @Test
+    public void testPackedPointList() {
+        // includes a closing point and a vertex on the date line (180 is normalized to -180)
+        double[] lons = {170.0, 180.0, 175.0, 170.0, 170.0};
+        double[] lats = {-10.0, -10.0, 10.0, 10.0, -10.0};
+        double[] x = new double[lons.length];
+        double[] y = new double[lats.length];
+        List<Point> expected = new ArrayList<Point>(lons.length);
+        for (int i = 0; i < lons.length; i++) {
+            x[i] = PackedPointList.toLongitudeRadians(lons[i]);
+            y[i] = PackedPointList.toLatitudeRadians(lats[i]);
+            expected.add(new Point(new Geodetic2DPoint(new Longitude(lons[i], Angle.DEGREES),
+                    new Latitude(lats[i], Angle.DEGREES))));
+        }
+        PackedPointList packed = new PackedPointList(x, y, null, 0, lons.length);
+        assertEquals(expected, packed);
+        assertEquals(expected.subList(1, 4), packed.subList(1, 4));
+        // points are created once and then reused
+        assertTrue(packed.get(2) == packed.get(2));
+
+        LinearRing ring = new LinearRing(packed);
+        LinearRing other = new LinearRing(expected);
+        assertEquals(other, ring);
+        assertEquals(other.clockwise(), ring.clockwise());
+        assertEquals(other.getBoundingBox(), ring.getBoundingBox());
+        assertEquals(other.clippedAtDateLine(), ring.clippedAtDateLine());
+        Geodetic2DPoint pt = new Geodetic2DPoint(new Longitude(172.0, Angle.DEGREES),
+                new Latitude(0.0, Angle.DEGREES));
+        assertEquals(other.contains(pt), ring.contains(pt));
+        assertEquals(other.overlaps(other), ring.overlaps(ring));
+
+        try {
+            PackedPointList.toLatitudeRadians(91.0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testAtPoles() {
         // create outline of antarctica
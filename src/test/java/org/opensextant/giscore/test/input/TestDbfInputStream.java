@@ -18,17 +18,36 @@
  ***************************************************************************************/
 package org.opensextant.giscore.test.input;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.junit.Test;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.Row;
 import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.events.SimpleField.Type;
 import org.opensextant.giscore.input.dbf.DbfInputStream;
+import org.opensextant.giscore.output.dbf.DbfOutputStream;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestDbfInputStream {
 
@@ -68,6 +87,347 @@ public class TestDbfInputStream {
         checkDbf(new File("data/notyetvalidshape/AlleghenyCounty_Floodplain2000.dbf"));
     }
 
+    @Test
+    public void testProjection() throws Exception {
+        File file = new File("data/shape/MBTA.dbf");
+        List<Row> all = new ArrayList<Row>();
+        DbfInputStream dbfs = new DbfInputStream(file, null);
+        try {
+            dbfs.read(); // schema
+            IGISObject obj;
+            while ((obj = dbfs.read()) != null) all.add((Row) obj);
+        } finally {
+            dbfs.close();
+        }
+
+        // projected fields come back in file order
+        dbfs = new DbfInputStream(file, null);
+        try {
+            dbfs.setProjection(Arrays.asList("SHAPE_LEN", "LINE"));
+            assertEquals(Arrays.asList("LINE", "SHAPE_LEN"), dbfs.getProjection());
+            Schema s = (Schema) dbfs.read();
+            assertEquals(Arrays.asList("LINE", "SHAPE_LEN"), new ArrayList<String>(s.getKeys()));
+            SimpleField line = s.get("LINE");
+            SimpleField len = s.get("SHAPE_LEN");
+            int i = 0;
+            IGISObject obj;
+            while ((obj = dbfs.read()) != null) {
+                Row row = (Row) obj;
+                Row expected = all.get(i++);
+                assertEquals(2, row.getFields().size());
+                assertEquals(expected.getData(line), row.getData(line));
+                assertEquals(expected.getData(len), row.getData(len));
+            }
+            assertEquals(all.size(), i);
+        } finally {
+            dbfs.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownProjection() throws Exception {
+        DbfInputStream dbfs = new DbfInputStream(new File("data/shape/MBTA.dbf"), null);
+        try {
+            dbfs.setProjection(Arrays.asList("NOSUCHFIELD"));
+        } finally {
+            dbfs.close();
+        }
+    }
+
+    @Test
+    public void testFieldDecoding() throws Exception {
+        // name, type, length, decimal count
+        Object[][] defs = {
+                {"SHORTVAL", 'N', 4, 0},
+                {"INTVAL", 'N', 9, 0},
+                {"LONGVAL", 'N', 19, 0},
+                {"DBLVAL", 'N', 24, 6},
+                {"DATEVAL", 'D', 8, 0},
+                {"BOOLVAL", 'L', 1, 0},
+                {"STRVAL", 'C', 8, 0}
+        };
+        String[][] records = {
+                {"  12", "   -12345", "   922337203685477", "            -123.456789", "19991231", "T", " abc    "},
+                {"-999", "999999999", "9223372036854775807", "                    1e3", "20000229", "f", "x"},
+                {"+1.5", "  1234567", "9223372036854775808", "  0.30000000000000004441", "15000101", "?", ""},
+                {"    ", "  *******", "            +000042", "                     42", "20010230", "y", "  "},
+                {"   0", "       -0", "                 -0", "         -0.0000000001", "        ", " ", "\u00ff"}
+        };
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        int recordSize = 1;
+        for (Object[] def : defs) recordSize += (Integer) def[2];
+        int headerSize = 33 + 32 * defs.length;
+        bos.write(3);
+        bos.write(new byte[3]);
+        writeLE(bos, records.length, 4);
+        writeLE(bos, headerSize, 2);
+        writeLE(bos, recordSize, 2);
+        bos.write(new byte[20]);
+        for (Object[] def : defs) {
+            byte[] name = Arrays.copyOf(((String) def[0]).getBytes("US-ASCII"), 11);
+            bos.write(name);
+            bos.write((Character) def[1]);
+            bos.write(new byte[4]);
+            bos.write((Integer) def[2]);
+            bos.write((Integer) def[3]);
+            bos.write(new byte[14]);
+        }
+        bos.write(0x0d);
+        for (String[] record : records) {
+            bos.write(' ');
+            for (int i = 0; i < defs.length; i++) {
+                StringBuilder sb = new StringBuilder(record[i]);
+                while (sb.length() < (Integer) defs[i][2]) sb.append(' ');
+                bos.write(sb.toString().getBytes("ISO-8859-1"));
+            }
+        }
+
+        SimpleDateFormat fmt = new SimpleDateFormat("yyyyMMdd");
+        fmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+        DbfInputStream dbfs = new DbfInputStream(new ByteArrayInputStream(bos.toByteArray()), null);
+        try {
+            Schema schema = (Schema) dbfs.read();
+            SimpleField shortval = schema.get("SHORTVAL");
+            SimpleField intval = schema.get("INTVAL");
+            SimpleField longval = schema.get("LONGVAL");
+            SimpleField dblval = schema.get("DBLVAL");
+            SimpleField dateval = schema.get("DATEVAL");
+            SimpleField boolval = schema.get("BOOLVAL");
+            SimpleField strval = schema.get("STRVAL");
+
+            Row row = (Row) dbfs.read();
+            assertEquals((short) 12, row.getData(shortval));
+            assertEquals(-12345, row.getData(intval));
+            assertEquals(922337203685477L, row.getData(longval));
+            assertEquals(-123.456789, row.getData(dblval));
+            assertEquals(fmt.parse("19991231"), row.getData(dateval));
+            assertEquals(Boolean.TRUE, row.getData(boolval));
+            assertEquals("abc", row.getData(strval));
+
+            row = (Row) dbfs.read();
+            assertEquals((short) -999, row.getData(shortval));
+            assertEquals(999999999, row.getData(intval));
+            assertEquals(Long.MAX_VALUE, row.getData(longval));
+            assertEquals(1000.0, row.getData(dblval));
+            assertEquals(fmt.parse("20000229"), row.getData(dateval));
+            assertEquals(Boolean.FALSE, row.getData(boolval));
+            assertEquals("x", row.getData(strval));
+
+            row = (Row) dbfs.read();
+            assertEquals(1.5, row.getData(shortval));
+            assertEquals(1234567, row.getData(intval));
+            assertEquals(9223372036854775808.0, row.getData(longval));
+            assertEquals(Double.valueOf("0.30000000000000004441"), row.getData(dblval));
+            // Julian calendar date before the Gregorian cutover
+            assertEquals(fmt.parse("15000101"), row.getData(dateval));
+            assertNull(row.getData(boolval));
+            assertNull(row.getData(strval));
+
+            row = (Row) dbfs.read();
+            assertNull(row.getData(shortval));
+            assertNull(row.getData(intval));
+            assertEquals(42.0, row.getData(longval));
+            assertEquals((short) 42, row.getData(dblval));
+            // lenient date rolls over into March
+            assertEquals(fmt.parse("20010230"), row.getData(dateval));
+            assertEquals(Boolean.TRUE, row.getData(boolval));
+            assertNull(row.getData(strval));
+
+            row = (Row) dbfs.read();
+            assertEquals((short) 0, row.getData(shortval));
+            assertEquals(0, row.getData(intval));
+            assertEquals((short) 0, row.getData(longval));
+            assertEquals(-1e-10, row.getData(dblval));
+            assertNull(row.getData(dateval));
+            assertNull(row.getData(boolval));
+            assertEquals(new String(new byte[]{(byte) 0xff}, "US-ASCII"), row.getData(strval));
+
+            assertNull(dbfs.read());
+        } finally {
+            dbfs.close();
+        }
+    }
+
+    @Test
+    public void testRandomAccess() throws Exception {
+        Schema schema = new Schema();
+        SimpleField id = new SimpleField("id", Type.INT);
+        SimpleField name = new SimpleField("name");
+        name.setLength(12);
+        schema.put(id);
+        schema.put(name);
+        final int count = 5000;
+        File file = File.createTempFile("test", ".dbf");
+        try {
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                DbfOutputStream dbfos = new DbfOutputStream(os, null);
+                dbfos.write(schema);
+                for (int i = 0; i < count; i++) {
+                    Row row = new Row();
+                    row.putData(id, i);
+                    row.putData(name, "row " + i);
+                    dbfos.write(row);
+                }
+                dbfos.close();
+            } finally {
+                os.close();
+            }
+
+            DbfInputStream dbfs = new DbfInputStream(file, null);
+            try {
+                dbfs.setProjection(Arrays.asList("id"));
+                Schema s = (Schema) dbfs.read();
+                final SimpleField readId = s.get("id");
+                assertEquals(count, dbfs.getRecordCount());
+                for (int n : new int[]{4321, 0, count - 1, 17}) {
+                    Row row = dbfs.readRecord(n);
+                    assertEquals(n, ((Number) row.getData(readId)).intValue());
+                    assertEquals(1, row.getFields().size());
+                }
+                // random access leaves the sequential position alone
+                assertEquals(0, ((Number) ((Row) dbfs.read()).getData(readId)).intValue());
+
+                Iterator<Row> it = dbfs.iterator(100, 110);
+                for (int n = 100; n < 110; n++) {
+                    assertEquals(n, ((Number) it.next().getData(readId)).intValue());
+                }
+                assertFalse(it.hasNext());
+
+                final AtomicReferenceArray<Row> rows = new AtomicReferenceArray<Row>(count);
+                dbfs.scan(0, count, 4, new DbfInputStream.RecordHandler() {
+                    public void handleRecord(int recordNumber, Row row) {
+                        rows.set(recordNumber, row);
+                    }
+                });
+                for (int n = 0; n < count; n++) {
+                    assertEquals(n, ((Number) rows.get(n).getData(readId)).intValue());
+                }
+            } finally {
+                dbfs.close();
+            }
+
+            dbfs = new DbfInputStream(file, null);
+            try {
+                dbfs.scan(0, count, 2, new DbfInputStream.RecordHandler() {
+                    public void handleRecord(int recordNumber, Row row) throws IOException {
+                        if (recordNumber == 3000) throw new IOException("stop");
+                    }
+                });
+                fail("expected handler error");
+            } catch (IOException e) {
+                assertEquals("stop", e.getMessage());
+            } finally {
+                dbfs.close();
+            }
+
+            // runtime errors are not wrapped
+            dbfs = new DbfInputStream(file, null);
+            try {
+                dbfs.scan(0, count, 2, new DbfInputStream.RecordHandler() {
+                    public void handleRecord(int recordNumber, Row row) {
+                        if (recordNumber == 3000) throw new IllegalStateException("stop");
+                    }
+                });
+                fail("expected handler error");
+            } catch (IllegalStateException e) {
+                assertEquals("stop", e.getMessage());
+            } finally {
+                dbfs.close();
+            }
+        } finally {
+            if (file.exists() && !file.delete())
+                file.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        Schema schema = new Schema();
+        SimpleField state = new SimpleField("state");
+        state.setLength(2);
+        SimpleField name = new SimpleField("name");
+        name.setLength(12);
+        schema.put(state);
+        schema.put(name);
+        String[] states = {"MA", "NH", "VT", "ME", "RI", "CT"};
+        final int count = 200;
+        File file = File.createTempFile("test", ".dbf");
+        try {
+            FileOutputStream os = new FileOutputStream(file);
+            try {
+                DbfOutputStream dbfos = new DbfOutputStream(os, null);
+                dbfos.write(schema);
+                for (int i = 0; i < count; i++) {
+                    Row row = new Row();
+                    row.putData(state, states[i % states.length]);
+                    row.putData(name, "name " + i);
+                    dbfos.write(row);
+                }
+                dbfos.close();
+            } finally {
+                os.close();
+            }
+
+            DbfInputStream dbfs = new DbfInputStream(file, null);
+            try {
+                dbfs.setDictionaryLimit(10);
+                assertEquals(10, dbfs.getDictionaryLimit());
+                Schema s = (Schema) dbfs.read();
+                SimpleField readState = s.get("state");
+                SimpleField readName = s.get("name");
+                String[] shared = new String[states.length];
+                for (int i = 0; i < count; i++) {
+                    Row row = (Row) dbfs.read();
+                    Object value = row.getData(readState);
+                    assertEquals(states[i % states.length], value);
+                    if (i < states.length) {
+                        shared[i] = (String) value;
+                    } else {
+                        assertSame(shared[i % states.length], value);
+                    }
+                    // too many distinct names, still decoded correctly
+                    assertEquals("name " + i, row.getData(readName));
+                }
+                assertNull(dbfs.read());
+            } finally {
+                dbfs.close();
+            }
+        } finally {
+            if (file.exists() && !file.delete())
+                file.deleteOnExit();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testZeroRecordSize() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(3);
+        bos.write(new byte[3]);
+        writeLE(bos, 1, 4);
+        writeLE(bos, 33, 2);
+        writeLE(bos, 0, 2);
+        bos.write(new byte[20]);
+        bos.write(0x0d);
+        new DbfInputStream(new ByteArrayInputStream(bos.toByteArray()), null);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testRandomAccessNeedsFile() throws Exception {
+        DbfInputStream dbfs = new DbfInputStream(new FileInputStream("data/shape/MBTA.dbf"), null);
+        try {
+            dbfs.readRecord(0);
+        } finally {
+            dbfs.close();
+        }
+    }
+
+    private static void writeLE(ByteArrayOutputStream bos, int value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            bos.write(value >> (8 * i));
+        }
+    }
+
     private void checkDbf(File file) throws IOException {
         if (!file.exists()) {
             throw new IllegalArgumentException("file not found: " + file);
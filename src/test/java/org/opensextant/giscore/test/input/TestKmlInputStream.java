@@ -19,6 +19,7 @@
  ***************************************************************************************/
 package org.opensextant.giscore.test.input;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -26,24 +27,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.TimeZone;
 
 import org.apache.commons.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
 import org.opensextant.geodesy.Angle;
+import org.opensextant.geodesy.Geodetic2DBounds;
 import org.opensextant.geodesy.Geodetic2DPoint;
 import org.opensextant.geodesy.Geodetic3DPoint;
 import org.opensextant.geodesy.Latitude;
 import org.opensextant.geodesy.Longitude;
 import org.opensextant.giscore.DocumentType;
 import org.opensextant.giscore.GISFactory;
+import org.opensextant.giscore.events.Common;
 import org.opensextant.giscore.events.ContainerEnd;
 import org.opensextant.giscore.events.ContainerStart;
 import org.opensextant.giscore.events.DocumentStart;
+import org.opensextant.giscore.events.Element;
 import org.opensextant.giscore.events.Feature;
 import org.opensextant.giscore.events.IGISObject;
 import org.opensextant.giscore.events.Schema;
@@ -54,10 +62,13 @@ import org.opensextant.giscore.events.StyleSelector;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.input.IGISInputStream;
 import org.opensextant.giscore.input.kml.IKml;
+import org.opensextant.giscore.input.kml.KmlContent;
 import org.opensextant.giscore.input.kml.KmlInputStream;
+import org.opensextant.giscore.input.kml.ParallelKmlInputStream;
 import org.opensextant.giscore.test.TestGISBase;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -126,6 +137,225 @@ public class TestKmlInputStream extends TestGISBase {
 		}
 	}
 
+	/**
+	 * Test element text, foreign elements and skipped elements that are read
+	 * directly from the XML cursor leave the stream on the following element.
+	 *
+	 * @throws Exception if an error occurs
+	 */
+	@Test
+	public void testCursorElements() throws Exception {
+		String kml = "<kml xmlns=\"http://www.opengis.net/kml/2.2\"" +
+				" xmlns:atom=\"http://www.w3.org/2005/Atom\" xmlns:ex=\"urn:example\">\n" +
+				"<Placemark id=\"a\">\n" +
+				" <name>first <b>bold</b> name</name>\n" +
+				" <ex:data><ex:value>1</ex:value><ex:value>2</ex:value></ex:data>\n" +
+				" <atom:author atom:lang=\"en\" kind=\"k\">by <atom:name>someone</atom:name> <![CDATA[<x>]]></atom:author>\n" +
+				" <description>text</description>\n" +
+				" <Point><coordinates>1,2</coordinates></Point>\n" +
+				"</Placemark>\n" +
+				"<Placemark id=\"b\"><name>second</name><Point><coordinates>3,4</coordinates></Point></Placemark>\n" +
+				"</kml>";
+		KmlInputStream kis = new KmlInputStream(new ByteArrayInputStream(kml.getBytes("UTF-8")));
+		try {
+			List<Feature> features = new ArrayList<Feature>();
+			IGISObject obj;
+			while ((obj = kis.read()) != null) {
+				if (obj instanceof Feature) features.add((Feature) obj);
+			}
+			assertEquals(2, features.size());
+			Feature first = features.get(0);
+			// name with child elements is skipped
+			assertNull(first.getName());
+			assertEquals("text", first.getDescription());
+			assertEquals(new Point(2, 1), first.getGeometry());
+			assertEquals(1, first.getElements().size());
+			Element author = first.getElements().get(0);
+			assertEquals("author", author.getName());
+			assertEquals("atom", author.getPrefix());
+			assertEquals("en", author.getAttributes().get("atom:lang"));
+			assertEquals("k", author.getAttributes().get("kind"));
+			assertEquals("by  <x>", author.getText());
+			assertEquals(1, author.getChildren().size());
+			assertEquals("someone", author.getChildren().get(0).getText());
+			Feature second = features.get(1);
+			assertEquals("second", second.getName());
+			assertEquals(new Point(4, 3), second.getGeometry());
+		} finally {
+			kis.close();
+		}
+	}
+
+	@Test
+	public void testParallelRead() throws Exception {
+		StringBuilder kml = new StringBuilder();
+		kml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+				.append("<kml xmlns=\"http://www.opengis.net/kml/2.2\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\">\n")
+				.append("<Document><name>doc</name>\n")
+				.append("<Schema name=\"s\" id=\"sid\"><SimpleField name=\"a\" type=\"int\"/></Schema>\n")
+				.append("<Style id=\"st\"><LineStyle><width>2</width></LineStyle></Style>\n");
+		for (int i = 0; i < 20; i++) {
+			if (i == 10) {
+				// a Schema replacing the first one and an unused one
+				kml.append("<Schema name=\"s\" id=\"sid\"><SimpleField name=\"a\" type=\"double\"/></Schema>\n")
+						.append("<Schema name=\"u\" id=\"unused\"><SimpleField name=\"b\" type=\"bool\"/></Schema>\n");
+			}
+			kml.append("<Placemark id=\"p").append(i).append("\"><name>p").append(i).append(" &amp; <![CDATA[<q>]]></name>")
+					.append("<!-- <Placemark> --><styleUrl>#st</styleUrl>")
+					.append("<ExtendedData><SchemaData schemaUrl=\"#sid\"><SimpleData name=\"a\">").append(i)
+					.append("</SimpleData></SchemaData></ExtendedData>")
+					.append("<Point><coordinates>").append(i).append(",2</coordinates></Point></Placemark>\n");
+			if (i % 7 == 3) {
+				kml.append("<Folder xmlns:ex=\"urn:example\"><name>f").append(i).append("</name>")
+						.append("<Placemark><name>nested</name><ex:data>x</ex:data></Placemark>")
+						.append("<NetworkLink><Link><href>a.kml</href></Link></NetworkLink>")
+						.append("<Folder/></Folder>\n");
+			}
+		}
+		// a foreign element, the quoted text is not a namespace declaration
+		kml.append("<Folder targetId=\"f xmlns='http://www.opengis.net/kml/2.2'\" xmlns=\"urn:example\">")
+				.append("<Placemark><name>foreign</name></Placemark></Folder>\n");
+		kml.append("<gx:Tour><name>tour</name></gx:Tour>\n")
+				.append("<GroundOverlay><name>last</name></GroundOverlay></Document>\n</kml>\n");
+		byte[] bytes = kml.toString().getBytes("UTF-8");
+
+		List<String> expected = readAll(new KmlInputStream(new ByteArrayInputStream(bytes)));
+		assertTrue(expected.size() > 40);
+		for (int chunkSize : new int[]{1, 300, 1 << 20}) {
+			List<String> actual = readAll(new ParallelKmlInputStream(new ByteArrayInputStream(bytes), 3, chunkSize));
+			assertEquals("chunkSize=" + chunkSize, expected, actual);
+		}
+	}
+
+	@Test
+	public void testSkippedContent() throws Exception {
+		String kml = "<kml xmlns=\"http://www.opengis.net/kml/2.2\"" +
+				" xmlns:atom=\"http://www.w3.org/2005/Atom\" xmlns:gx=\"http://www.google.com/kml/ext/2.2\">\n" +
+				"<Document><name>doc</name><description>about</description>\n" +
+				" <Style id=\"st\"><BalloonStyle><text>$[name]</text></BalloonStyle></Style>\n" +
+				" <StyleMap id=\"sm\"><Pair><key>normal</key><styleUrl>#st</styleUrl></Pair></StyleMap>\n" +
+				" <atom:author><atom:name>someone</atom:name></atom:author>\n" +
+				" <Placemark id=\"p\"><name>first</name><Snippet>snip</Snippet><description>desc</description>\n" +
+				"  <address>somewhere</address><LookAt><longitude>1</longitude></LookAt>\n" +
+				"  <TimeStamp><when>2013-01-02</when></TimeStamp><styleUrl>#sm</styleUrl>\n" +
+				"  <Style><LineStyle><width>2</width></LineStyle></Style>\n" +
+				"  <Region><LatLonAltBox><north>3</north><south>1</south><east>2</east><west>0</west></LatLonAltBox></Region>\n" +
+				"  <ExtendedData><Data name=\"a\"><value>1</value></Data></ExtendedData>\n" +
+				"  <gx:balloonVisibility>1</gx:balloonVisibility>\n" +
+				"  <Point><coordinates>1,2</coordinates></Point></Placemark>\n" +
+				"</Document>\n" +
+				"<Style id=\"late\"/>\n" +
+				"</kml>";
+		byte[] bytes = kml.getBytes("UTF-8");
+
+		KmlInputStream kis = new KmlInputStream(new ByteArrayInputStream(bytes));
+		assertTrue(kis.getSkippedContent().isEmpty());
+		kis.setSkippedContent(EnumSet.allOf(KmlContent.class));
+		List<IGISObject> objects = new ArrayList<IGISObject>();
+		try {
+			IGISObject obj;
+			while ((obj = kis.read()) != null) {
+				objects.add(obj);
+			}
+		} finally {
+			kis.close();
+		}
+		// DocumentStart, ContainerStart, Feature, ContainerEnd without the late Style or the foreign element
+		assertEquals(4, objects.size());
+		ContainerStart cs = (ContainerStart) objects.get(1);
+		assertEquals("doc", cs.getName());
+		assertNull(cs.getDescription());
+		assertTrue(cs.getStyles().isEmpty());
+		Feature f = (Feature) objects.get(2);
+		assertEquals("p", f.getId());
+		assertEquals("first", f.getName());
+		assertEquals("#sm", f.getStyleUrl());
+		assertEquals(new Point(2, 1), f.getGeometry());
+		assertNull(f.getSnippet());
+		assertNull(f.getDescription());
+		assertNull(f.getStyle());
+		assertNull(f.getStartDate());
+		assertNull(f.getRegion());
+		assertNull(f.getViewGroup());
+		assertFalse(f.hasExtendedData());
+		assertTrue(f.getElements().isEmpty());
+		assertTrue(objects.get(3) instanceof ContainerEnd);
+
+		// skip some, read the rest, and workers must use the same settings
+		Set<KmlContent> skipped = EnumSet.of(KmlContent.STYLES, KmlContent.EXTENDED_DATA);
+		kis = new KmlInputStream(new ByteArrayInputStream(bytes));
+		kis.setSkippedContent(skipped);
+		List<String> expected = readAll(kis);
+		assertEquals(4, expected.size()); // without the late Style
+		kis = new ParallelKmlInputStream(new ByteArrayInputStream(bytes), 2, 1);
+		kis.setSkippedContent(skipped);
+		assertEquals(skipped, kis.getSkippedContent());
+		assertEquals(expected, readAll(kis));
+	}
+
+	@Test
+	public void testSpatialFilter() throws Exception {
+		String far = "<Region><LatLonAltBox><north>60</north><south>50</south><east>60</east><west>50</west></LatLonAltBox></Region>";
+		String near = "<Region><LatLonAltBox><north>5</north><south>-5</south><east>5</east><west>-5</west></LatLonAltBox></Region>";
+		String kml = "<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document><name>doc</name>\n" +
+				"<Placemark><name>in</name><Point><coordinates>1,1</coordinates></Point></Placemark>\n" +
+				"<Placemark><name>out</name><Point><coordinates>50,50</coordinates></Point></Placemark>\n" +
+				"<Placemark><name>poly</name><Polygon>" +
+				"<outerBoundaryIs><LinearRing><coordinates>50,50 51,50 51,51 50,50</coordinates></LinearRing></outerBoundaryIs>" +
+				"<innerBoundaryIs><LinearRing><coordinates>bad</coordinates></LinearRing></innerBoundaryIs>" +
+				"</Polygon><ExtendedData><Data name=\"a\"><value>1</value></Data></ExtendedData></Placemark>\n" +
+				"<Placemark><name>line</name><LineString><coordinates>-20,1 20,1</coordinates></LineString></Placemark>\n" +
+				"<Placemark><name>none</name></Placemark>\n" +
+				"<Placemark><name>multi</name><MultiGeometry><Point><coordinates>50,50</coordinates></Point>" +
+				"<Point><coordinates>2,2</coordinates></Point></MultiGeometry></Placemark>\n" +
+				"<Folder><name>far</name>" + far + "<Folder><name>nested</name>" +
+				"<Placemark><name>skipped</name><Point><coordinates>1,1</coordinates></Point></Placemark></Folder>" +
+				"<Placemark><name>skipped</name><Point><coordinates>1,1</coordinates></Point></Placemark></Folder>\n" +
+				"<Folder><name>near</name>" + near +
+				"<Placemark><name>in folder</name><Point><coordinates>1,1</coordinates></Point></Placemark></Folder>\n" +
+				"<Placemark><name>last</name><Point><coordinates>3,3</coordinates></Point></Placemark>\n" +
+				"</Document></kml>";
+		byte[] bytes = kml.getBytes("UTF-8");
+		Geodetic2DBounds bounds = new Geodetic2DBounds(makePoint(0, 0), makePoint(10, 10));
+
+		KmlInputStream kis = new KmlInputStream(new ByteArrayInputStream(bytes));
+		assertNull(kis.getSpatialFilter());
+		kis.setSpatialFilter(bounds);
+		assertEquals(bounds, kis.getSpatialFilter());
+		List<String> names = new ArrayList<String>();
+		try {
+			IGISObject obj;
+			while ((obj = kis.read()) != null) {
+				if (obj instanceof Common) names.add(((Common) obj).getName());
+				else if (obj instanceof ContainerEnd) names.add("end");
+			}
+		} finally {
+			kis.close();
+		}
+		assertEquals(Arrays.asList("doc", "in", "line", "none", "multi", "near", "in folder", "end", "last", "end"), names);
+
+		kis = new KmlInputStream(new ByteArrayInputStream(bytes));
+		kis.setSpatialFilter(bounds);
+		List<String> expected = readAll(kis);
+		kis = new ParallelKmlInputStream(new ByteArrayInputStream(bytes), 2, 1);
+		kis.setSpatialFilter(bounds);
+		assertEquals(expected, readAll(kis));
+	}
+
+	private static List<String> readAll(KmlInputStream kis) throws IOException {
+		List<String> objects = new ArrayList<String>();
+		try {
+			IGISObject obj;
+			while ((obj = kis.read()) != null) {
+				// identity hash codes differ between the streams
+				objects.add(obj.toString().replaceAll("@[0-9a-f]+\\[", "["));
+			}
+		} finally {
+			kis.close();
+		}
+		return objects;
+	}
+
 	@Test public void testLargerSample() throws IOException {
 		InputStream stream = getStream("KML_sample1.kml");
 		try {
@@ -350,6 +580,42 @@ public class TestKmlInputStream extends TestGISBase {
 					makePoint(10, 20, 300),
 				}
 		);
+
+		// tuples with and without altitude keep their own dimension
+		checkCoordString("1,2,3 4,5",
+				new Geodetic2DPoint[] {
+					makePoint(1, 2, 3),
+					makePoint(4, 5),
+				}
+		);
+
+		// quoted text and text after a slash to the end of the line are ignored
+		checkCoordString("1,2 \"5,6\" 3,4",
+				new Geodetic2DPoint[] {
+					makePoint(1, 2),
+					makePoint(3, 4),
+				}
+		);
+		checkCoordString("1,2 // 5,6\n3,4",
+				new Geodetic2DPoint[] {
+					makePoint(1, 2),
+					makePoint(3, 4),
+				}
+		);
+
+		// values with more digits than fit exactly in a long
+		checkCoordString("-81.99164660790431234,29.942038705281501234",
+				new Geodetic2DPoint[] {
+					makePoint(-81.99164660790431234, 29.942038705281501234),
+				}
+		);
+
+		// callers may modify the result
+		List<Point> list = KmlInputStream.parseCoord("1,2 3,4");
+		list.add(new Point(5, 6));
+		list.remove(0);
+		assertEquals(2, list.size());
+		KmlInputStream.parseCoord(null).add(new Point(5, 6));
 	}
 
 	private void checkCoordString(String coord, Geodetic2DPoint[] geoPoints) {
@@ -22,10 +22,24 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import org.opensextant.geodesy.Angle;
+import org.opensextant.geodesy.Geodetic2DBounds;
+import org.opensextant.geodesy.Geodetic2DPoint;
+import org.opensextant.geodesy.Latitude;
+import org.opensextant.geodesy.Longitude;
 import org.opensextant.giscore.DocumentType;
 import org.opensextant.giscore.GISFactory;
 import org.opensextant.giscore.IAcceptSchema;
@@ -41,12 +55,15 @@ import org.opensextant.giscore.geometry.MultiPolygons;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.geometry.Polygon;
 import org.opensextant.giscore.input.IGISInputStream;
+import org.opensextant.giscore.input.shapefile.QuadTreeIndex;
 import org.opensextant.giscore.input.shapefile.ShapefileInputStream;
 import org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * Test single shapefile reader
@@ -84,6 +101,275 @@ public class TestShapefileInput {
 		}
 	}
 
+	@Test public void testMappedMatchesStream() throws Exception {
+		SingleShapefileInputHandler mapped = new SingleShapefileInputHandler(shpdir, "multipolyz");
+		SingleShapefileInputHandler streamed = new SingleShapefileInputHandler(
+				new FileInputStream(new File(shpdir, "multipolyz.shp")), null, "multipolyz");
+		try {
+			IGISObject ob;
+			int count = 0;
+			while((ob = mapped.read()) != null) {
+				if (ob instanceof Schema) continue;
+				Feature f = (Feature) ob;
+				Feature other = (Feature) streamed.read();
+				assertNotNull(other);
+				assertEquals(f.getGeometry(), other.getGeometry());
+				count++;
+			}
+			assertNull(streamed.read());
+			assertTrue(count > 0);
+		} finally {
+			mapped.close();
+			streamed.close();
+		}
+	}
+
+	@Test public void testRandomAccess() throws Exception {
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "points");
+		try {
+			List<Feature> features = new ArrayList<Feature>();
+			IGISObject ob;
+			while((ob = handler.read()) != null) {
+				if (ob instanceof Feature) features.add((Feature) ob);
+			}
+			assertEquals(features.size(), handler.getRecordCount());
+			for (int i = features.size() - 1; i >= 0; i -= 3) {
+				Feature f = handler.read(i);
+				assertEquals(features.get(i).getGeometry(), f.getGeometry());
+				assertEquals(features.get(i).getEntrySet(), f.getEntrySet());
+			}
+			handler.seek(1);
+			for (int i = 1; i < features.size(); i++) {
+				Feature f = (Feature) handler.read();
+				assertEquals(features.get(i).getGeometry(), f.getGeometry());
+			}
+			assertNull(handler.read());
+		} finally {
+			handler.close();
+		}
+	}
+
+	@Test public void testFilterBounds() throws Exception {
+		Geodetic2DBounds bounds = new Geodetic2DBounds(
+				new Geodetic2DPoint(new Longitude(-78, Angle.DEGREES), new Latitude(40, Angle.DEGREES)),
+				new Geodetic2DPoint(new Longitude(-77, Angle.DEGREES), new Latitude(40.5, Angle.DEGREES)));
+		List<Geometry> expected = new ArrayList<Geometry>();
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "counties67");
+		try {
+			IGISObject ob;
+			while((ob = handler.read()) != null) {
+				if (ob instanceof Feature) {
+					Geometry geo = ((Feature) ob).getGeometry();
+					if (geo != null && geo.getBoundingBox().intersects(bounds)) expected.add(geo);
+				}
+			}
+		} finally {
+			handler.close();
+		}
+		assertTrue(expected.size() > 0);
+
+		ShapefileInputStream sis = new ShapefileInputStream(new File(shpdir, "counties67.shp"), (IAcceptSchema) null);
+		sis.setFilterBounds(bounds);
+		try {
+			List<Geometry> actual = new ArrayList<Geometry>();
+			IGISObject ob;
+			while((ob = sis.read()) != null) {
+				if (ob instanceof Feature) actual.add(((Feature) ob).getGeometry());
+			}
+			assertEquals(expected, actual);
+		} finally {
+			sis.close();
+		}
+	}
+
+	@Test public void testSpatialIndex() throws Exception {
+		Geodetic2DBounds bounds = new Geodetic2DBounds(
+				new Geodetic2DPoint(new Longitude(-78, Angle.DEGREES), new Latitude(40, Angle.DEGREES)),
+				new Geodetic2DPoint(new Longitude(-77, Angle.DEGREES), new Latitude(40.5, Angle.DEGREES)));
+		List<Geometry> expected = new ArrayList<Geometry>();
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "counties67");
+		try {
+			handler.setUseSpatialIndex(false);
+			handler.setFilterBounds(bounds);
+			IGISObject ob;
+			while((ob = handler.read()) != null) {
+				if (ob instanceof Feature) expected.add(((Feature) ob).getGeometry());
+			}
+		} finally {
+			handler.close();
+		}
+		assertTrue(expected.size() > 0);
+
+		File qixFile = File.createTempFile("counties67", ".qix");
+		handler = new SingleShapefileInputHandler(shpdir, "counties67");
+		try {
+			QuadTreeIndex index = handler.getSpatialIndex();
+			assertEquals(handler.getRecordCount(), index.getShapeCount());
+			index.write(qixFile);
+			QuadTreeIndex copy = QuadTreeIndex.read(qixFile);
+			assertEquals(index.getDepth(), copy.getDepth());
+			assertTrue(Arrays.equals(index.query(-78, 40, -77, 40.5), copy.query(-78, 40, -77, 40.5)));
+
+			handler.setSpatialIndex(copy);
+			handler.setFilterBounds(bounds);
+			List<Geometry> actual = new ArrayList<Geometry>();
+			IGISObject ob;
+			while((ob = handler.read()) != null) {
+				if (ob instanceof Feature) actual.add(((Feature) ob).getGeometry());
+			}
+			assertEquals(expected, actual);
+		} finally {
+			handler.close();
+			qixFile.delete();
+		}
+	}
+
+	@Test public void testSpatialIndexEdgeCases() {
+		// no record has geometry: an empty root with an all-zero extent
+		QuadTreeIndex index = QuadTreeIndex.create(new double[]{Double.NaN, Double.NaN, Double.NaN, Double.NaN}, 1);
+		assertEquals(1, index.getShapeCount());
+		assertEquals(1, index.getDepth());
+		assertEquals(0, index.query(-180, -90, 180, 90).length);
+		assertEquals(0, index.query(0, 0, 0, 0).length);
+
+		// a single record is kept in the root
+		index = QuadTreeIndex.create(new double[]{10, 20, 10, 20}, 1);
+		assertEquals(1, index.getDepth());
+		assertTrue(Arrays.equals(new int[]{0}, index.query(0, 0, 15, 25)));
+		assertEquals(0, index.query(-10, -10, 0, 0).length);
+
+		// the depth is that of the tree built, not the deepest one allowed
+		double[] bounds = new double[4 * 20];
+		Arrays.fill(bounds, Double.NaN);
+		bounds[0] = -10; bounds[1] = -10; bounds[2] = 10; bounds[3] = 10;
+		index = QuadTreeIndex.create(bounds, 20);
+		assertEquals(1, index.getDepth());
+		Arrays.fill(bounds, 5);
+		index = QuadTreeIndex.create(bounds, 20);
+		assertEquals(4, index.getDepth());
+		assertEquals(20, index.query(0, 0, 10, 10).length);
+	}
+
+	@Test public void testLazyGeometry() throws Exception {
+		List<Feature> expected = new ArrayList<Feature>();
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "counties67");
+		try {
+			IGISObject ob;
+			while((ob = handler.read()) != null) {
+				if (ob instanceof Feature) expected.add((Feature) ob);
+			}
+		} finally {
+			handler.close();
+		}
+
+		ShapefileInputStream sis = new ShapefileInputStream(new File(shpdir, "counties67.shp"), (IAcceptSchema) null);
+		sis.setLazyGeometry(true);
+		try {
+			List<Feature> actual = new ArrayList<Feature>();
+			IGISObject ob;
+			while((ob = sis.read()) != null) {
+				if (ob instanceof Feature) {
+					Feature f = (Feature) ob;
+					assertTrue(f.hasPendingGeometry());
+					actual.add(f);
+				}
+			}
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				Feature f = actual.get(i);
+				assertEquals(expected.get(i).getGeometry(), f.getGeometry());
+				assertTrue(!f.hasPendingGeometry());
+				assertEquals(expected.get(i), f);
+			}
+		} finally {
+			sis.close();
+		}
+	}
+
+	@Test public void testParallelDecoding() throws Exception {
+		List<Geometry> expected = new ArrayList<Geometry>();
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "counties67");
+		try {
+			IGISObject ob;
+			while((ob = handler.read()) != null) {
+				if (ob instanceof Feature) expected.add(((Feature) ob).getGeometry());
+			}
+		} finally {
+			handler.close();
+		}
+
+		List<Geometry> ordered = new ArrayList<Geometry>();
+		List<Geometry> unordered = new ArrayList<Geometry>();
+		for (boolean preserveOrder : new boolean[] { true, false }) {
+			handler = new SingleShapefileInputHandler(shpdir, "counties67");
+			handler.setParallelism(4);
+			handler.setPreserveOrder(preserveOrder);
+			try {
+				IGISObject ob;
+				while((ob = handler.read()) != null) {
+					if (ob instanceof Feature) {
+						(preserveOrder ? ordered : unordered).add(((Feature) ob).getGeometry());
+					}
+				}
+			} finally {
+				handler.close();
+			}
+		}
+		assertEquals(expected, ordered);
+		assertEquals(expected.size(), unordered.size());
+		assertTrue(unordered.containsAll(expected));
+	}
+
+	@Test public void testParallelDecodingError() throws Exception {
+		// latitude of the first point out of range
+		Class<?> pointError = checkDecodingError("points", 100 + 8 + 4 + 8);
+		assertEquals(IOException.class, pointError);
+		// y of the first vertex of the first line out of range
+		Class<?> lineError = checkDecodingError("lines", 100 + 8 + 4 + 32 + 8 + 4 + 8);
+		assertEquals(IllegalArgumentException.class, lineError);
+	}
+
+	/**
+	 * Read a copy of the given shapefile with a latitude of 100 written at
+	 * offset in the .shp file, and check that decoding on the calling thread or
+	 * on worker threads fails with the same exception.
+	 * @return the class of the exception thrown
+	 */
+	private Class<?> checkDecodingError(String name, int offset) throws IOException {
+		File dir = Files.createTempDirectory("bad" + name).toFile();
+		try {
+			for (String ext : new String[] { ".shp", ".shx", ".dbf", ".prj" }) {
+				FileUtils.copyFile(new File(shpdir, name + ext), new File(dir, name + ext));
+			}
+			RandomAccessFile raf = new RandomAccessFile(new File(dir, name + ".shp"), "rw");
+			try {
+				raf.seek(offset);
+				raf.write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(100).array());
+			} finally {
+				raf.close();
+			}
+			Class<?> expected = null;
+			for (int parallelism : new int[] { 1, 4 }) {
+				SingleShapefileInputHandler handler = new SingleShapefileInputHandler(dir, name);
+				handler.setParallelism(parallelism);
+				try {
+					while (handler.read() != null) {
+						// read until the bad record
+					}
+					fail("Expected decoding error for " + name);
+				} catch (IOException | IllegalArgumentException e) {
+					if (expected == null) expected = e.getClass();
+					else assertEquals(expected, e.getClass());
+				} finally {
+					handler.close();
+				}
+			}
+			return expected;
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
 	@Test(expected=IOException.class)
 	public void testBadStream() throws Exception {
 		new ShapefileInputStream(new ByteArrayInputStream(new byte[0]), new Object[0]);
@@ -192,6 +478,43 @@ public class TestShapefileInput {
 		}
 	}
 
+	@Test public void testReadZipInPlace() throws Exception {
+		ShapefileInputStream sis = new ShapefileInputStream(new File(shpdir, "afghanistan.zip"), (IAcceptSchema) null);
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, "afghanistan");
+		try {
+			Schema schema = (Schema) sis.read();
+			assertEquals("afghanistan", schema.getName());
+			assertEquals(((Schema) handler.read()).getKeys(), schema.getKeys());
+			Feature expected = (Feature) handler.read();
+			Feature f = (Feature) sis.read();
+			assertEquals(expected.getGeometry(), f.getGeometry());
+			assertEquals(expected.getEntrySet(), f.getEntrySet());
+			assertNull(sis.read());
+		} finally {
+			sis.close();
+			handler.close();
+		}
+
+		int extracted = 0;
+		IGISInputStream stream = new ShapefileInputStream(new ZipInputStream(
+				new FileInputStream(new File(shpdir, "testLayersShp.zip"))), new Object[0]);
+		try {
+			while (stream.read() != null) extracted++;
+		} finally {
+			stream.close();
+		}
+		int inPlace = 0;
+		ZipFile zip = new ZipFile(new File(shpdir, "testLayersShp.zip"));
+		try {
+			stream = new ShapefileInputStream(zip, null);
+			while (stream.read() != null) inPlace++;
+			stream.close();
+		} finally {
+			zip.close();
+		}
+		assertEquals(extracted, inPlace);
+	}
+
 	private void doTest(String file, Class geoclass) throws URISyntaxException, IOException {
 		System.out.println("Test " + file);
 		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(shpdir, file);
@@ -0,0 +1,108 @@
+/****************************************************************************************
+ *  TestShapefileInputPerformance.java
+ *
+ *  (C) Copyright MITRE Corporation 2013
+ *
+ *  The program is provided "as is" without any warranty express or implied, including
+ *  the warranty of non-infringement and the implied warranties of merchantibility and
+ *  fitness for a particular purpose.  The Copyright owner will not be liable for any
+ *  damages suffered by you as a result of using the Program.  In no event will the
+ *  Copyright owner be liable for any special, indirect or consequential damages or
+ *  lost profits even if the Copyright owner has been advised of the possibility of
+ *  their occurrence.
+ *
+ ***************************************************************************************/
+package org.opensextant.giscore.test.input;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opensextant.giscore.events.Feature;
+import org.opensextant.giscore.events.IGISObject;
+import org.opensextant.giscore.events.Schema;
+import org.opensextant.giscore.events.SimpleField;
+import org.opensextant.giscore.geometry.Geometry;
+import org.opensextant.giscore.geometry.LinearRing;
+import org.opensextant.giscore.geometry.MultiPolygons;
+import org.opensextant.giscore.geometry.Point;
+import org.opensextant.giscore.geometry.Polygon;
+import org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler;
+import org.opensextant.giscore.output.shapefile.SingleShapefileOutputHandler;
+import org.opensextant.giscore.test.TestGISBase;
+import org.opensextant.giscore.utils.FieldCachingObjectBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Time the assembly of polygons with thousands of parts, as found in country
+ * and coastline shapefiles. Excluded from the default test run in build.gradle.
+ */
+public class TestShapefileInputPerformance extends TestGISBase {
+	public static final int polycount = 2500;
+	public static final int ringsize = 40;
+
+	@Test public void readManyPartPolygon() throws Exception {
+		Schema schema = new Schema(new URI("urn:test"));
+		SimpleField id = new SimpleField("testid");
+		id.setLength(10);
+		schema.put(id);
+		List<Polygon> polys = new ArrayList<Polygon>(polycount);
+		int columns = (int) Math.sqrt(polycount);
+		for (int i = 0; i < polycount; i++) {
+			double lon = -170.0 + 0.5 * (i % columns);
+			double lat = -80.0 + 0.5 * (i / columns);
+			LinearRing outer = getCircle(lat, lon, 0.2, true);
+			List<LinearRing> inner = new ArrayList<LinearRing>(1);
+			inner.add(getCircle(lat, lon, 0.1, false));
+			polys.add(new Polygon(outer, inner));
+		}
+		Feature f = new Feature();
+		f.putData(id, "coast");
+		f.setSchema(schema.getId());
+		f.setGeometry(new MultiPolygons(polys));
+		FieldCachingObjectBuffer buffer = new FieldCachingObjectBuffer();
+		try {
+			buffer.write(f);
+			SingleShapefileOutputHandler soh = new SingleShapefileOutputHandler(
+					schema, null, buffer, tempdir, "manyparts", null);
+			soh.process();
+		} finally {
+			buffer.close();
+		}
+
+		SingleShapefileInputHandler handler = new SingleShapefileInputHandler(tempdir, "manyparts");
+		try {
+			long start = System.currentTimeMillis();
+			IGISObject ob;
+			Geometry geo = null;
+			while ((ob = handler.read()) != null) {
+				if (ob instanceof Feature) geo = ((Feature) ob).getGeometry();
+			}
+			long delta = System.currentTimeMillis() - start;
+			System.out.println("Reading polygon with " + (2 * polycount) + " parts took " + delta + " ms");
+			assertTrue(geo instanceof MultiPolygons);
+			MultiPolygons mp = (MultiPolygons) geo;
+			assertEquals(polycount, mp.getNumParts());
+			for (Polygon poly : mp.getPolygons()) {
+				assertTrue(poly.getOuterRing().clockwise());
+				assertEquals(1, poly.getLinearRings().size());
+			}
+		} finally {
+			handler.close();
+		}
+	}
+
+	private static LinearRing getCircle(double lat, double lon, double radius, boolean clockwise) {
+		List<Point> pts = new ArrayList<Point>(ringsize + 1);
+		for (int i = 0; i < ringsize; i++) {
+			double theta = 2 * Math.PI * i / ringsize;
+			if (clockwise) theta = -theta;
+			pts.add(new Point(lat + radius * Math.sin(theta), lon + radius * Math.cos(theta)));
+		}
+		pts.add(pts.get(0));
+		return new LinearRing(pts);
+	}
+}
@@ -18,10 +18,14 @@
  ***************************************************************************************/
 package org.opensextant.giscore.test.output;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.text.DecimalFormat;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -30,6 +34,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.TimeZone;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
@@ -364,6 +369,152 @@ public class TestDbfOutputStream {
 		}
 	}
 
+    @Test
+    public void testDbfOutputStreamFormatting() throws Exception {
+        Schema s = new Schema();
+        SimpleField db = new SimpleField("db", Type.DOUBLE);
+        SimpleField li = new SimpleField("li", Type.LONG);
+        li.setLength(20);
+        SimpleField it = new SimpleField("it", Type.INT);
+        SimpleField date = new SimpleField("date", Type.DATE);
+        s.put(db);
+        s.put(li);
+        s.put(it);
+        s.put(date);
+
+        List<Double> doubles = new ArrayList<Double>();
+        double[] special = {0.0, -0.0, 1.0, -1.0, 0.1, 0.5, 1e-7, 123.456, -98765.4321,
+                1e15, 1e16, 9007199254740993.0, 1e22, 1e-300, Double.MAX_VALUE, Double.MIN_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (double d : special) doubles.add(d);
+        for (int i = 0; i < 2000; i++) {
+            double d = rand.nextDouble() * Math.pow(10, rand.nextInt(30) - 12);
+            if (i % 3 == 0) d = Math.round(d * 1000) / 1000.0; // few fraction digits
+            if (i % 2 == 0) d = -d;
+            doubles.add(d);
+        }
+        long[] longs = {0, -1, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE, 1234567890123L};
+        long[] dates = {0, -1, -12219292800000L, -12219292800001L, -62135769600000L,
+                253402300799999L, 253402300800000L, 951782400000L, 951868800000L};
+
+        int count = doubles.size();
+        long[] rowLongs = new long[count];
+        long[] rowDates = new long[count];
+        for (int i = 0; i < count; i++) {
+            rowLongs[i] = i < longs.length ? longs[i] : rand.nextLong() >> rand.nextInt(64);
+            // years up to 10000, before and after the Gregorian cutover
+            rowDates[i] = i < dates.length ? dates[i] : rand.nextLong() % 253402300800000L;
+        }
+
+        File temp = File.createTempFile("test", ".dbf");
+        FileOutputStream os = new FileOutputStream(temp);
+        try {
+            DbfOutputStream dbfos = new DbfOutputStream(os, null);
+            dbfos.write(s);
+            for (int i = 0; i < count; i++) {
+                Row r = new Row();
+                r.putData(db, doubles.get(i));
+                r.putData(li, rowLongs[i]);
+                r.putData(it, (int) rowLongs[i]);
+                r.putData(date, new Date(rowDates[i]));
+                dbfos.write(r);
+            }
+            dbfos.close();
+            os.close();
+            os = null;
+
+            // compare each field's text with the formats the values used to be written with
+            DecimalFormat decimalFormat = new DecimalFormat(
+                    "+###############0.################;-###############0.################");
+            SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
+            dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+            byte[] bytes = FileUtils.readFileToByteArray(temp);
+            int pos = 32 + 4 * 32 + 1;
+            for (int i = 0; i < count; i++) {
+                assertEquals(' ', bytes[pos++]);
+                double d = doubles.get(i);
+                String expected = decimalFormat.format(d);
+                if (expected.length() <= 34) {
+                    // non-ascii NaN and infinity symbols are written as '?'
+                    expected = new String(expected.getBytes("US-ASCII"), "US-ASCII");
+                    assertEquals(Double.toString(d), StringUtils.leftPad(expected, 34),
+                            new String(bytes, pos, 34, "US-ASCII"));
+                }
+                pos += 34;
+                assertEquals(fit(Long.toString(rowLongs[i]), 20, true), new String(bytes, pos, 20, "US-ASCII"));
+                pos += 20;
+                assertEquals(fit(Integer.toString((int) rowLongs[i]), 10, true), new String(bytes, pos, 10, "US-ASCII"));
+                pos += 10;
+                assertEquals(fit(dateFormat.format(new Date(rowDates[i])), 8, false),
+                        new String(bytes, pos, 8, "US-ASCII"));
+                pos += 8;
+            }
+        } finally {
+            IOUtils.closeQuietly(os);
+            if (temp.exists() && !temp.delete())
+                temp.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void testDbfOutputStreamSeekable() throws Exception {
+        Schema s = new Schema();
+        SimpleField name = new SimpleField("name");
+        name.setLength(12);
+        SimpleField count = new SimpleField("count", Type.INT);
+        s.put(name);
+        s.put(count);
+        List<Row> rows = new ArrayList<Row>();
+        for (int i = 0; i < 1000; i++) {
+            Row r = new Row();
+            r.putData(name, randomString(name));
+            r.putData(count, rand.nextInt());
+            rows.add(r);
+        }
+
+        // rows are written to the file as they arrive
+        File temp = File.createTempFile("test", ".dbf");
+        FileOutputStream os = new FileOutputStream(temp);
+        try {
+            DbfOutputStream dbfos = new DbfOutputStream(os, null);
+            dbfos.write(s);
+            for (Row r : rows) {
+                dbfos.write(r);
+            }
+            assertTrue(temp.length() > 0);
+            dbfos.close();
+            os = null;
+
+            // and buffered for a stream that cannot be patched
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            dbfos = new DbfOutputStream(bos, null);
+            dbfos.write(s);
+            for (Row r : rows) {
+                dbfos.write(r);
+            }
+            dbfos.close();
+            assertTrue(Arrays.equals(bos.toByteArray(), FileUtils.readFileToByteArray(temp)));
+        } finally {
+            IOUtils.closeQuietly(os);
+            if (temp.exists() && !temp.delete())
+                temp.deleteOnExit();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDbfOutputStreamRowBeforeSchema() throws Exception {
+        File temp = File.createTempFile("test", ".dbf");
+        FileOutputStream os = new FileOutputStream(temp);
+        try {
+            DbfOutputStream dbfos = new DbfOutputStream(os, null);
+            dbfos.writeRow(new Row());
+        } finally {
+            IOUtils.closeQuietly(os);
+            if (temp.exists() && !temp.delete())
+                temp.deleteOnExit();
+        }
+    }
+
     @Test
     public void testDbfOutputStreamDate() throws Exception {
         Schema s = new Schema();
@@ -435,6 +586,14 @@ public class TestDbfOutputStream {
         }
     }
 
+    /**
+     * Pad or truncate a value to the field width
+     */
+    private static String fit(String value, int width, boolean right) {
+        if (value.length() >= width) return value.substring(0, width);
+        return right ? StringUtils.leftPad(value, width) : StringUtils.rightPad(value, width);
+    }
+
     private void compare(SimpleField orig, SimpleField read) {
         assertEquals(orig.getName(), read.getName());
         // Not really correct as the lengths from the dbf file are generally longer
@@ -19,17 +19,27 @@
 package org.opensextant.giscore.test.output;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.math.RandomUtils;
 import org.junit.Test;
 import org.opensextant.giscore.DocumentType;
 import org.opensextant.giscore.GISFactory;
+import org.opensextant.giscore.events.ContainerEnd;
 import org.opensextant.giscore.events.ContainerStart;
 import org.opensextant.giscore.events.DocumentStart;
 import org.opensextant.giscore.events.Feature;
@@ -45,14 +55,18 @@ import org.opensextant.giscore.geometry.MultiPoint;
 import org.opensextant.giscore.geometry.MultiPolygons;
 import org.opensextant.giscore.geometry.Point;
 import org.opensextant.giscore.geometry.Polygon;
+import org.opensextant.giscore.input.shapefile.QuadTreeIndex;
 import org.opensextant.giscore.input.shapefile.SingleShapefileInputHandler;
 import org.opensextant.giscore.output.IGISOutputStream;
+import org.opensextant.giscore.output.shapefile.ShapefileOutputStream;
 import org.opensextant.giscore.output.shapefile.SingleShapefileOutputHandler;
 import org.opensextant.giscore.utils.FieldCachingObjectBuffer;
+import org.opensextant.giscore.utils.ICancelable;
 import org.opensextant.giscore.utils.ObjectBuffer;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class TestShapefileOutput extends TestShapefileBase {
 
@@ -247,6 +261,388 @@ public class TestShapefileOutput extends TestShapefileBase {
         }
     }
 
+    @Test
+    public void testSpatialIndexOutput() throws Exception {
+        Schema schema = new Schema(new URI("urn:test"));
+        SimpleField id = new SimpleField("testid");
+        id.setLength(10);
+        schema.put(id);
+        ObjectBuffer buffer = new FieldCachingObjectBuffer();
+        for (int i = 0; i < 50; i++) {
+            Feature f = new Feature();
+            f.putData(id, "id " + i);
+            f.setSchema(schema.getId());
+            f.setGeometry(getRandomPoint());
+            buffer.write(f);
+        }
+        File qixFile = new File(shapeOutputDir, "indexedPoints.qix");
+        qixFile.delete();
+        try {
+            SingleShapefileOutputHandler soh = new SingleShapefileOutputHandler(
+                    schema, null, buffer, shapeOutputDir, "indexedPoints", null);
+            soh.setWriteSpatialIndex(true);
+            soh.process();
+        } finally {
+            buffer.close();
+        }
+        assertTrue(qixFile.exists());
+        QuadTreeIndex index = QuadTreeIndex.read(qixFile);
+        assertEquals(50, index.getShapeCount());
+        // every point is found by a query covering the world
+        assertEquals(50, index.query(-180, -90, 180, 90).length);
+    }
+
+    @Test
+    public void testStreamingOutput() throws Exception {
+        Schema schema = new Schema(new URI("urn:test"));
+        SimpleField id = new SimpleField("testid");
+        id.setLength(10);
+        schema.put(id);
+        SimpleField dtm = new SimpleField("dtm", Type.DATE);
+        schema.put(dtm);
+        List<Feature> features = new ArrayList<Feature>();
+        for (int i = 0; i < 20; i++) {
+            Feature f = new Feature();
+            f.putData(id, "id " + i);
+            f.putData(dtm, new Date(System.currentTimeMillis()));
+            f.setSchema(schema.getId());
+            List<Point> pts = new ArrayList<Point>();
+            for (int j = 0; j < 5; j++) {
+                pts.add(getRandomPoint());
+            }
+            // lines and points end up in separate shapefiles
+            f.setGeometry(i % 4 == 0 ? getRandomPoint() : new Line(pts));
+            features.add(f);
+        }
+        File buffered = new File(shapeOutputDir, "buffered");
+        File streamed = new File(shapeOutputDir, "streamed");
+        FileUtils.deleteDirectory(buffered);
+        FileUtils.deleteDirectory(streamed);
+        for (File dir : new File[]{buffered, streamed}) {
+            ShapefileOutputStream shpos = new ShapefileOutputStream(null, dir, null, null);
+            shpos.setStreaming(dir == streamed);
+            shpos.write(schema);
+            ContainerStart cs = new ContainerStart("Folder");
+            cs.setName("lines");
+            shpos.write(cs);
+            for (Feature f : features) {
+                shpos.write(f);
+            }
+            shpos.write(new ContainerEnd());
+            shpos.close();
+        }
+        String[] names = buffered.list();
+        Arrays.sort(names);
+        String[] streamedNames = streamed.list();
+        Arrays.sort(streamedNames);
+        assertEquals(Arrays.asList(names), Arrays.asList(streamedNames));
+        assertEquals(8, names.length); // prj, shp, shx and dbf for each layer
+        for (String name : names) {
+            assertTrue(name, Arrays.equals(FileUtils.readFileToByteArray(new File(buffered, name)),
+                    FileUtils.readFileToByteArray(new File(streamed, name))));
+        }
+    }
+
+    @Test
+    public void testParallelOutput() throws Exception {
+        Schema schema = new Schema(new URI("urn:test"));
+        SimpleField id = new SimpleField("testid");
+        id.setLength(10);
+        schema.put(id);
+        List<Feature> features = new ArrayList<Feature>();
+        for (int i = 0; i < 40; i++) {
+            Feature f = new Feature();
+            f.putData(id, "id " + i);
+            f.setSchema(schema.getId());
+            List<Point> pts = new ArrayList<Point>();
+            for (int j = 0; j < 5; j++) {
+                pts.add(getRandomPoint());
+            }
+            f.setGeometry(i % 2 == 0 ? getRandomPoint() : new Line(pts));
+            features.add(f);
+        }
+        File serial = new File(shapeOutputDir, "serial");
+        File parallel = new File(shapeOutputDir, "parallel");
+        FileUtils.deleteDirectory(serial);
+        FileUtils.deleteDirectory(parallel);
+        for (File dir : new File[]{serial, parallel}) {
+            ShapefileOutputStream shpos = new ShapefileOutputStream(null, dir, null, null);
+            shpos.setParallelism(dir == parallel ? 4 : 1);
+            shpos.write(schema);
+            // one folder per group of features, each with a point and a line layer
+            for (int i = 0; i < features.size(); i++) {
+                if (i % 10 == 0) {
+                    if (i > 0) shpos.write(new ContainerEnd());
+                    ContainerStart cs = new ContainerStart("Folder");
+                    cs.setName("group" + i);
+                    shpos.write(cs);
+                }
+                shpos.write(features.get(i));
+            }
+            shpos.write(new ContainerEnd());
+            shpos.close();
+        }
+        String[] names = serial.list();
+        Arrays.sort(names);
+        String[] parallelNames = parallel.list();
+        Arrays.sort(parallelNames);
+        assertEquals(Arrays.asList(names), Arrays.asList(parallelNames));
+        assertEquals(32, names.length); // 4 groups of point and line layers
+        for (String name : names) {
+            assertTrue(name, Arrays.equals(FileUtils.readFileToByteArray(new File(serial, name)),
+                    FileUtils.readFileToByteArray(new File(parallel, name))));
+        }
+    }
+
+    @Test
+    public void testDirectZipOutput() throws Exception {
+        Schema schema = new Schema(new URI("urn:test"));
+        SimpleField id = new SimpleField("testid");
+        id.setLength(10);
+        schema.put(id);
+        List<Feature> features = new ArrayList<Feature>();
+        for (int j = 0; j < 20; j++) {
+            Feature f = new Feature();
+            f.putData(id, "id " + j);
+            f.setSchema(schema.getId());
+            f.setGeometry(j % 2 == 0 ? getRandomPoint() : new Line(Arrays.asList(getRandomPoint(), getRandomPoint())));
+            features.add(f);
+        }
+        File[] zips = new File[2];
+        for (int i = 0; i < 2; i++) {
+            // same name for both so the entries have the same prefix
+            File parent = new File(shapeOutputDir, "zip" + i);
+            parent.mkdirs();
+            File dir = new File(parent, "zipped");
+            FileUtils.deleteDirectory(dir);
+            zips[i] = new File(parent, "zipped.zip");
+            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zips[i]));
+            try {
+                ShapefileOutputStream shpos = new ShapefileOutputStream(zos, dir, null, null);
+                shpos.setWriteSpatialIndex(true);
+                shpos.setDirectZip(i == 1);
+                shpos.write(schema);
+                for (Feature f : features) {
+                    shpos.write(f);
+                }
+                shpos.close();
+            } finally {
+                zos.close();
+            }
+            assertEquals(i == 0, dir.exists());
+        }
+        Map<String, byte[]> expected = readZip(zips[0]);
+        Map<String, byte[]> actual = readZip(zips[1]);
+        assertEquals(expected.keySet(), actual.keySet());
+        assertEquals(10, expected.size()); // prj, shp, shx, qix and dbf for each layer
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertTrue(entry.getKey(), Arrays.equals(entry.getValue(), actual.get(entry.getKey())));
+        }
+    }
+
+    @Test
+    public void testDirectZipOutputFailure() throws Exception {
+        Schema schema = new Schema(new URI("urn:test"));
+        SimpleField id = new SimpleField("testid");
+        id.setLength(10);
+        schema.put(id);
+        ObjectBuffer buffer = new FieldCachingObjectBuffer();
+        File file = new File(shapeOutputDir, "failed.zip");
+        try {
+            for (int i = 0; i < 10; i++) {
+                Feature f = new Feature();
+                f.putData(id, "id " + i);
+                f.setSchema(schema.getId());
+                f.setGeometry(getRandomPoint());
+                buffer.write(f);
+            }
+            SingleShapefileOutputHandler soh = new SingleShapefileOutputHandler(
+                    schema, null, buffer, "points", null);
+            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+            try {
+                // fail half way through the records
+                soh.process(zos, "failed", new ICancelable() {
+                    private int checks;
+                    public boolean isCanceled() {
+                        return ++checks > 5;
+                    }
+                });
+                fail("Expected CancellationException");
+            } catch (CancellationException e) {
+                // expected
+            } finally {
+                zos.close();
+            }
+        } finally {
+            buffer.close();
+        }
+        // nothing of the failed shapefile is left in the zip
+        assertTrue(readZip(file).isEmpty());
+    }
+
+    private static Map<String, byte[]> readZip(File file) throws Exception {
+        Map<String, byte[]> entries = new HashMap<String, byte[]>();
+        ZipInputStream zis = new ZipInputStream(new FileInputStream(file));
+        try {
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                entries.put(entry.getName(), IOUtils.toByteArray(zis));
+            }
+        } finally {
+            zis.close();
+        }
+        return entries;
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testParallelOutputCanceled() throws Exception {
+        Schema schema = new Schema(new URI("urn:test"));
+        SimpleField id = new SimpleField("testid");
+        id.setLength(10);
+        schema.put(id);
+        File dir = new File(shapeOutputDir, "canceled");
+        FileUtils.deleteDirectory(dir);
+        ShapefileOutputStream shpos = new ShapefileOutputStream(null, dir, null, null);
+        shpos.setParallelism(2);
+        shpos.setCancelable(new ICancelable() {
+            public boolean isCanceled() {
+                return true;
+            }
+        });
+        shpos.write(schema);
+        for (int i = 0; i < 4; i++) {
+            Feature f = new Feature();
+            f.putData(id, "id " + i);
+            f.setSchema(schema.getId());
+            f.setGeometry(i % 2 == 0 ? getRandomPoint() : new Line(Arrays.asList(getRandomPoint(), getRandomPoint())));
+            shpos.write(f);
+        }
+        shpos.close();
+    }
+
+    @Test
+    public void testSplitOutput() throws Exception {
+        Schema schema = new Schema(new URI("urn:test"));
+        SimpleField id = new SimpleField("testid");
+        id.setLength(10);
+        schema.put(id);
+        List<Feature> features = new ArrayList<Feature>();
+        for (int i = 0; i < 50; i++) {
+            Feature f = new Feature();
+            f.putData(id, "id " + i);
+            f.setSchema(schema.getId());
+            List<Point> pts = new ArrayList<Point>();
+            for (int j = 0; j < 5; j++) {
+                pts.add(getRandomPoint());
+            }
+            f.setGeometry(new Line(pts));
+            features.add(f);
+        }
+        File buffered = new File(shapeOutputDir, "splitbuffered");
+        File streamed = new File(shapeOutputDir, "splitstreamed");
+        FileUtils.deleteDirectory(buffered);
+        FileUtils.deleteDirectory(streamed);
+        ObjectBuffer buffer = new FieldCachingObjectBuffer();
+        try {
+            for (Feature f : features) {
+                buffer.write(f);
+            }
+            SingleShapefileOutputHandler soh = new SingleShapefileOutputHandler(
+                    schema, null, buffer, buffered, "lines", null);
+            soh.setWriteSpatialIndex(true);
+            // each line record is 136 bytes
+            soh.setMaxPartSize(1500);
+            soh.process();
+        } finally {
+            buffer.close();
+        }
+        SingleShapefileOutputHandler soh = new SingleShapefileOutputHandler(
+                schema, null, streamed, "lines", null);
+        soh.setWriteSpatialIndex(true);
+        soh.setMaxPartSize(1500);
+        for (Feature f : features) {
+            soh.write(f);
+        }
+        soh.close();
+
+        String[] names = buffered.list();
+        Arrays.sort(names);
+        String[] streamedNames = streamed.list();
+        Arrays.sort(streamedNames);
+        assertEquals(Arrays.asList(names), Arrays.asList(streamedNames));
+        assertEquals(5 * 5, names.length); // dbf, prj, qix, shp and shx of 5 parts
+        assertEquals("lines_001.dbf", names[0]);
+        int count = 0;
+        for (int part = 1; part <= 5; part++) {
+            String name = String.format("lines_%03d", part);
+            assertTrue(new File(buffered, name + ".shp").length() <= 1500);
+            SingleShapefileInputHandler handler = new SingleShapefileInputHandler(buffered, name);
+            try {
+                assertTrue(handler.read() instanceof Schema);
+                IGISObject ob;
+                while ((ob = handler.read()) != null) {
+                    Feature f = (Feature) ob;
+                    Feature expected = features.get(count++);
+                    assertEquals(expected.getData(id), f.getData(f.getFields().iterator().next()));
+                    assertEquals(expected.getGeometry(), f.getGeometry());
+                }
+            } finally {
+                handler.close();
+            }
+        }
+        assertEquals(features.size(), count);
+    }
+
+    @Test
+    public void testStreamingOutputWithoutGeometry() throws Exception {
+        Schema schema = new Schema(new URI("urn:test"));
+        SimpleField id = new SimpleField("testid");
+        id.setLength(10);
+        schema.put(id);
+        List<Feature> features = new ArrayList<Feature>();
+        for (int i = 0; i < 5; i++) {
+            Feature f = new Feature();
+            f.putData(id, "id " + i);
+            f.setSchema(schema.getId());
+            if (i != 2) f.setGeometry(getRandomPoint());
+            features.add(f);
+        }
+        File buffered = new File(shapeOutputDir, "nogeombuffered");
+        File streamed = new File(shapeOutputDir, "nogeomstreamed");
+        FileUtils.deleteDirectory(buffered);
+        FileUtils.deleteDirectory(streamed);
+        ObjectBuffer buffer = new FieldCachingObjectBuffer();
+        try {
+            for (Feature f : features) {
+                buffer.write(f);
+            }
+            new SingleShapefileOutputHandler(schema, null, buffer, buffered, "points", null).process();
+        } finally {
+            buffer.close();
+        }
+        SingleShapefileOutputHandler soh = new SingleShapefileOutputHandler(
+                schema, null, streamed, "points", null);
+        for (Feature f : features) {
+            soh.write(f);
+        }
+        soh.close();
+
+        String[] names = buffered.list();
+        Arrays.sort(names);
+        String[] streamedNames = streamed.list();
+        Arrays.sort(streamedNames);
+        assertEquals(Arrays.asList(names), Arrays.asList(streamedNames));
+        for (String name : names) {
+            assertTrue(name, Arrays.equals(FileUtils.readFileToByteArray(new File(buffered, name)),
+                    FileUtils.readFileToByteArray(new File(streamed, name))));
+        }
+        // every feature has a dbf record, the shp only has the 4 points
+        byte[] dbf = FileUtils.readFileToByteArray(new File(streamed, "points.dbf"));
+        assertEquals(5, dbf[4] & 0xff | (dbf[5] & 0xff) << 8 | (dbf[6] & 0xff) << 16 | (dbf[7] & 0xff) << 24);
+        byte[] shx = FileUtils.readFileToByteArray(new File(streamed, "points.shx"));
+        assertEquals(100 + 4 * 8, shx.length);
+    }
+
     @Test
     public void testMultiPointOutput() throws Exception {
         Schema schema = new Schema(new URI("urn:test"));